@@ -2,7 +2,13 @@ package com.compara.retorno;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.core.Ordered;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
+// Cache advice wraps the transaction advice, so evictions happen after commit
+@EnableCaching(order = Ordered.HIGHEST_PRECEDENCE)
+@EnableScheduling
 @SpringBootApplication
 public class CnabDashboardApplication {
 
@@ -1,12 +1,11 @@
 package com.compara.retorno.controller;
 
 import com.compara.retorno.model.Transacao;
+import com.compara.retorno.repository.TransacaoKeysetRepository;
+import com.compara.retorno.service.ContribuinteAutocompleteIndex;
 import com.compara.retorno.service.TransactionService;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -21,26 +20,31 @@ public class ContribuinteController {
     private TransactionService service;
 
     @Autowired
-    private com.compara.retorno.service.PdfService pdfService;
+    private com.compara.retorno.service.ExportService exportService;
+
+    @Autowired
+    private ContribuinteAutocompleteIndex autocompleteIndex;
 
     @GetMapping("/contribuintes")
     public String searchPage(Model model,
             HttpServletRequest request,
             @RequestParam(required = false) String nomePagador,
             @RequestParam(required = false) BigDecimal valorPago,
-            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(required = false) String cursor,
             @RequestParam(defaultValue = "10") int size,
             @org.springframework.web.bind.annotation.RequestHeader(value = "HX-Request", required = false) boolean hxRequest) {
 
         long start = System.currentTimeMillis();
-        Page<Transacao> results;
+        size = Math.max(1, Math.min(size, 100));
+        TransacaoKeysetRepository.CursorPage<Transacao> results;
         long took;
         try {
-            PageRequest pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "data_ocorrencia"));
-            results = service.searchTransactions(nomePagador, valorPago, pageable);
+            // With a name, most similar first and then newest; without one, newest first.
+            // Each page continues from the cursor of the previous one
+            results = service.searchTransactions(nomePagador, valorPago, cursor, size);
             took = System.currentTimeMillis() - start;
         } catch (Exception ex) {
-            results = org.springframework.data.domain.Page.empty();
+            results = TransacaoKeysetRepository.CursorPage.empty();
             took = System.currentTimeMillis() - start;
             model.addAttribute("error", "Falha ao consultar transações: " + ex.getMessage());
         }
@@ -49,37 +53,66 @@ public class ContribuinteController {
         model.addAttribute("results", results);
         model.addAttribute("nomePagador", nomePagador);
         model.addAttribute("valorPago", valorPago);
-        model.addAttribute("page", page);
         model.addAttribute("size", size);
         model.addAttribute("took", took);
 
         return hxRequest ? "contribuintes :: content" : "contribuintes";
     }
 
+    /** Suggestions for the name box, from memory (no database round trip per keystroke). */
+    @GetMapping("/contribuintes/autocomplete")
+    public String autocomplete(Model model,
+            @RequestParam(name = "nomePagador", required = false) String termo,
+            @RequestParam(defaultValue = "10") int limit) {
+        model.addAttribute("sugestoes", autocompleteIndex.suggest(termo, Math.max(1, Math.min(limit, 50))));
+        return "contribuintes :: sugestoes";
+    }
+
     @GetMapping("/contribuintes/pdf")
-    public org.springframework.http.ResponseEntity<byte[]> downloadPdf(
+    public void downloadPdf(jakarta.servlet.http.HttpServletResponse response,
             @RequestParam(required = false) String nomePagador,
-            @RequestParam(required = false) BigDecimal valorPago) {
+            @RequestParam(required = false) BigDecimal valorPago) throws java.io.IOException {
 
-        try {
-            java.util.List<Transacao> transactions = service.searchTransactionsList(nomePagador, valorPago);
-            byte[] pdfContent = pdfService.generateTransactionsReport(transactions);
-
-            org.springframework.http.HttpHeaders headers = new org.springframework.http.HttpHeaders();
-            headers.setContentType(org.springframework.http.MediaType.APPLICATION_PDF);
-            String filename = "relatorio_transacoes.pdf";
-            headers.setContentDispositionFormData(filename, filename);
-            headers.setCacheControl("must-revalidate, post-check=0, pre-check=0");
-
-            return new org.springframework.http.ResponseEntity<>(pdfContent, headers,
-                    org.springframework.http.HttpStatus.OK);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return org.springframework.http.ResponseEntity.internalServerError().build();
+        response.setContentType("application/pdf");
+        response.setHeader("Content-Disposition", "attachment; filename=\"relatorio_transacoes.pdf\"");
+        response.setHeader("Cache-Control", "must-revalidate, post-check=0, pre-check=0");
+
+        // Written page by page while the search results are read
+        try (java.io.OutputStream os = new java.io.BufferedOutputStream(response.getOutputStream(), 64 * 1024)) {
+            exportService.writeTransactionsPdf(nomePagador, valorPago, os);
+        } catch (com.lowagie.text.DocumentException e) {
+            throw new java.io.IOException("Error generating PDF", e);
+        }
+    }
+
+    @GetMapping("/contribuintes/excel")
+    public void downloadExcel(jakarta.servlet.http.HttpServletResponse response,
+            @RequestParam(required = false) String nomePagador,
+            @RequestParam(required = false) BigDecimal valorPago) throws java.io.IOException {
+
+        response.setContentType(com.compara.retorno.service.ExcelService.CONTENT_TYPE);
+        response.setHeader("Content-Disposition", "attachment; filename=\"relatorio_transacoes.xlsx\"");
+        response.setHeader("Cache-Control", "must-revalidate, post-check=0, pre-check=0");
+
+        try (java.io.OutputStream os = new java.io.BufferedOutputStream(response.getOutputStream(), 64 * 1024)) {
+            exportService.writeTransactionsExcel(nomePagador, valorPago, os);
         }
     }
 
-    // PDF and Excel export endpoints removed/commented out as they were specific to
-    // Contribuinte model
-    // and would need to be reimplemented for Transacao if needed.
+    /** Contribuinte register search (CPF/CNPJ, inscrição or name, plus exact filters) as a spreadsheet. */
+    @GetMapping("/contribuintes/cadastro/excel")
+    public void downloadCadastroExcel(jakarta.servlet.http.HttpServletResponse response,
+            @RequestParam(required = false) String q,
+            @RequestParam(required = false) String bairro,
+            @RequestParam(required = false) String atividade,
+            @RequestParam(required = false) String situacao) throws java.io.IOException {
+
+        response.setContentType(com.compara.retorno.service.ExcelService.CONTENT_TYPE);
+        response.setHeader("Content-Disposition", "attachment; filename=\"contribuintes.xlsx\"");
+        response.setHeader("Cache-Control", "must-revalidate, post-check=0, pre-check=0");
+
+        try (java.io.OutputStream os = new java.io.BufferedOutputStream(response.getOutputStream(), 64 * 1024)) {
+            exportService.writeContribuintesExcel(q, bairro, atividade, situacao, os);
+        }
+    }
 }
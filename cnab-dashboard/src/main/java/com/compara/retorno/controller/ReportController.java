@@ -0,0 +1,89 @@
+package com.compara.retorno.controller;
+
+import com.compara.retorno.service.ReportJobService;
+import com.compara.retorno.util.DateUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * Background report jobs: the export buttons queue a job and get a status
+ * fragment that polls until the file is ready, then links to the download.
+ */
+@Controller
+public class ReportController {
+
+    @Autowired
+    private ReportJobService reportJobService;
+
+    @PostMapping("/relatorios/analise")
+    public String analise(Model model,
+            @RequestParam(defaultValue = "PDF") ReportJobService.Formato formato,
+            @RequestParam(required = false) LocalDate startDate,
+            @RequestParam(required = false) LocalDate endDate,
+            @RequestParam(required = false) Boolean useCreditDate,
+            @RequestParam(defaultValue = "false") boolean onlyDivergences) {
+
+        // Same defaults as the analysis page, so the report matches what is on screen
+        boolean effectiveUseCreditDate = (useCreditDate != null) ? useCreditDate : (startDate == null);
+        LocalDate[] dates = DateUtils.validateAndFixRange(startDate, endDate);
+        return submit(model, ReportJobService.ReportRequest.analise(formato, dates[0], dates[1],
+                effectiveUseCreditDate, onlyDivergences));
+    }
+
+    @PostMapping("/relatorios/transacoes")
+    public String transacoes(Model model,
+            @RequestParam(defaultValue = "PDF") ReportJobService.Formato formato,
+            @RequestParam(required = false) String nomePagador,
+            @RequestParam(required = false) BigDecimal valorPago) {
+        return submit(model, ReportJobService.ReportRequest.transacoes(formato, nomePagador, valorPago));
+    }
+
+    /** Status fragment, polled while the job is queued or running. */
+    @GetMapping("/relatorios/{id}")
+    public String status(Model model, @PathVariable String id) {
+        model.addAttribute("job", reportJobService.get(id));
+        return "relatorio_job :: job";
+    }
+
+    /** The finished file; Range requests are answered with the requested part only. */
+    @GetMapping("/relatorios/{id}/arquivo")
+    public ResponseEntity<Resource> download(@PathVariable String id) {
+        ReportJobService.ReportJob job = reportJobService.ready(id);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(job.getRequest().getFormato().getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename(job.getRequest().getNomeArquivo(), StandardCharsets.UTF_8).build().toString())
+                // The id changes with the data, so the file behind it never does
+                .eTag(id)
+                .cacheControl(CacheControl.noCache())
+                .body(new FileSystemResource(job.getFile()));
+    }
+
+    private String submit(Model model, ReportJobService.ReportRequest request) {
+        try {
+            model.addAttribute("job", reportJobService.submit(request));
+        } catch (IllegalStateException e) {
+            model.addAttribute("erro", e.getMessage());
+        }
+        return "relatorio_job :: job";
+    }
+}
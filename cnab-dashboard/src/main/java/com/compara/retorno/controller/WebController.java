@@ -1,9 +1,12 @@
 package com.compara.retorno.controller;
 
+import com.compara.retorno.model.ImportJob;
 import com.compara.retorno.model.Transacao;
 import com.compara.retorno.model.TipoOrigem;
+import com.compara.retorno.repository.TransacaoKeysetRepository;
 import com.compara.retorno.repository.TransacaoRepository;
-import com.compara.retorno.service.CnabParserService;
+import com.compara.retorno.service.ImportEventBroadcaster;
+import com.compara.retorno.service.ImportJobService;
 import com.compara.retorno.service.TransactionService;
 import com.compara.retorno.util.DateUtils;
 import org.springframework.http.HttpHeaders;
@@ -12,7 +15,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -27,7 +29,10 @@ import java.util.List;
 public class WebController {
 
     @Autowired
-    private CnabParserService parserService;
+    private ImportJobService importJobService;
+
+    @Autowired
+    private ImportEventBroadcaster importEventBroadcaster;
 
     @Autowired
     private TransactionService transactionService;
@@ -36,11 +41,17 @@ public class WebController {
     private TransacaoRepository repository;
 
     @Autowired
-    private com.compara.retorno.service.PdfService pdfService;
+    private TransacaoKeysetRepository keysetRepository;
+
+    @Autowired
+    private com.compara.retorno.service.ExportService exportService;
+
+    @Autowired
+    private com.compara.retorno.service.BatchReportService batchReportService;
 
     @GetMapping("/")
     public String dashboard(Model model,
-            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(required = false) String cursor,
             @RequestParam(required = false) String filter,
             @RequestParam(required = false) java.time.LocalDate startDate,
             @RequestParam(required = false) java.time.LocalDate endDate,
@@ -60,36 +71,11 @@ public class WebController {
                 effectiveUseCreditDate);
         model.addAttribute("stats", stats);
 
-        Sort sort = Sort.by(
-                Sort.Order.asc("nomePagador").ignoreCase(),
-                Sort.Order.asc("nossoNumero"),
-                Sort.Order.asc("tipoOrigem"),
-                Sort.Order.desc("statusConciliacao"),
-                Sort.Order.desc(effectiveUseCreditDate ? "dataCredito" : "dataOcorrencia"));
-        PageRequest pageable = PageRequest.of(page, 10, sort);
-        Page<Transacao> transactions;
-
-        if (filter != null && !filter.isEmpty()) {
-            if (filter.equals("DIVERGENTE")) {
-                transactions = effectiveUseCreditDate
-                        ? repository.findByStatusConciliacaoAndDataCreditoBetween("DIVERGENTE", startDate, endDate,
-                                pageable)
-                        : repository.findByStatusConciliacaoAndDataOcorrenciaBetween("DIVERGENTE", startDate, endDate,
-                                pageable);
-            } else if (filter.equals("API")) {
-                transactions = effectiveUseCreditDate
-                        ? repository.findByTipoOrigemAndDataCreditoBetween(TipoOrigem.API, startDate, endDate, pageable)
-                        : repository.findByTipoOrigemAndDataOcorrenciaBetween(TipoOrigem.API, startDate, endDate,
-                                pageable);
-            } else {
-                transactions = effectiveUseCreditDate
-                        ? repository.findByDataCreditoBetween(startDate, endDate, pageable)
-                        : repository.findByDataOcorrenciaBetween(startDate, endDate, pageable);
-            }
-        } else {
-            transactions = effectiveUseCreditDate ? repository.findByDataCreditoBetween(startDate, endDate, pageable)
-                    : repository.findByDataOcorrenciaBetween(startDate, endDate, pageable);
-        }
+        // Keyset pagination: the cursor carries the sort key of the row next to the page
+        String status = "DIVERGENTE".equals(filter) ? "DIVERGENTE" : null;
+        TipoOrigem tipoOrigem = "API".equals(filter) ? TipoOrigem.API : null;
+        TransacaoKeysetRepository.CursorPage<Transacao> transactions = keysetRepository.findDashboardPage(startDate,
+                endDate, effectiveUseCreditDate, status, tipoOrigem, cursor, 10);
 
         model.addAttribute("transactions", transactions);
         model.addAttribute("filter", filter);
@@ -106,63 +92,38 @@ public class WebController {
         return hxRequest ? "importacao :: content" : "importacao";
     }
 
+    /** Live import progress (Server-Sent Events), shared by every open import page. */
+    @GetMapping(value = "/import/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @org.springframework.web.bind.annotation.ResponseBody
+    public org.springframework.web.servlet.mvc.method.annotation.SseEmitter importEvents() {
+        return importEventBroadcaster.subscribe();
+    }
+
+    @GetMapping("/import/jobs")
+    public String importJobs(Model model) {
+        List<ImportJob> jobs = importJobService.getRecentJobs();
+        model.addAttribute("jobs", jobs);
+        model.addAttribute("activeJobs", jobs.stream().anyMatch(ImportJob::isAtivo));
+        return "importacao :: jobs";
+    }
+
     @PostMapping("/upload")
     public String uploadFiles(@RequestParam("apiFiles") MultipartFile[] apiFiles,
             @RequestParam("geralFiles") MultipartFile[] geralFiles,
             RedirectAttributes redirectAttributes) {
 
         try {
-            java.util.List<String> skippedFiles = new java.util.ArrayList<>();
-            int processedCount = 0;
-
-            // Process API Files
-            for (MultipartFile file : apiFiles) {
-                if (!file.isEmpty()) {
-                    if (transactionService.isFileAlreadyImported(file.getOriginalFilename())) {
-                        skippedFiles.add(file.getOriginalFilename());
-                        continue;
-                    }
-                    List<Transacao> trs = parserService.parseFile(file, "API");
-                    transactionService.saveAll(trs);
-                    processedCount++;
-                }
-            }
-
-            // Process Geral Files
-            for (MultipartFile file : geralFiles) {
-                if (!file.isEmpty()) {
-                    if (transactionService.isFileAlreadyImported(file.getOriginalFilename())) {
-                        skippedFiles.add(file.getOriginalFilename());
-                        continue;
-                    }
-                    List<Transacao> trs = parserService.parseFile(file, "GERAL");
-                    transactionService.saveAll(trs);
-                    processedCount++;
-                }
-            }
-
-            if (processedCount > 0) {
-                // Trigger Reconciliation
-                transactionService.performReconciliation();
-            }
-
-            if (!skippedFiles.isEmpty()) {
-                String skippedMsg = "Arquivos já existentes ignorados: " + String.join(", ", skippedFiles);
-                if (processedCount > 0) {
-                    redirectAttributes.addFlashAttribute("message", "Importação parcial concluída. " + skippedMsg);
-                    redirectAttributes.addFlashAttribute("messageType", "warning");
-                } else {
-                    redirectAttributes.addFlashAttribute("message", "Importação cancelada. " + skippedMsg);
-                    redirectAttributes.addFlashAttribute("messageType", "warning");
-                }
-            } else if (processedCount > 0) {
-                redirectAttributes.addFlashAttribute("message", "Arquivos processados com sucesso!");
-                redirectAttributes.addFlashAttribute("messageType", "success");
-            } else {
+            // Files are only copied to disk here; parsing, saving and reconciliation run in the background
+            ImportJob job = importJobService.submit(apiFiles, geralFiles);
+            if (job == null) {
                 redirectAttributes.addFlashAttribute("message", "Nenhum arquivo selecionado.");
                 redirectAttributes.addFlashAttribute("messageType", "info");
+            } else {
+                redirectAttributes.addFlashAttribute("message", String.format(
+                        "Importação #%d enfileirada (%d arquivos). Acompanhe o progresso abaixo.",
+                        job.getId(), job.getTotalArquivos()));
+                redirectAttributes.addFlashAttribute("messageType", "info");
             }
-
         } catch (Exception e) {
             redirectAttributes.addFlashAttribute("message", "Erro ao processar arquivos: " + e.getMessage());
             redirectAttributes.addFlashAttribute("messageType", "danger");
@@ -211,6 +172,9 @@ public class WebController {
             @RequestParam(required = false) java.time.LocalDate endDate,
             @RequestParam(required = false) Boolean useCreditDate,
             @RequestParam(defaultValue = "false") boolean onlyDivergences,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "nossoNumero") String sort,
+            @RequestParam(defaultValue = "asc") String dir,
             @org.springframework.web.bind.annotation.RequestHeader(value = "HX-Request", required = false) boolean hxRequest) {
 
         boolean effectiveUseCreditDate = (useCreditDate != null) ? useCreditDate : (startDate == null);
@@ -219,10 +183,14 @@ public class WebController {
         startDate = dates[0];
         endDate = dates[1];
 
-        List<TransactionService.ComparisonResult> results = transactionService.compareTransactions(startDate, endDate,
-                effectiveUseCreditDate, onlyDivergences);
+        Page<TransactionService.ComparisonResult> results = transactionService.compareTransactionsPage(startDate,
+                endDate, effectiveUseCreditDate, onlyDivergences, sort, "desc".equalsIgnoreCase(dir),
+                PageRequest.of(Math.max(page, 0), 50));
 
-        model.addAttribute("results", results);
+        model.addAttribute("results", results.getContent());
+        model.addAttribute("resultsPage", results);
+        model.addAttribute("sort", sort);
+        model.addAttribute("dir", "desc".equalsIgnoreCase(dir) ? "desc" : "asc");
         model.addAttribute("startDate", startDate);
         model.addAttribute("endDate", endDate);
         model.addAttribute("useCreditDate", effectiveUseCreditDate);
@@ -243,30 +211,65 @@ public class WebController {
         startDate = dates[0];
         endDate = dates[1];
 
-        List<TransactionService.ComparisonResult> results = transactionService.compareTransactions(startDate, endDate,
-                effectiveUseCreditDate, onlyDivergences);
-
-        try {
-            byte[] content = pdfService.generateAnaliseReport(results, startDate, endDate);
-
-            response.setContentType("application/pdf");
-            response.setHeader("Content-Disposition",
-                    "attachment; filename=\"analise_api_geral_" + startDate + "_" + endDate + ".pdf\"");
-            response.setHeader("Content-Length", String.valueOf(content.length));
-            response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
-            response.setHeader("Pragma", "no-cache");
-            response.setHeader("Expires", "0");
-
-            try (java.io.OutputStream os = response.getOutputStream()) {
-                os.write(content);
-                os.flush();
-            }
+        response.setContentType("application/pdf");
+        response.setHeader("Content-Disposition",
+                "attachment; filename=\"analise_api_geral_" + startDate + "_" + endDate + ".pdf\"");
+        response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
+        response.setHeader("Pragma", "no-cache");
+        response.setHeader("Expires", "0");
 
+        // Written page by page while the comparison is read (no Content-Length: the size is not known up front)
+        try (java.io.OutputStream os = new java.io.BufferedOutputStream(response.getOutputStream(), 64 * 1024)) {
+            exportService.writeAnalisePdf(startDate, endDate, effectiveUseCreditDate, onlyDivergences, os);
         } catch (com.lowagie.text.DocumentException e) {
             throw new java.io.IOException("Error generating PDF", e);
         }
     }
 
+    @GetMapping("/analise-datas/excel")
+    public void exportExcel(jakarta.servlet.http.HttpServletResponse response,
+            @RequestParam(required = false) java.time.LocalDate startDate,
+            @RequestParam(required = false) java.time.LocalDate endDate,
+            @RequestParam(required = false) Boolean useCreditDate,
+            @RequestParam(defaultValue = "false") boolean onlyDivergences) throws java.io.IOException {
+
+        boolean effectiveUseCreditDate = (useCreditDate != null) ? useCreditDate : (startDate == null);
+        java.time.LocalDate[] dates = DateUtils.validateAndFixRange(startDate, endDate);
+        startDate = dates[0];
+        endDate = dates[1];
+
+        response.setContentType(com.compara.retorno.service.ExcelService.CONTENT_TYPE);
+        response.setHeader("Content-Disposition",
+                "attachment; filename=\"analise_api_geral_" + startDate + "_" + endDate + ".xlsx\"");
+        response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
+        response.setHeader("Pragma", "no-cache");
+        response.setHeader("Expires", "0");
+
+        // Rows go through a small in-memory window; the workbook is written straight to the response
+        try (java.io.OutputStream os = new java.io.BufferedOutputStream(response.getOutputStream(), 64 * 1024)) {
+            exportService.writeAnaliseExcel(startDate, endDate, effectiveUseCreditDate, onlyDivergences, os);
+        }
+    }
+
+    /** Month pack: one analysis PDF per day with data, in a zip written as the documents finish. */
+    @GetMapping("/analise-datas/lote")
+    public void exportMonthZip(jakarta.servlet.http.HttpServletResponse response,
+            @RequestParam(required = false) java.time.YearMonth mes,
+            @RequestParam(defaultValue = "false") boolean useCreditDate,
+            @RequestParam(defaultValue = "false") boolean onlyDivergences) throws java.io.IOException {
+
+        if (mes == null)
+            mes = java.time.YearMonth.from(java.time.LocalDate.now().minusDays(1));
+
+        response.setContentType("application/zip");
+        response.setHeader("Content-Disposition", "attachment; filename=\"analise_api_geral_" + mes + ".zip\"");
+        response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
+
+        try (java.io.OutputStream os = new java.io.BufferedOutputStream(response.getOutputStream(), 64 * 1024)) {
+            batchReportService.writeAnaliseMonthZip(mes, useCreditDate, onlyDivergences, os);
+        }
+    }
+
     @GetMapping("/transacao/{id}")
     public String detalhesTransacao(@org.springframework.web.bind.annotation.PathVariable Long id,
             Model model,
@@ -296,27 +299,8 @@ public class WebController {
         response.setContentType("text/csv");
         response.setHeader("Content-Disposition", "attachment; filename=\"analise_datas.csv\"");
 
-        List<Transacao> list = transactionService.findAllByPeriod(startDate, endDate);
-
-        java.io.PrintWriter writer = response.getWriter();
-        writer.println("Origem;Nosso Numero;Pagador;Data Ocorrencia;Data Credito;Diferenca (Dias);Valor Pago");
-
-        java.time.format.DateTimeFormatter formatter = java.time.format.DateTimeFormatter.ofPattern("dd/MM/yyyy");
-
-        for (Transacao t : list) {
-            long diff = 0;
-            if (t.getDataOcorrencia() != null && t.getDataCredito() != null) {
-                diff = java.time.temporal.ChronoUnit.DAYS.between(t.getDataOcorrencia(), t.getDataCredito());
-            }
-
-            writer.printf("%s;%s;%s;%s;%s;%d;%s%n",
-                    t.getTipoOrigem(),
-                    t.getNossoNumero(),
-                    t.getNomePagador(),
-                    t.getDataOcorrencia() != null ? t.getDataOcorrencia().format(formatter) : "",
-                    t.getDataCredito() != null ? t.getDataCredito().format(formatter) : "",
-                    diff,
-                    t.getValorPago());
-        }
+        // Streamed from a database cursor through a buffer flushed every few rows
+        java.io.Writer writer = new java.io.BufferedWriter(response.getWriter(), 64 * 1024);
+        exportService.writeAnaliseDatasCsv(startDate, endDate, writer);
     }
 }
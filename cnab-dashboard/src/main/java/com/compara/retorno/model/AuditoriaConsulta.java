@@ -10,7 +10,8 @@ import java.time.LocalDateTime;
 public class AuditoriaConsulta {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "auditoria_consulta_seq")
+    @SequenceGenerator(name = "auditoria_consulta_seq", sequenceName = "auditoria_consulta_seq", allocationSize = 50)
     private Long id;
 
     private String usuario; // opcional
@@ -0,0 +1,124 @@
+package com.compara.retorno.model;
+
+import jakarta.persistence.*;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Precomputed API x GERAL comparison of one nossoNumero, maintained by
+ * {@code TransacaoComparacaoRepository} for the keys touched by each import or
+ * delete.
+ */
+@Entity
+@Table(name = "comparacao", indexes = {
+    @Index(name = "idx_comparacao_nosso_numero", columnList = "nossoNumero"),
+    @Index(name = "idx_comparacao_ocorrencia", columnList = "dataOcorrencia"),
+    @Index(name = "idx_comparacao_credito", columnList = "dataCredito")
+})
+public class Comparacao {
+
+    // Bits de divergencias
+    public static final int AUSENTE_GERAL = 1;
+    public static final int AUSENTE_API = 2;
+    public static final int VALOR = 4;
+    public static final int DATA_PAGAMENTO = 8;
+    public static final int DATA_CREDITO = 16;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "comparacao_seq")
+    @SequenceGenerator(name = "comparacao_seq", sequenceName = "comparacao_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(nullable = false)
+    private String nossoNumero;
+    private Integer par; // ordem do par dentro do nossoNumero
+
+    private Long apiId;
+    private String apiNomePagador;
+    private BigDecimal apiValorPago;
+    private LocalDate apiDataOcorrencia;
+    private LocalDate apiDataCredito;
+
+    private Long geralId;
+    private String geralNomePagador;
+    private BigDecimal geralValorPago;
+    private LocalDate geralDataOcorrencia;
+    private LocalDate geralDataCredito;
+
+    // Valores exibidos (API quando existir, senão GERAL)
+    private String nomePagador;
+    private BigDecimal valorPago;
+    private LocalDate dataOcorrencia;
+    private LocalDate dataCredito;
+
+    private String status; // CONCILIADO, DIVERGENTE, SOMENTE_API, SOMENTE_GERAL
+
+    @Column(length = 10)
+    private String regra; // EXATO, TOLERANCIA, DOCUMENTO, VALOR, DATA, ORDEM (TransactionMatcher.MatchRule); nulo sem par
+    private Integer divergencias; // bitmask, 0 = sem divergência
+    private BigDecimal deltaValor; // API - GERAL
+    private Integer deltaDiasPagamento; // GERAL - API
+    private Integer deltaDiasCredito; // GERAL - API
+
+    private LocalDateTime divergenteDesde;
+    private LocalDateTime atualizadoEm;
+
+    public Comparacao() {}
+
+    public boolean temDivergencia(int bit) {
+        return divergencias != null && (divergencias & bit) != 0;
+    }
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    public String getNossoNumero() { return nossoNumero; }
+    public void setNossoNumero(String nossoNumero) { this.nossoNumero = nossoNumero; }
+    public Integer getPar() { return par; }
+    public void setPar(Integer par) { this.par = par; }
+    public Long getApiId() { return apiId; }
+    public void setApiId(Long apiId) { this.apiId = apiId; }
+    public String getApiNomePagador() { return apiNomePagador; }
+    public void setApiNomePagador(String apiNomePagador) { this.apiNomePagador = apiNomePagador; }
+    public BigDecimal getApiValorPago() { return apiValorPago; }
+    public void setApiValorPago(BigDecimal apiValorPago) { this.apiValorPago = apiValorPago; }
+    public LocalDate getApiDataOcorrencia() { return apiDataOcorrencia; }
+    public void setApiDataOcorrencia(LocalDate apiDataOcorrencia) { this.apiDataOcorrencia = apiDataOcorrencia; }
+    public LocalDate getApiDataCredito() { return apiDataCredito; }
+    public void setApiDataCredito(LocalDate apiDataCredito) { this.apiDataCredito = apiDataCredito; }
+    public Long getGeralId() { return geralId; }
+    public void setGeralId(Long geralId) { this.geralId = geralId; }
+    public String getGeralNomePagador() { return geralNomePagador; }
+    public void setGeralNomePagador(String geralNomePagador) { this.geralNomePagador = geralNomePagador; }
+    public BigDecimal getGeralValorPago() { return geralValorPago; }
+    public void setGeralValorPago(BigDecimal geralValorPago) { this.geralValorPago = geralValorPago; }
+    public LocalDate getGeralDataOcorrencia() { return geralDataOcorrencia; }
+    public void setGeralDataOcorrencia(LocalDate geralDataOcorrencia) { this.geralDataOcorrencia = geralDataOcorrencia; }
+    public LocalDate getGeralDataCredito() { return geralDataCredito; }
+    public void setGeralDataCredito(LocalDate geralDataCredito) { this.geralDataCredito = geralDataCredito; }
+    public String getNomePagador() { return nomePagador; }
+    public void setNomePagador(String nomePagador) { this.nomePagador = nomePagador; }
+    public BigDecimal getValorPago() { return valorPago; }
+    public void setValorPago(BigDecimal valorPago) { this.valorPago = valorPago; }
+    public LocalDate getDataOcorrencia() { return dataOcorrencia; }
+    public void setDataOcorrencia(LocalDate dataOcorrencia) { this.dataOcorrencia = dataOcorrencia; }
+    public LocalDate getDataCredito() { return dataCredito; }
+    public void setDataCredito(LocalDate dataCredito) { this.dataCredito = dataCredito; }
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public String getRegra() { return regra; }
+    public void setRegra(String regra) { this.regra = regra; }
+    public Integer getDivergencias() { return divergencias; }
+    public void setDivergencias(Integer divergencias) { this.divergencias = divergencias; }
+    public BigDecimal getDeltaValor() { return deltaValor; }
+    public void setDeltaValor(BigDecimal deltaValor) { this.deltaValor = deltaValor; }
+    public Integer getDeltaDiasPagamento() { return deltaDiasPagamento; }
+    public void setDeltaDiasPagamento(Integer deltaDiasPagamento) { this.deltaDiasPagamento = deltaDiasPagamento; }
+    public Integer getDeltaDiasCredito() { return deltaDiasCredito; }
+    public void setDeltaDiasCredito(Integer deltaDiasCredito) { this.deltaDiasCredito = deltaDiasCredito; }
+    public LocalDateTime getDivergenteDesde() { return divergenteDesde; }
+    public void setDivergenteDesde(LocalDateTime divergenteDesde) { this.divergenteDesde = divergenteDesde; }
+    public LocalDateTime getAtualizadoEm() { return atualizadoEm; }
+    public void setAtualizadoEm(LocalDateTime atualizadoEm) { this.atualizadoEm = atualizadoEm; }
+}
@@ -13,10 +13,12 @@ import java.util.List;
     @Index(name = "idx_contrib_atividade", columnList = "atividadeEconomica"),
     @Index(name = "idx_contrib_situacao", columnList = "situacaoCadastral")
 })
+@EntityListeners(com.compara.retorno.service.ContribuinteAutocompleteIndex.EntityListener.class)
 public class Contribuinte {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "contribuintes_seq")
+    @SequenceGenerator(name = "contribuintes_seq", sequenceName = "contribuintes_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false, length = 14)
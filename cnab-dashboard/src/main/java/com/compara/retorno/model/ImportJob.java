@@ -0,0 +1,100 @@
+package com.compara.retorno.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "import_job", indexes = {
+    @Index(name = "idx_import_job_criado", columnList = "criadoEm")
+})
+public class ImportJob {
+
+    public static final String NA_FILA = "NA_FILA";
+    public static final String PROCESSANDO = "PROCESSANDO";
+    public static final String CONCILIANDO = "CONCILIANDO";
+    public static final String CONCLUIDO = "CONCLUIDO";
+    public static final String FALHOU = "FALHOU";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "import_job_seq")
+    @SequenceGenerator(name = "import_job_seq", sequenceName = "import_job_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(nullable = false)
+    private String status; // NA_FILA, PROCESSANDO, CONCILIANDO, CONCLUIDO, FALHOU
+    private String importBatch;
+
+    private Integer totalArquivos = 0;
+    private Integer arquivosProcessados = 0;
+    private Integer arquivosIgnorados = 0;
+    private Integer arquivosComFalha = 0;
+    private Long transacoesGravadas = 0L;
+    private Long bytesTotal = 0L;
+    private Long bytesProcessados = 0L;
+
+    @Column(length = 4000)
+    private String mensagem;
+    private String tipoMensagem;
+
+    private LocalDateTime criadoEm = LocalDateTime.now();
+    private LocalDateTime iniciadoEm;
+    private LocalDateTime finalizadoEm;
+    private Long duracaoConciliacaoMs;
+
+    public ImportJob() {}
+
+    @Transient
+    public boolean isAtivo() {
+        return NA_FILA.equals(status) || PROCESSANDO.equals(status) || CONCILIANDO.equals(status);
+    }
+
+    @Transient
+    public int getPercentual() {
+        if (bytesTotal == null || bytesTotal == 0) {
+            return CONCLUIDO.equals(status) ? 100 : 0;
+        }
+        return (int) Math.min(100, bytesProcessados * 100 / bytesTotal);
+    }
+
+    @Transient
+    public Long getDuracaoMs() {
+        if (iniciadoEm == null) {
+            return null;
+        }
+        LocalDateTime fim = finalizadoEm != null ? finalizadoEm : LocalDateTime.now();
+        return java.time.Duration.between(iniciadoEm, fim).toMillis();
+    }
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    public String getImportBatch() { return importBatch; }
+    public void setImportBatch(String importBatch) { this.importBatch = importBatch; }
+    public Integer getTotalArquivos() { return totalArquivos; }
+    public void setTotalArquivos(Integer totalArquivos) { this.totalArquivos = totalArquivos; }
+    public Integer getArquivosProcessados() { return arquivosProcessados; }
+    public void setArquivosProcessados(Integer arquivosProcessados) { this.arquivosProcessados = arquivosProcessados; }
+    public Integer getArquivosIgnorados() { return arquivosIgnorados; }
+    public void setArquivosIgnorados(Integer arquivosIgnorados) { this.arquivosIgnorados = arquivosIgnorados; }
+    public Integer getArquivosComFalha() { return arquivosComFalha; }
+    public void setArquivosComFalha(Integer arquivosComFalha) { this.arquivosComFalha = arquivosComFalha; }
+    public Long getTransacoesGravadas() { return transacoesGravadas; }
+    public void setTransacoesGravadas(Long transacoesGravadas) { this.transacoesGravadas = transacoesGravadas; }
+    public Long getBytesTotal() { return bytesTotal; }
+    public void setBytesTotal(Long bytesTotal) { this.bytesTotal = bytesTotal; }
+    public Long getBytesProcessados() { return bytesProcessados; }
+    public void setBytesProcessados(Long bytesProcessados) { this.bytesProcessados = bytesProcessados; }
+    public String getMensagem() { return mensagem; }
+    public void setMensagem(String mensagem) { this.mensagem = mensagem; }
+    public String getTipoMensagem() { return tipoMensagem; }
+    public void setTipoMensagem(String tipoMensagem) { this.tipoMensagem = tipoMensagem; }
+    public LocalDateTime getCriadoEm() { return criadoEm; }
+    public void setCriadoEm(LocalDateTime criadoEm) { this.criadoEm = criadoEm; }
+    public LocalDateTime getIniciadoEm() { return iniciadoEm; }
+    public void setIniciadoEm(LocalDateTime iniciadoEm) { this.iniciadoEm = iniciadoEm; }
+    public LocalDateTime getFinalizadoEm() { return finalizadoEm; }
+    public void setFinalizadoEm(LocalDateTime finalizadoEm) { this.finalizadoEm = finalizadoEm; }
+    public Long getDuracaoConciliacaoMs() { return duracaoConciliacaoMs; }
+    public void setDuracaoConciliacaoMs(Long duracaoConciliacaoMs) { this.duracaoConciliacaoMs = duracaoConciliacaoMs; }
+}
@@ -12,7 +12,8 @@ import java.time.LocalDate;
 public class Pagamento {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "pagamentos_seq")
+    @SequenceGenerator(name = "pagamentos_seq", sequenceName = "pagamentos_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -8,12 +8,18 @@ import java.util.Objects;
 @Entity
 @Table(name = "transacoes", indexes = {
     @Index(name = "idx_nosso_numero", columnList = "nossoNumero"),
-    @Index(name = "idx_data_ocorrencia", columnList = "dataOcorrencia")
+    @Index(name = "idx_data_ocorrencia", columnList = "dataOcorrencia"),
+    @Index(name = "idx_conciliacao", columnList = "nossoNumero, tipoOrigem, valorPago, dataOcorrencia"),
+    @Index(name = "idx_import_batch", columnList = "importBatch")
 })
 public class Transacao {
 
+    /** Ids reserved per sequence call (Hibernate pooled optimizer and COPY loader). */
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "transacoes_seq")
+    @SequenceGenerator(name = "transacoes_seq", sequenceName = "transacoes_seq", allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
 
     @Enumerated(EnumType.STRING)
@@ -62,6 +68,9 @@ public class Transacao {
     
     private LocalDate dataCredito;
     private String fileSource;
+
+    // Upload que gerou o registro (escopo da conciliação incremental)
+    private String importBatch;
     
     // Status para controle do dashboard
     private String statusConciliacao; // PENDENTE, CONCILIADO, DIVERGENTE
@@ -183,6 +192,9 @@ public class Transacao {
     public String getFileSource() { return fileSource; }
     public void setFileSource(String fileSource) { this.fileSource = fileSource; }
 
+    public String getImportBatch() { return importBatch; }
+    public void setImportBatch(String importBatch) { this.importBatch = importBatch; }
+
     public String getStatusConciliacao() { return statusConciliacao; }
     public void setStatusConciliacao(String statusConciliacao) { this.statusConciliacao = statusConciliacao; }
 
@@ -0,0 +1,37 @@
+package com.compara.retorno.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Import batches still waiting for their reconciliation ({@code conciliacao_pendente},
+ * created in {@code db/migrations.sql}). Runs on the connection of the current
+ * transaction: a batch is marked together with the rows of each file and cleared
+ * together with the reconciliation that covers them.
+ */
+@Repository
+public class ConciliacaoPendenteRepository {
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbc;
+
+    public void mark(String importBatch) {
+        jdbc.update("INSERT INTO conciliacao_pendente (import_batch) VALUES (:batch)",
+                new MapSqlParameterSource("batch", importBatch));
+    }
+
+    public void clear(String importBatch) {
+        jdbc.update("DELETE FROM conciliacao_pendente WHERE import_batch = :batch",
+                new MapSqlParameterSource("batch", importBatch));
+    }
+
+    /** Oldest first. */
+    public List<String> findBatches() {
+        return jdbc.queryForList("SELECT import_batch FROM conciliacao_pendente GROUP BY import_batch"
+                + " ORDER BY min(criado_em)", new MapSqlParameterSource(), String.class);
+    }
+}
@@ -1,32 +1,31 @@
 package com.compara.retorno.repository;
 
 import com.compara.retorno.model.Contribuinte;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
+/**
+ * Contribuintes. The search is composed from {@link ContribuinteSpecifications}
+ * through {@link JpaSpecificationExecutor}.
+ */
 @Repository
-public interface ContribuinteRepository extends JpaRepository<Contribuinte, Long> {
+public interface ContribuinteRepository extends JpaRepository<Contribuinte, Long>,
+        JpaSpecificationExecutor<Contribuinte> {
 
-    @Query("""
-        SELECT c FROM Contribuinte c
-        WHERE (:q IS NULL OR :q = '' OR 
-              c.cpfCnpj LIKE %:q% OR 
-              LOWER(c.nome) LIKE LOWER(CONCAT('%', :q, '%')) OR 
-              c.inscricaoMunicipal LIKE %:q%)
-          AND (:bairro IS NULL OR :bairro = '' OR LOWER(c.bairro) = LOWER(:bairro))
-          AND (:atividade IS NULL OR :atividade = '' OR LOWER(c.atividadeEconomica) = LOWER(:atividade))
-          AND (:situacao IS NULL OR :situacao = '' OR c.situacaoCadastral = :situacao)
-        ORDER BY c.nome ASC
-    """)
-    Page<Contribuinte> search(
-            @Param("q") String q,
-            @Param("bairro") String bairro,
-            @Param("atividade") String atividade,
-            @Param("situacao") String situacao,
-            Pageable pageable);
-}
+    // Só o que o autocomplete indexa: id, nome, cpfCnpj, inscricaoMunicipal
+    @Query("SELECT c.id, c.nome, c.cpfCnpj, c.inscricaoMunicipal FROM Contribuinte c")
+    List<Object[]> findAutocompleteEntries();
 
+    /**
+     * Changes whenever the table does, however it was written (JPA, SQL, COPY): the
+     * row count, which catches a TRUNCATE, and PostgreSQL's insert/update/delete
+     * counters for the table. Costs a count, not a read of the rows.
+     */
+    @Query(value = "SELECT (SELECT count(*) FROM contribuintes) || ':' || coalesce((SELECT n_tup_ins + n_tup_upd"
+            + " + n_tup_del FROM pg_stat_user_tables WHERE relid = 'contribuintes'::regclass), 0)", nativeQuery = true)
+    String findChangeMarker();
+}
@@ -0,0 +1,114 @@
+package com.compara.retorno.repository;
+
+import com.compara.retorno.model.Contribuinte;
+import jakarta.persistence.criteria.Expression;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Filters for the contribuinte search, built from only the criteria actually
+ * given. A catch-all query with {@code (:x IS NULL OR ...)} for every filter gets
+ * one generic plan that rarely uses the indexes; here each filter is a plain
+ * predicate with an index behind it (see {@code db/migrations.sql}).
+ */
+public final class ContribuinteSpecifications {
+
+    private static final char ESCAPE = '\\';
+
+    private ContribuinteSpecifications() {
+    }
+
+    /**
+     * Search term plus optional exact filters (null or blank means "any"). The
+     * term is routed by its shape: an 11/14 digit CPF/CNPJ is an equality lookup,
+     * a term without letters is an inscrição prefix, anything else is a name.
+     * Name searches come most similar first, everything else by name.
+     */
+    public static Specification<Contribuinte> search(String q, String bairro, String atividade, String situacao) {
+        List<Specification<Contribuinte>> specs = new ArrayList<>();
+        String termo = blankToNull(q);
+        if (termo != null) {
+            specs.add(termo(termo));
+        }
+        if (blankToNull(bairro) != null) {
+            specs.add(bairro(bairro.trim()));
+        }
+        if (blankToNull(atividade) != null) {
+            specs.add(atividade(atividade.trim()));
+        }
+        if (blankToNull(situacao) != null) {
+            specs.add(situacao(situacao.trim()));
+        }
+        specs.add(ordem(termo != null && isNome(termo) ? termo : null));
+        return Specification.allOf(specs);
+    }
+
+    private static Specification<Contribuinte> termo(String termo) {
+        if (termo.matches("\\d{11}|\\d{14}")) {
+            return cpfCnpj(termo);
+        }
+        return isNome(termo) ? nome(termo) : inscricaoPrefixo(termo);
+    }
+
+    public static Specification<Contribuinte> cpfCnpj(String digits) {
+        return (root, query, cb) -> cb.equal(root.get("cpfCnpj"), digits);
+    }
+
+    public static Specification<Contribuinte> inscricaoPrefixo(String prefixo) {
+        return (root, query, cb) -> cb.like(root.get("inscricaoMunicipal"), escapeLike(prefixo) + "%", ESCAPE);
+    }
+
+    /** Name substring ignoring case and accents (trigram index on normaliza_busca(nome)). */
+    public static Specification<Contribuinte> nome(String nome) {
+        return (root, query, cb) -> cb.like(normalizado(cb, root.get("nome")),
+                cb.concat(cb.concat("%", normalizado(cb, cb.literal(escapeLike(nome)))), "%"), ESCAPE);
+    }
+
+    public static Specification<Contribuinte> bairro(String bairro) {
+        return (root, query, cb) -> cb.equal(cb.lower(root.get("bairro")), bairro.toLowerCase());
+    }
+
+    public static Specification<Contribuinte> atividade(String atividade) {
+        return (root, query, cb) -> cb.equal(cb.lower(root.get("atividadeEconomica")), atividade.toLowerCase());
+    }
+
+    public static Specification<Contribuinte> situacao(String situacao) {
+        return (root, query, cb) -> cb.equal(root.get("situacaoCadastral"), situacao);
+    }
+
+    /** Sort only (no predicate); left out of the count query, which cannot be ordered. */
+    private static Specification<Contribuinte> ordem(String nome) {
+        return (root, query, cb) -> {
+            Class<?> resultType = query.getResultType();
+            if (resultType != Long.class && resultType != long.class) {
+                if (nome == null) {
+                    query.orderBy(cb.asc(root.get("nome")));
+                } else {
+                    Expression<Double> similaridade = cb.function("similarity", Double.class,
+                            normalizado(cb, root.get("nome")), normalizado(cb, cb.literal(nome)));
+                    query.orderBy(cb.desc(similaridade), cb.asc(root.get("nome")));
+                }
+            }
+            return null;
+        };
+    }
+
+    private static Expression<String> normalizado(jakarta.persistence.criteria.CriteriaBuilder cb,
+            Expression<String> value) {
+        return cb.function("normaliza_busca", String.class, value);
+    }
+
+    private static boolean isNome(String termo) {
+        return termo.chars().anyMatch(Character::isLetter);
+    }
+
+    private static String blankToNull(String s) {
+        return s == null || s.isBlank() ? null : s.trim();
+    }
+
+    private static String escapeLike(String s) {
+        return s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
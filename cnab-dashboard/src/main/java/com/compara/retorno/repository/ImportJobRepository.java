@@ -0,0 +1,16 @@
+package com.compara.retorno.repository;
+
+import com.compara.retorno.model.ImportJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ImportJobRepository extends JpaRepository<ImportJob, Long> {
+
+    List<ImportJob> findTop10ByOrderByCriadoEmDesc();
+
+    List<ImportJob> findByStatusIn(Collection<String> status);
+}
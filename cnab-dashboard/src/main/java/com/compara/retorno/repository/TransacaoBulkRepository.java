@@ -0,0 +1,180 @@
+package com.compara.retorno.repository;
+
+import com.compara.retorno.model.Transacao;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Bulk loader for {@code transacoes} based on PostgreSQL {@code COPY ... FROM STDIN}.
+ *
+ * Uses the connection bound to the current Spring transaction, so rows copied here
+ * commit or roll back together with the rest of the import.
+ */
+@Repository
+public class TransacaoBulkRepository {
+
+    private static final String COLUMNS = "tipo_origem, banco, lote, tipo_registro, n_seq, segmento, movimento, "
+            + "agencia, conta, nosso_numero, carteira, numero_documento, vencimento, valor_titulo, banco_cobrador, "
+            + "agencia_cobradora, id_titulo_empresa, tipo_inscricao, num_inscricao, nome_pagador, num_contrato, "
+            + "valor_tarifa, motivo_ocorrencia, juros_multa, desconto, abatimento, iof, valor_pago, valor_liquido, "
+            + "outras_despesas, outros_creditos, data_ocorrencia, data_credito, file_source, import_batch, status_conciliacao";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private DataSource dataSource;
+
+    /**
+     * Copies the transactions into {@code transacoes} in a single COPY statement.
+     *
+     * Ids are reserved from {@code transacoes_seq} first, in blocks of
+     * {@link Transacao#ID_ALLOCATION_SIZE} exactly like Hibernate's pooled optimizer
+     * does, and set on the given objects (which stay detached).
+     *
+     * @return number of rows copied
+     */
+    public long copy(List<Transacao> transactions) {
+        if (transactions.isEmpty()) {
+            return 0;
+        }
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            reserveIds(connection, transactions);
+            String sql = "COPY transacoes (id, " + COLUMNS + ") FROM STDIN WITH (FORMAT csv)";
+            PGCopyOutputStream copy = new PGCopyOutputStream(connection.unwrap(PGConnection.class), sql,
+                    BUFFER_SIZE);
+            try {
+                Writer out = new BufferedWriter(new OutputStreamWriter(copy, StandardCharsets.UTF_8), BUFFER_SIZE);
+                for (Transacao t : transactions) {
+                    writeRow(out, t);
+                }
+                out.flush();
+                return copy.endCopy();
+            } catch (IOException | RuntimeException e) {
+                if (copy.isActive()) {
+                    copy.cancelCopy();
+                }
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Falha no COPY de transações: " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    /**
+     * Each {@code nextval} returns the high end of a block of
+     * {@link Transacao#ID_ALLOCATION_SIZE} ids, so one call covers 50 rows and the
+     * ids never collide with the ones Hibernate hands out.
+     */
+    private void reserveIds(Connection connection, List<Transacao> transactions) throws SQLException {
+        int blockSize = Transacao.ID_ALLOCATION_SIZE;
+        int blocks = (transactions.size() + blockSize - 1) / blockSize;
+        String sql = "SELECT nextval('transacoes_seq') FROM generate_series(1, ?)";
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setInt(1, blocks);
+            try (ResultSet rs = ps.executeQuery()) {
+                int i = 0;
+                while (rs.next() && i < transactions.size()) {
+                    long hi = rs.getLong(1);
+                    for (long id = hi - blockSize + 1; id <= hi && i < transactions.size(); id++) {
+                        transactions.get(i++).setId(id);
+                    }
+                }
+            }
+        }
+    }
+
+    /** One CSV line of the COPY input, columns in the order of {@link #COLUMNS} after the id. */
+    static void writeRow(Writer out, Transacao t) throws IOException {
+        out.write(Long.toString(t.getId()));
+        out.write(',');
+        field(out, t.getTipoOrigem() != null ? t.getTipoOrigem().name() : null);
+        field(out, t.getBanco());
+        field(out, t.getLote());
+        field(out, t.getTipoRegistro());
+        field(out, t.getNSeq());
+        field(out, t.getSegmento());
+        field(out, t.getMovimento());
+        field(out, t.getAgencia());
+        field(out, t.getConta());
+        field(out, t.getNossoNumero());
+        field(out, t.getCarteira());
+        field(out, t.getNumeroDocumento());
+        field(out, t.getVencimento());
+        field(out, t.getValorTitulo());
+        field(out, t.getBancoCobrador());
+        field(out, t.getAgenciaCobradora());
+        field(out, t.getIdTituloEmpresa());
+        field(out, t.getTipoInscricao());
+        field(out, t.getNumInscricao());
+        field(out, t.getNomePagador());
+        field(out, t.getNumContrato());
+        field(out, t.getValorTarifa());
+        field(out, t.getMotivoOcorrencia());
+        field(out, t.getJurosMulta());
+        field(out, t.getDesconto());
+        field(out, t.getAbatimento());
+        field(out, t.getIof());
+        field(out, t.getValorPago());
+        field(out, t.getValorLiquido());
+        field(out, t.getOutrasDespesas());
+        field(out, t.getOutrosCreditos());
+        field(out, t.getDataOcorrencia());
+        field(out, t.getDataCredito());
+        field(out, t.getFileSource());
+        field(out, t.getImportBatch());
+        last(out, t.getStatusConciliacao());
+    }
+
+    private static void field(Writer out, Object value) throws IOException {
+        value(out, value);
+        out.write(',');
+    }
+
+    private static void last(Writer out, Object value) throws IOException {
+        value(out, value);
+        out.write('\n');
+    }
+
+    /** CSV value: unquoted empty means NULL, strings are always quoted. */
+    private static void value(Writer out, Object value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof java.math.BigDecimal) {
+            out.write(((java.math.BigDecimal) value).toPlainString());
+            return;
+        }
+        if (value instanceof java.time.LocalDate) {
+            out.write(value.toString()); // ISO yyyy-MM-dd
+            return;
+        }
+        String s = value.toString();
+        out.write('"');
+        if (s.indexOf('"') >= 0) {
+            s = s.replace("\"", "\"\"");
+        }
+        out.write(s);
+        out.write('"');
+    }
+}
@@ -0,0 +1,480 @@
+package com.compara.retorno.repository;
+
+import com.compara.retorno.model.Comparacao;
+import com.compara.retorno.model.TipoOrigem;
+import com.compara.retorno.model.Transacao;
+import com.compara.retorno.service.TransactionMatcher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * API x GERAL comparison kept in the {@code comparacao} table.
+ *
+ * The rows of the keys touched by an import or delete are read back ordered by
+ * nossoNumero from a database cursor and paired one key at a time by
+ * {@link TransactionMatcher}, with every tier including the tolerance window;
+ * rows without nossoNumero are paired by document across the whole table and
+ * stored under an empty key. The pairs, with their divergences as a bitmask (see
+ * {@link Comparacao}) and the value and date deltas, are written back in JDBC
+ * batches. The analysis page and the exports read the stored rows, one page at a
+ * time.
+ */
+@Repository
+public class TransacaoComparacaoRepository {
+
+    /** Sort keys accepted from the page, mapped to columns of {@code comparacao}. */
+    public static final Map<String, String> SORT_COLUMNS = Map.of(
+            "nossoNumero", "c.nosso_numero",
+            "pagador", "c.nome_pagador",
+            "data", "c.data_ocorrencia",
+            "credito", "c.data_credito",
+            "valor", "c.valor_pago");
+
+    /** Keys per statement when refreshing an explicit list of keys. */
+    private static final int KEYS_PER_STATEMENT = 1000;
+
+    /** Pairs written per JDBC batch. */
+    private static final int INSERT_BATCH = 1000;
+
+    /** Row selections of a refresh, as a condition on {@code nosso_numero}. */
+    private static final String KEYS = "nosso_numero IN (:keys)";
+    private static final String WITH_KEY = "nosso_numero <> ''";
+    private static final String WITHOUT_KEY = "nosso_numero = ''";
+
+    /**
+     * Deletes the selected pairs and returns the ones that were divergent, so a
+     * divergence keeps the time it was first seen.
+     */
+    private static final String DELETE = "WITH antigos AS (DELETE FROM comparacao c WHERE c.%s "
+            + "RETURNING c.nosso_numero, c.par, c.divergente_desde) "
+            + "SELECT * FROM antigos WHERE divergente_desde IS NOT NULL";
+
+    private static final String ROWS = "SELECT t.id, t.tipo_origem, t.nosso_numero, t.nome_pagador, "
+            + "t.num_inscricao, t.valor_pago, t.data_ocorrencia, t.data_credito FROM transacoes t WHERE t.%s "
+            + "ORDER BY t.nosso_numero, t.id";
+
+    private static final String INSERT = "INSERT INTO comparacao (id, nosso_numero, par, regra, api_id, "
+            + "api_nome_pagador, api_valor_pago, api_data_ocorrencia, api_data_credito, geral_id, "
+            + "geral_nome_pagador, geral_valor_pago, geral_data_ocorrencia, geral_data_credito, nome_pagador, "
+            + "valor_pago, data_ocorrencia, data_credito, status, divergencias, delta_valor, delta_dias_pagamento, "
+            + "delta_dias_credito, divergente_desde, atualizado_em) "
+            + "VALUES (nextval('comparacao_seq'), ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, "
+            + "now())";
+
+    private static final String SELECT = "SELECT c.* FROM comparacao c "
+            + "WHERE c.%s BETWEEN :startDate AND :endDate AND (:onlyDivergences = FALSE OR c.divergencias <> 0)";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbc;
+
+    /** Differences up to these are not divergences (same settings as TransactionService). */
+    @Value("${cnab.match.tolerancia-centavos:0}")
+    private long toleranceCents;
+
+    @Value("${cnab.match.tolerancia-dias:0}")
+    private int toleranceDays;
+
+    @Value("${cnab.export.fetch-size:1000}")
+    private int fetchSize;
+
+    /** Recomputes the keys that appear in an import batch. */
+    public int refreshBatch(String importBatch) {
+        return refreshKeys(jdbc.queryForList(
+                "SELECT DISTINCT b.nosso_numero FROM transacoes b WHERE b.import_batch = :batch",
+                new MapSqlParameterSource("batch", importBatch), String.class));
+    }
+
+    /**
+     * Recomputes the given keys; keys without transactions left are removed. A
+     * blank key recomputes every row without nossoNumero.
+     */
+    public int refreshKeys(Collection<String> nossoNumeros) {
+        lock();
+        List<String> keys = new ArrayList<>();
+        boolean withoutKey = false;
+        for (String key : nossoNumeros) {
+            if (key == null || key.isBlank()) {
+                withoutKey = true;
+            } else {
+                keys.add(key);
+            }
+        }
+        int rows = 0;
+        for (int from = 0; from < keys.size(); from += KEYS_PER_STATEMENT) {
+            rows += refresh(KEYS, new MapSqlParameterSource("keys",
+                    keys.subList(from, Math.min(keys.size(), from + KEYS_PER_STATEMENT))), false);
+        }
+        if (withoutKey) {
+            rows += refresh(WITHOUT_KEY, new MapSqlParameterSource(), true);
+        }
+        return rows;
+    }
+
+    /** Recomputes every key. */
+    public int rebuild() {
+        lock();
+        return refresh(WITH_KEY, new MapSqlParameterSource(), false)
+                + refresh(WITHOUT_KEY, new MapSqlParameterSource(), true);
+    }
+
+    public void clear() {
+        lock();
+        jdbc.update("DELETE FROM comparacao", new MapSqlParameterSource());
+    }
+
+    public boolean isEmpty() {
+        return jdbc.query("SELECT 1 FROM comparacao LIMIT 1", new MapSqlParameterSource(), rs -> !rs.next());
+    }
+
+    /** Keys of the given files; collect them before deleting the files. */
+    public List<String> keysOfFiles(Collection<String> fileSources) {
+        return jdbc.queryForList("SELECT DISTINCT t.nosso_numero FROM transacoes t WHERE t.file_source IN (:files)",
+                new MapSqlParameterSource("files", fileSources), String.class);
+    }
+
+    /**
+     * Serializes comparison writers until the end of the transaction: parallel
+     * import jobs may refresh the same keys, and without it both would delete the
+     * old rows and insert their own pairs.
+     */
+    private void lock() {
+        jdbc.query("SELECT pg_advisory_xact_lock(hashtext('comparacao'))", new MapSqlParameterSource(), rs -> {
+        });
+    }
+
+    /**
+     * Replaces the pairs of the selected keys. With {@code withoutKey} all the
+     * selected rows form a single group matched by document.
+     */
+    private int refresh(String selection, MapSqlParameterSource params, boolean withoutKey) {
+        Map<String, LocalDateTime> divergentSince = new HashMap<>();
+        jdbc.query(String.format(DELETE, selection), params, (ResultSet rs) -> {
+            divergentSince.put(pairKey(rs.getString("nosso_numero"), rs.getInt("par")),
+                    rs.getObject("divergente_desde", LocalDateTime.class));
+        });
+
+        TransactionMatcher matcher = new TransactionMatcher(toleranceCents, toleranceDays);
+        PairWriter writer = new PairWriter(divergentSince);
+        KeyGroup group = new KeyGroup();
+        TransacaoExportRepository.cursor(jdbc.getJdbcTemplate(), fetchSize).query(String.format(ROWS, selection),
+                params, (ResultSet rs) -> {
+                    Transacao t = toTransacao(rs);
+                    String key = withoutKey ? "" : t.getNossoNumero();
+                    if (!key.equals(group.nossoNumero)) {
+                        writer.add(group.pair(matcher, withoutKey));
+                        group.start(key);
+                    }
+                    group.add(t);
+                });
+        writer.add(group.pair(matcher, withoutKey));
+        writer.flush();
+        return writer.rows;
+    }
+
+    /**
+     * The stored pairs of one key: matched pairs and leftovers on either side,
+     * numbered by their lowest transaction id, with the divergences found within
+     * the matcher tolerance.
+     */
+    static List<Comparacao> pairs(String nossoNumero, TransactionMatcher.MatchResult result,
+            TransactionMatcher matcher) {
+        List<Comparacao> pairs = new ArrayList<>();
+        for (TransactionMatcher.Match m : result.getMatches()) {
+            pairs.add(pair(nossoNumero, m.getApi(), m.getGeral(), m.getRule().name(), matcher));
+        }
+        for (Transacao t : result.getUnmatchedApi()) {
+            pairs.add(pair(nossoNumero, t, null, null, matcher));
+        }
+        for (Transacao t : result.getUnmatchedGeral()) {
+            pairs.add(pair(nossoNumero, null, t, null, matcher));
+        }
+        pairs.sort(Comparator.comparing(c -> c.getApiId() != null ? c.getApiId() : c.getGeralId()));
+        for (int i = 0; i < pairs.size(); i++) {
+            pairs.get(i).setPar(i + 1);
+        }
+        return pairs;
+    }
+
+    private static Comparacao pair(String nossoNumero, Transacao api, Transacao geral, String regra,
+            TransactionMatcher matcher) {
+        Comparacao c = new Comparacao();
+        c.setNossoNumero(nossoNumero);
+        c.setRegra(regra);
+        if (api != null) {
+            c.setApiId(api.getId());
+            c.setApiNomePagador(api.getNomePagador());
+            c.setApiValorPago(api.getValorPago());
+            c.setApiDataOcorrencia(api.getDataOcorrencia());
+            c.setApiDataCredito(api.getDataCredito());
+        }
+        if (geral != null) {
+            c.setGeralId(geral.getId());
+            c.setGeralNomePagador(geral.getNomePagador());
+            c.setGeralValorPago(geral.getValorPago());
+            c.setGeralDataOcorrencia(geral.getDataOcorrencia());
+            c.setGeralDataCredito(geral.getDataCredito());
+        }
+        Transacao shown = api != null ? api : geral;
+        c.setNomePagador(shown.getNomePagador());
+        c.setValorPago(shown.getValorPago());
+        c.setDataOcorrencia(shown.getDataOcorrencia());
+        c.setDataCredito(shown.getDataCredito());
+
+        int divergencias = 0;
+        if (geral == null) {
+            divergencias |= Comparacao.AUSENTE_GERAL;
+        }
+        if (api == null) {
+            divergencias |= Comparacao.AUSENTE_API;
+        }
+        if (api != null && geral != null) {
+            Long centsDiff = TransactionMatcher.centsDiff(api, geral);
+            if (centsDiff != null && !matcher.withinValueTolerance(centsDiff)) {
+                divergencias |= Comparacao.VALOR;
+            }
+            Long paymentDays = TransactionMatcher.daysDiff(api.getDataOcorrencia(), geral.getDataOcorrencia());
+            if (paymentDays != null && !matcher.withinDateTolerance(paymentDays)) {
+                divergencias |= Comparacao.DATA_PAGAMENTO;
+            }
+            Long creditDays = TransactionMatcher.daysDiff(api.getDataCredito(), geral.getDataCredito());
+            if (creditDays != null && !matcher.withinDateTolerance(creditDays)) {
+                divergencias |= Comparacao.DATA_CREDITO;
+            }
+            if (api.getValorPago() != null && geral.getValorPago() != null) {
+                c.setDeltaValor(api.getValorPago().subtract(geral.getValorPago()));
+            }
+            c.setDeltaDiasPagamento(deltaDays(api.getDataOcorrencia(), geral.getDataOcorrencia()));
+            c.setDeltaDiasCredito(deltaDays(api.getDataCredito(), geral.getDataCredito()));
+        }
+        c.setDivergencias(divergencias);
+        c.setStatus(api == null ? "SOMENTE_GERAL" : geral == null ? "SOMENTE_API"
+                : divergencias != 0 ? "DIVERGENTE" : "CONCILIADO");
+        return c;
+    }
+
+    private static Integer deltaDays(LocalDate api, LocalDate geral) {
+        return api == null || geral == null ? null : (int) ChronoUnit.DAYS.between(api, geral);
+    }
+
+    private static String pairKey(String nossoNumero, int par) {
+        return nossoNumero + '\n' + par;
+    }
+
+    private static Transacao toTransacao(ResultSet rs) throws SQLException {
+        Transacao t = new Transacao();
+        t.setId(rs.getLong("id"));
+        t.setTipoOrigem(TipoOrigem.valueOf(rs.getString("tipo_origem")));
+        t.setNossoNumero(rs.getString("nosso_numero"));
+        t.setNomePagador(rs.getString("nome_pagador"));
+        t.setNumInscricao(rs.getString("num_inscricao"));
+        t.setValorPago(rs.getBigDecimal("valor_pago"));
+        t.setDataOcorrencia(rs.getObject("data_ocorrencia", LocalDate.class));
+        t.setDataCredito(rs.getObject("data_credito", LocalDate.class));
+        return t;
+    }
+
+    /** API and GERAL rows of the key being read from the cursor. */
+    private static class KeyGroup {
+        private String nossoNumero;
+        private final List<Transacao> api = new ArrayList<>();
+        private final List<Transacao> geral = new ArrayList<>();
+
+        void start(String key) {
+            nossoNumero = key;
+            api.clear();
+            geral.clear();
+        }
+
+        void add(Transacao t) {
+            (t.getTipoOrigem() == TipoOrigem.API ? api : geral).add(t);
+        }
+
+        List<Comparacao> pair(TransactionMatcher matcher, boolean withoutKey) {
+            if (nossoNumero == null) {
+                return List.of();
+            }
+            TransactionMatcher.MatchResult result = withoutKey ? matcher.matchWithoutKey(api, geral)
+                    : matcher.match(api, geral);
+            return pairs(nossoNumero, result, matcher);
+        }
+    }
+
+    /** Inserts pairs in batches, carrying divergenteDesde over from the deleted rows. */
+    private class PairWriter {
+        private final Map<String, LocalDateTime> divergentSince;
+        private final List<Comparacao> pending = new ArrayList<>(INSERT_BATCH);
+        private final LocalDateTime now = LocalDateTime.now();
+        private int rows;
+
+        PairWriter(Map<String, LocalDateTime> divergentSince) {
+            this.divergentSince = divergentSince;
+        }
+
+        void add(List<Comparacao> pairs) {
+            for (Comparacao c : pairs) {
+                if (c.getDivergencias() != 0) {
+                    c.setDivergenteDesde(divergentSince.getOrDefault(pairKey(c.getNossoNumero(), c.getPar()), now));
+                }
+                pending.add(c);
+            }
+            if (pending.size() >= INSERT_BATCH) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            jdbc.getJdbcTemplate().batchUpdate(INSERT, pending, pending.size(), (ps, c) -> {
+                ps.setString(1, c.getNossoNumero());
+                ps.setInt(2, c.getPar());
+                ps.setString(3, c.getRegra());
+                ps.setObject(4, c.getApiId(), Types.BIGINT);
+                ps.setString(5, c.getApiNomePagador());
+                ps.setBigDecimal(6, c.getApiValorPago());
+                ps.setObject(7, c.getApiDataOcorrencia(), Types.DATE);
+                ps.setObject(8, c.getApiDataCredito(), Types.DATE);
+                ps.setObject(9, c.getGeralId(), Types.BIGINT);
+                ps.setString(10, c.getGeralNomePagador());
+                ps.setBigDecimal(11, c.getGeralValorPago());
+                ps.setObject(12, c.getGeralDataOcorrencia(), Types.DATE);
+                ps.setObject(13, c.getGeralDataCredito(), Types.DATE);
+                ps.setString(14, c.getNomePagador());
+                ps.setBigDecimal(15, c.getValorPago());
+                ps.setObject(16, c.getDataOcorrencia(), Types.DATE);
+                ps.setObject(17, c.getDataCredito(), Types.DATE);
+                ps.setString(18, c.getStatus());
+                ps.setInt(19, c.getDivergencias());
+                ps.setBigDecimal(20, c.getDeltaValor());
+                ps.setObject(21, c.getDeltaDiasPagamento(), Types.INTEGER);
+                ps.setObject(22, c.getDeltaDiasCredito(), Types.INTEGER);
+                ps.setObject(23, c.getDivergenteDesde(), Types.TIMESTAMP);
+            });
+            rows += pending.size();
+            pending.clear();
+        }
+    }
+
+    /**
+     * One page of the comparison, divergent pairs first and then by the given sort
+     * key ({@link #SORT_COLUMNS}, nossoNumero when unknown).
+     */
+    public Page<ComparisonPair> findPage(LocalDate startDate, LocalDate endDate, boolean useCreditDate,
+            boolean onlyDivergences, String sort, boolean descending, Pageable pageable) {
+        String sql = String.format(SELECT, useCreditDate ? "data_credito" : "data_ocorrencia");
+        MapSqlParameterSource params = params(startDate, endDate, onlyDivergences)
+                .addValue("limit", pageable.getPageSize())
+                .addValue("offset", pageable.getOffset());
+
+        Long total = jdbc.queryForObject("SELECT COUNT(*) FROM (" + sql + ") n", params, Long.class);
+        if (total == null || total == 0) {
+            return new PageImpl<>(List.of(), pageable, 0);
+        }
+
+        List<ComparisonPair> content = jdbc.query(sql + orderBy(sort, descending) + " LIMIT :limit OFFSET :offset",
+                params, (rs, i) -> toPair(rs));
+        return new PageImpl<>(content, pageable, total);
+    }
+
+    /**
+     * Whole comparison of a period in page order, handed over one at a time from
+     * a database cursor (the streaming PDF). Call inside a read-only transaction.
+     */
+    public void forEach(LocalDate startDate, LocalDate endDate, boolean useCreditDate, boolean onlyDivergences,
+            Consumer<ComparisonPair> action) {
+        String sql = String.format(SELECT, useCreditDate ? "data_credito" : "data_ocorrencia");
+        TransacaoExportRepository.cursor(jdbc.getJdbcTemplate(), fetchSize).query(sql + orderBy("nossoNumero", false),
+                params(startDate, endDate, onlyDivergences), (ResultSet rs) -> action.accept(toPair(rs)));
+    }
+
+    private MapSqlParameterSource params(LocalDate startDate, LocalDate endDate, boolean onlyDivergences) {
+        return new MapSqlParameterSource("startDate", startDate)
+                .addValue("endDate", endDate)
+                .addValue("onlyDivergences", onlyDivergences);
+    }
+
+    private String orderBy(String sort, boolean descending) {
+        String column = SORT_COLUMNS.getOrDefault(sort, "c.nosso_numero");
+        return " ORDER BY (c.divergencias <> 0) DESC, " + column + (descending ? " DESC" : " ASC")
+                + " NULLS LAST, c.nosso_numero, c.par";
+    }
+
+    private ComparisonPair toPair(ResultSet rs) throws SQLException {
+        String nossoNumero = rs.getString("nosso_numero");
+        return new ComparisonPair(nossoNumero, side(rs, "api_", TipoOrigem.API, nossoNumero),
+                side(rs, "geral_", TipoOrigem.GERAL, nossoNumero), rs.getString("regra"));
+    }
+
+    /** Partial Transacao with the columns read by the comparison (null when the side is missing). */
+    private Transacao side(ResultSet rs, String prefix, TipoOrigem tipo, String nossoNumero) throws SQLException {
+        long id = rs.getLong(prefix + "id");
+        if (rs.wasNull()) {
+            return null;
+        }
+        Transacao t = new Transacao();
+        t.setId(id);
+        t.setTipoOrigem(tipo);
+        t.setNossoNumero(nossoNumero);
+        t.setNomePagador(rs.getString(prefix + "nome_pagador"));
+        t.setValorPago(rs.getBigDecimal(prefix + "valor_pago"));
+        t.setDataOcorrencia(rs.getObject(prefix + "data_ocorrencia", LocalDate.class));
+        t.setDataCredito(rs.getObject(prefix + "data_credito", LocalDate.class));
+        return t;
+    }
+
+    /** One API x GERAL pair of a nossoNumero; either side may be null. */
+    public static class ComparisonPair {
+        private final String nossoNumero;
+        private final Transacao api;
+        private final Transacao geral;
+        private final String regra;
+
+        public ComparisonPair(String nossoNumero, Transacao api, Transacao geral) {
+            this(nossoNumero, api, geral, null);
+        }
+
+        public ComparisonPair(String nossoNumero, Transacao api, Transacao geral, String regra) {
+            this.nossoNumero = nossoNumero;
+            this.api = api;
+            this.geral = geral;
+            this.regra = regra;
+        }
+
+        public String getNossoNumero() {
+            return nossoNumero;
+        }
+
+        public Transacao getApi() {
+            return api;
+        }
+
+        public Transacao getGeral() {
+            return geral;
+        }
+
+        public String getRegra() {
+            return regra;
+        }
+    }
+}
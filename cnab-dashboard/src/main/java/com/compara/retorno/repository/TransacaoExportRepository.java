@@ -0,0 +1,135 @@
+package com.compara.retorno.repository;
+
+import com.compara.retorno.model.TipoOrigem;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.util.function.Consumer;
+
+/**
+ * Row-by-row reads of {@code transacoes} for the file exports.
+ *
+ * Rows come from a forward-only cursor with a fixed fetch size and only the
+ * columns the exports print, handed to the caller one at a time: nothing is
+ * collected and no entity enters the persistence context, so memory stays flat
+ * whatever the number of rows. PostgreSQL only honours the fetch size inside a
+ * transaction (autocommit off), so callers must run in one, read-only.
+ */
+@Repository
+public class TransacaoExportRepository {
+
+    private static final String COLUMNS = "SELECT t.tipo_origem, t.nosso_numero, t.nome_pagador, "
+            + "t.data_ocorrencia, t.data_credito, t.valor_pago, t.status_conciliacao ";
+
+    private static final String PERIOD = COLUMNS + "FROM transacoes t "
+            + "WHERE t.data_ocorrencia BETWEEN :startDate AND :endDate ORDER BY t.data_ocorrencia, t.id";
+
+    // Same filter and order as the payer search (TransacaoRepository.findByNomePagadorAndValorPago)
+    private static final String BY_PAGADOR = COLUMNS + TransacaoRepository.BUSCA_PAGADOR_WHERE
+            + TransacaoRepository.BUSCA_PAGADOR_ORDER;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${cnab.export.fetch-size:1000}")
+    private int fetchSize;
+
+    /** Every transaction with an occurrence date in the period, oldest first. */
+    public void forEachInPeriod(LocalDate start, LocalDate end, Consumer<ExportRow> action) {
+        forEach(PERIOD, new MapSqlParameterSource("startDate", start).addValue("endDate", end), action);
+    }
+
+    /** Payer search results (name and/or exact value, both optional), most similar name first. */
+    public void forEachByPagador(String nomePagador, BigDecimal valorPago, Consumer<ExportRow> action) {
+        forEach(BY_PAGADOR, new MapSqlParameterSource("nomePagador", nomePagador).addValue("valorPago", valorPago),
+                action);
+    }
+
+    private void forEach(String sql, MapSqlParameterSource params, Consumer<ExportRow> action) {
+        cursor(jdbcTemplate, fetchSize).query(sql, params, (ResultSet rs) -> {
+            String origem = rs.getString(1);
+            action.accept(new ExportRow(origem == null ? null : TipoOrigem.valueOf(origem), rs.getString(2),
+                    rs.getString(3), rs.getObject(4, LocalDate.class), rs.getObject(5, LocalDate.class),
+                    rs.getBigDecimal(6), rs.getString(7)));
+        });
+    }
+
+    /**
+     * Template over the same DataSource (and so the same transaction) whose
+     * statements fetch {@code fetchSize} rows per round trip from a forward-only
+     * cursor instead of the whole result.
+     */
+    static NamedParameterJdbcTemplate cursor(JdbcTemplate jdbcTemplate, int fetchSize) {
+        JdbcTemplate template = new JdbcTemplate(jdbcTemplate.getDataSource());
+        template.setFetchSize(fetchSize);
+        return new NamedParameterJdbcTemplate(template);
+    }
+
+    /** The columns an export line needs. */
+    public static class ExportRow {
+        private final TipoOrigem tipoOrigem;
+        private final String nossoNumero;
+        private final String nomePagador;
+        private final LocalDate dataOcorrencia;
+        private final LocalDate dataCredito;
+        private final BigDecimal valorPago;
+        private final String statusConciliacao;
+
+        public ExportRow(TipoOrigem tipoOrigem, String nossoNumero, String nomePagador, LocalDate dataOcorrencia,
+                LocalDate dataCredito, BigDecimal valorPago) {
+            this(tipoOrigem, nossoNumero, nomePagador, dataOcorrencia, dataCredito, valorPago, null);
+        }
+
+        public ExportRow(TipoOrigem tipoOrigem, String nossoNumero, String nomePagador, LocalDate dataOcorrencia,
+                LocalDate dataCredito, BigDecimal valorPago, String statusConciliacao) {
+            this.tipoOrigem = tipoOrigem;
+            this.nossoNumero = nossoNumero;
+            this.nomePagador = nomePagador;
+            this.dataOcorrencia = dataOcorrencia;
+            this.dataCredito = dataCredito;
+            this.valorPago = valorPago;
+            this.statusConciliacao = statusConciliacao;
+        }
+
+        /** The export columns of a loaded entity. */
+        public static ExportRow of(com.compara.retorno.model.Transacao t) {
+            return new ExportRow(t.getTipoOrigem(), t.getNossoNumero(), t.getNomePagador(), t.getDataOcorrencia(),
+                    t.getDataCredito(), t.getValorPago(), t.getStatusConciliacao());
+        }
+
+        public TipoOrigem getTipoOrigem() {
+            return tipoOrigem;
+        }
+
+        public String getNossoNumero() {
+            return nossoNumero;
+        }
+
+        public String getNomePagador() {
+            return nomePagador;
+        }
+
+        public LocalDate getDataOcorrencia() {
+            return dataOcorrencia;
+        }
+
+        public LocalDate getDataCredito() {
+            return dataCredito;
+        }
+
+        public BigDecimal getValorPago() {
+            return valorPago;
+        }
+
+        public String getStatusConciliacao() {
+            return statusConciliacao;
+        }
+    }
+}
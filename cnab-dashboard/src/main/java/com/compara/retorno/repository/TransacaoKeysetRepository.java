@@ -0,0 +1,279 @@
+package com.compara.retorno.repository;
+
+import com.compara.retorno.model.TipoOrigem;
+import com.compara.retorno.model.Transacao;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Keyset (seek) pagination over {@code transacoes} for the dashboard list and the
+ * payer search.
+ *
+ * Instead of OFFSET and a count(*), each page continues from the sort key of the
+ * last (or first) row shown, carried in an opaque cursor token. With the matching
+ * indexes from {@code db/migrations.sql} (idx_transacoes_keyset_*) the database
+ * seeks straight to the cursor, so any page costs about the same as the first.
+ * Every sort ends with the id, which makes the order total.
+ */
+@Repository
+public class TransacaoKeysetRepository {
+
+    /**
+     * Sort key column: SQL expression (with %s for the column/parameter), direction and entity value.
+     * {@code bound} is the expression compared against on the cursor side when it cannot be rebuilt from
+     * the stored value alone (null to use {@code expression}).
+     */
+    private record Key(String expression, String column, String type, boolean descending,
+            Function<Transacao, Object> value, String bound) {
+
+        Key(String expression, String column, String type, boolean descending, Function<Transacao, Object> value) {
+            this(expression, column, type, descending, value, null);
+        }
+
+        String of(String operand) {
+            return String.format(expression, operand);
+        }
+
+        String bound(String operand) {
+            return bound == null ? of(operand) : String.format(bound, operand);
+        }
+    }
+
+    private static final String NEXT = "n";
+    private static final String PREVIOUS = "p";
+
+    /** Same order as the old dashboard Sort: payer (ignoring case), nossoNumero, origin, status desc, date desc. */
+    private static List<Key> dashboardKeys(boolean useCreditDate) {
+        String date = useCreditDate ? "t.data_credito" : "t.data_ocorrencia";
+        return List.of(
+                new Key("lower(coalesce(%s, ''))", "t.nome_pagador", "varchar", false, Transacao::getNomePagador),
+                new Key("%s", "t.nosso_numero", "varchar", false, Transacao::getNossoNumero),
+                new Key("%s", "t.tipo_origem", "varchar", false, t -> t.getTipoOrigem().name()),
+                new Key("coalesce(%s, '')", "t.status_conciliacao", "varchar", true,
+                        Transacao::getStatusConciliacao),
+                new Key("%s", date, "date", true,
+                        t -> useCreditDate ? t.getDataCredito() : t.getDataOcorrencia()),
+                new Key("%s", "t.id", "bigint", true, Transacao::getId));
+    }
+
+    private static final List<Key> SEARCH_KEYS = List.of(
+            new Key("%s", "t.data_ocorrencia", "date", true, Transacao::getDataOcorrencia),
+            new Key("%s", "t.id", "bigint", true, Transacao::getId));
+
+    /**
+     * Name search: most similar names first. The similarity is not stored on the
+     * entity, so the cursor keeps the row id and recomputes it for that row.
+     */
+    private static final List<Key> SIMILARITY_KEYS = List.of(
+            new Key("similarity(%s, normaliza_busca(:nomePagador))", "t.nome_pagador_normalizado", "bigint", true,
+                    Transacao::getId, "(SELECT similarity(x.nome_pagador_normalizado, normaliza_busca(:nomePagador)) "
+                            + "FROM transacoes x WHERE x.id = %s)"),
+            SEARCH_KEYS.get(0),
+            SEARCH_KEYS.get(1));
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Dashboard list for a period. {@code status} and {@code tipoOrigem} are
+     * optional filters; {@code cursor} is a token from a previous page (null for
+     * the first page).
+     */
+    public CursorPage<Transacao> findDashboardPage(LocalDate startDate, LocalDate endDate, boolean useCreditDate,
+            String status, TipoOrigem tipoOrigem, String cursor, int size) {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("startDate", startDate);
+        params.put("endDate", endDate);
+        String where = (useCreditDate ? "t.data_credito" : "t.data_ocorrencia")
+                + " BETWEEN :startDate AND :endDate";
+        if (status != null) {
+            where += " AND t.status_conciliacao = :status";
+            params.put("status", status);
+        }
+        if (tipoOrigem != null) {
+            where += " AND t.tipo_origem = :tipoOrigem";
+            params.put("tipoOrigem", tipoOrigem.name());
+        }
+        return page(where, params, dashboardKeys(useCreditDate), cursor, size);
+    }
+
+    /**
+     * Payer search (name and/or exact value). The name is matched ignoring case and
+     * accents, as a substring or by trigram similarity (pg_trgm indexes on
+     * nome_pagador_normalizado), most similar first; without a name, newest first.
+     */
+    public CursorPage<Transacao> search(String nomePagador, BigDecimal valorPago, String cursor, int size) {
+        Map<String, Object> params = new LinkedHashMap<>();
+        String where = "TRUE";
+        List<Key> keys = SEARCH_KEYS;
+        if (nomePagador != null && !nomePagador.isBlank()) {
+            where += " AND (t.nome_pagador_normalizado LIKE CONCAT('%', normaliza_busca(:nomePagador), '%')"
+                    + " OR t.nome_pagador_normalizado % normaliza_busca(:nomePagador))";
+            params.put("nomePagador", nomePagador.trim());
+            keys = SIMILARITY_KEYS;
+        }
+        if (valorPago != null) {
+            where += " AND t.valor_pago = :valorPago";
+            params.put("valorPago", valorPago);
+        }
+        return page(where, params, keys, cursor, size);
+    }
+
+    private CursorPage<Transacao> page(String where, Map<String, Object> params, List<Key> keys, String cursor,
+            int size) {
+        String[] token = decode(cursor, keys.size());
+        boolean backwards = token != null && PREVIOUS.equals(token[0]);
+
+        StringBuilder sql = new StringBuilder("SELECT t.* FROM transacoes t WHERE ").append(where);
+        if (token != null) {
+            sql.append(" AND ").append(seek(keys, backwards));
+            for (int i = 0; i < keys.size(); i++) {
+                params.put("k" + i, token[i + 1]);
+            }
+        }
+        sql.append(" ORDER BY ");
+        for (int i = 0; i < keys.size(); i++) {
+            Key key = keys.get(i);
+            sql.append(i > 0 ? ", " : "").append(key.of(key.column()))
+                    .append(key.descending() != backwards ? " DESC" : " ASC");
+        }
+
+        Query query = entityManager.createNativeQuery(sql.toString(), Transacao.class);
+        params.forEach(query::setParameter);
+        query.setMaxResults(size + 1);
+        @SuppressWarnings("unchecked")
+        List<Transacao> rows = new ArrayList<>(query.getResultList());
+
+        boolean more = rows.size() > size;
+        if (more) {
+            rows.remove(size);
+        }
+        if (backwards) {
+            Collections.reverse(rows);
+        }
+        // Going forward there is a previous page whenever we came from a cursor; going back, only if rows were cut
+        boolean hasNext = backwards || more;
+        boolean hasPrevious = backwards ? more : token != null;
+        String next = hasNext && !rows.isEmpty() ? encode(NEXT, keys, rows.get(rows.size() - 1)) : null;
+        String previous = hasPrevious && !rows.isEmpty() ? encode(PREVIOUS, keys, rows.get(0)) : null;
+        return new CursorPage<>(rows, next, previous);
+    }
+
+    /**
+     * Rows after the cursor in sort order (before it when going back): the first
+     * key bounds the index range, the OR chain settles ties on the following keys.
+     */
+    private String seek(List<Key> keys, boolean backwards) {
+        StringBuilder chain = new StringBuilder();
+        for (int i = 0; i < keys.size(); i++) {
+            chain.append(i > 0 ? " OR (" : "(");
+            for (int j = 0; j < i; j++) {
+                chain.append(keys.get(j).of(keys.get(j).column())).append(" = ").append(param(keys.get(j), j))
+                        .append(" AND ");
+            }
+            Key key = keys.get(i);
+            chain.append(key.of(key.column())).append(key.descending() != backwards ? " < " : " > ")
+                    .append(param(key, i)).append(")");
+        }
+        Key first = keys.get(0);
+        return first.of(first.column()) + (first.descending() != backwards ? " <= " : " >= ") + param(first, 0)
+                + " AND (" + chain + ")";
+    }
+
+    private static String param(Key key, int index) {
+        return key.bound("CAST(:k" + index + " AS " + key.type() + ")");
+    }
+
+    /** Direction and sort key values, each Base64 encoded ("~" for null). */
+    private static String encode(String direction, List<Key> keys, Transacao row) {
+        StringBuilder token = new StringBuilder(direction);
+        Base64.Encoder base64 = Base64.getUrlEncoder().withoutPadding();
+        for (Key key : keys) {
+            Object value = key.value().apply(row);
+            token.append('.').append(value == null ? "~"
+                    : base64.encodeToString(value.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+        return token.toString();
+    }
+
+    /** Direction followed by the key values; null for no cursor or one that does not fit these keys. */
+    private static String[] decode(String cursor, int keyCount) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        String[] parts = cursor.split("\\.", -1);
+        if (parts.length != keyCount + 1 || !(NEXT.equals(parts[0]) || PREVIOUS.equals(parts[0]))) {
+            return null;
+        }
+        try {
+            for (int i = 1; i < parts.length; i++) {
+                parts[i] = "~".equals(parts[i]) ? null
+                        : new String(Base64.getUrlDecoder().decode(parts[i]), StandardCharsets.UTF_8);
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return parts;
+    }
+
+    /**
+     * One page of a keyset listing: the rows and the cursors to the pages around
+     * it (null when there is none). There is no total count.
+     */
+    public static class CursorPage<T> {
+        private final List<T> content;
+        private final String nextCursor;
+        private final String previousCursor;
+
+        public CursorPage(List<T> content, String nextCursor, String previousCursor) {
+            this.content = content;
+            this.nextCursor = nextCursor;
+            this.previousCursor = previousCursor;
+        }
+
+        public static <T> CursorPage<T> empty() {
+            return new CursorPage<>(List.of(), null, null);
+        }
+
+        public List<T> getContent() {
+            return content;
+        }
+
+        public String getNextCursor() {
+            return nextCursor;
+        }
+
+        public String getPreviousCursor() {
+            return previousCursor;
+        }
+
+        public boolean hasNext() {
+            return nextCursor != null;
+        }
+
+        public boolean hasPrevious() {
+            return previousCursor != null;
+        }
+
+        public boolean isEmpty() {
+            return content.isEmpty();
+        }
+
+        public int getNumberOfElements() {
+            return content.size();
+        }
+    }
+}
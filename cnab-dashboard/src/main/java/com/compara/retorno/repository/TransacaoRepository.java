@@ -5,7 +5,9 @@ import com.compara.retorno.model.TipoOrigem;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
@@ -16,22 +18,26 @@ public interface TransacaoRepository extends JpaRepository<Transacao, Long> {
 
         List<Transacao> findByTipoOrigem(TipoOrigem tipoOrigem);
 
-        @Query(value = "SELECT * FROM transacoes t WHERE " +
-                        "(:nomePagador IS NULL OR t.nome_pagador ILIKE CONCAT('%', :nomePagador, '%')) AND " +
-                        "(:valorPago IS NULL OR t.valor_pago = :valorPago)", countQuery = "SELECT count(*) FROM transacoes t WHERE "
-                                        +
-                                        "(:nomePagador IS NULL OR t.nome_pagador ILIKE CONCAT('%', :nomePagador, '%')) AND "
-                                        +
-                                        "(:valorPago IS NULL OR t.valor_pago = :valorPago)", nativeQuery = true)
+        // Busca por pagador: nome sem acento/caixa (nome_pagador_normalizado) por
+        // substring ou semelhança de trigramas, ambos pelo índice GIN de pg_trgm
+        String BUSCA_PAGADOR_WHERE = "FROM transacoes t WHERE "
+                        + "(CAST(:nomePagador AS text) IS NULL "
+                        + "OR t.nome_pagador_normalizado LIKE CONCAT('%', normaliza_busca(:nomePagador), '%') "
+                        + "OR t.nome_pagador_normalizado % normaliza_busca(:nomePagador)) AND "
+                        + "(CAST(:valorPago AS numeric) IS NULL OR t.valor_pago = :valorPago) ";
+
+        // Mais parecidos com o nome buscado primeiro, depois os mais recentes
+        String BUSCA_PAGADOR_ORDER = "ORDER BY similarity(t.nome_pagador_normalizado, "
+                        + "normaliza_busca(COALESCE(:nomePagador, ''))) DESC, t.data_ocorrencia DESC, t.id DESC";
+
+        @Query(value = "SELECT t.* " + BUSCA_PAGADOR_WHERE + BUSCA_PAGADOR_ORDER,
+                        countQuery = "SELECT count(*) " + BUSCA_PAGADOR_WHERE, nativeQuery = true)
         Page<Transacao> findByNomePagadorAndValorPago(
                         @org.springframework.data.repository.query.Param("nomePagador") String nomePagador,
                         @org.springframework.data.repository.query.Param("valorPago") BigDecimal valorPago,
                         Pageable pageable);
 
-        @Query(value = "SELECT * FROM transacoes t WHERE " +
-                        "(:nomePagador IS NULL OR t.nome_pagador ILIKE CONCAT('%', :nomePagador, '%')) AND " +
-                        "(:valorPago IS NULL OR t.valor_pago = :valorPago) " +
-                        "ORDER BY t.data_ocorrencia DESC", nativeQuery = true)
+        @Query(value = "SELECT t.* " + BUSCA_PAGADOR_WHERE + BUSCA_PAGADOR_ORDER, nativeQuery = true)
         List<Transacao> findByNomePagadorAndValorPagoList(
                         @org.springframework.data.repository.query.Param("nomePagador") String nomePagador,
                         @org.springframework.data.repository.query.Param("valorPago") BigDecimal valorPago);
@@ -45,6 +51,84 @@ public interface TransacaoRepository extends JpaRepository<Transacao, Long> {
         List<Transacao> findMatch(TipoOrigem tipoOrigem, String nossoNumero, BigDecimal valorPago,
                         java.time.LocalDate dataOcorrencia);
 
+        // Conciliação em lote (set-based): um statement por transição de status,
+        // alterando apenas as linhas cujo status realmente muda.
+        // Chave de conciliação: nossoNumero + valorPago + dataOcorrencia, um-para-um:
+        // a k-ésima API de uma chave só concilia se existir a k-ésima GERAL da mesma chave
+        // (e vice-versa), então duplicatas excedentes de um lado ficam sem par.
+        String PAREADAS_SELECT = "SELECT x.id FROM (SELECT t.id, t.tipo_origem, " +
+                        "ROW_NUMBER() OVER (PARTITION BY t.nosso_numero, t.valor_pago, t.data_ocorrencia, " +
+                        "t.tipo_origem ORDER BY t.id) AS rk, " +
+                        "COUNT(*) FILTER (WHERE t.tipo_origem = 'API') OVER w AS n_api, " +
+                        "COUNT(*) FILTER (WHERE t.tipo_origem = 'GERAL') OVER w AS n_geral " +
+                        "FROM transacoes t WHERE t.nosso_numero IS NOT NULL AND t.valor_pago IS NOT NULL " +
+                        "AND t.data_ocorrencia IS NOT NULL";
+
+        String PAREADAS_END = " WINDOW w AS (PARTITION BY t.nosso_numero, t.valor_pago, t.data_ocorrencia)) x " +
+                        "WHERE x.rk <= CASE WHEN x.tipo_origem = 'API' THEN x.n_geral ELSE x.n_api END";
+
+        String BATCH_KEYS = "SELECT b.nosso_numero FROM transacoes b WHERE b.import_batch = :batch";
+
+        // Ids (API e GERAL) que têm par exato um-para-um
+        String PAREADAS = PAREADAS_SELECT + PAREADAS_END;
+
+        String PAREADAS_IN_BATCH = PAREADAS_SELECT + " AND t.nosso_numero IN (" + BATCH_KEYS + ")" + PAREADAS_END;
+
+        @Modifying(flushAutomatically = true, clearAutomatically = true)
+        @Query(value = "UPDATE transacoes a SET status_conciliacao = 'CONCILIADO' " +
+                        "WHERE a.tipo_origem = 'API' AND a.status_conciliacao IS DISTINCT FROM 'CONCILIADO' " +
+                        "AND a.id IN (" + PAREADAS + ")", nativeQuery = true)
+        int markApiConciliadas();
+
+        @Modifying(flushAutomatically = true, clearAutomatically = true)
+        @Query(value = "UPDATE transacoes a SET status_conciliacao = 'DIVERGENTE' " +
+                        "WHERE a.tipo_origem = 'API' AND a.status_conciliacao IS DISTINCT FROM 'DIVERGENTE' " +
+                        "AND NOT EXISTS (SELECT 1 FROM (" + PAREADAS + ") p WHERE p.id = a.id)",
+                        nativeQuery = true)
+        int markApiDivergentes();
+
+        @Modifying(flushAutomatically = true, clearAutomatically = true)
+        @Query(value = "UPDATE transacoes g SET status_conciliacao = 'CONCILIADO' " +
+                        "WHERE g.tipo_origem = 'GERAL' AND g.status_conciliacao IS DISTINCT FROM 'CONCILIADO' " +
+                        "AND g.id IN (" + PAREADAS + ")", nativeQuery = true)
+        int markGeralConciliadas();
+
+        // GERAL conciliada que perdeu a contraparte API (ex.: arquivo excluído)
+        @Modifying(flushAutomatically = true, clearAutomatically = true)
+        @Query(value = "UPDATE transacoes g SET status_conciliacao = 'PENDENTE' " +
+                        "WHERE g.tipo_origem = 'GERAL' AND g.status_conciliacao = 'CONCILIADO' " +
+                        "AND NOT EXISTS (SELECT 1 FROM (" + PAREADAS + ") p WHERE p.id = g.id)",
+                        nativeQuery = true)
+        int resetGeralSemPar();
+
+        // Mesmas transições restritas às chaves (nossoNumero) presentes em um upload,
+        // para que o custo acompanhe o tamanho do upload e não o da tabela
+        @Modifying(flushAutomatically = true, clearAutomatically = true)
+        @Query(value = "UPDATE transacoes a SET status_conciliacao = 'CONCILIADO' " +
+                        "WHERE a.tipo_origem = 'API' AND a.status_conciliacao IS DISTINCT FROM 'CONCILIADO' " +
+                        "AND a.id IN (" + PAREADAS_IN_BATCH + ")", nativeQuery = true)
+        int markApiConciliadasInBatch(@Param("batch") String importBatch);
+
+        @Modifying(flushAutomatically = true, clearAutomatically = true)
+        @Query(value = "UPDATE transacoes a SET status_conciliacao = 'DIVERGENTE' " +
+                        "WHERE a.tipo_origem = 'API' AND a.status_conciliacao IS DISTINCT FROM 'DIVERGENTE' " +
+                        "AND NOT EXISTS (SELECT 1 FROM (" + PAREADAS_IN_BATCH + ") p WHERE p.id = a.id) " +
+                        "AND a.nosso_numero IN (" + BATCH_KEYS + ")", nativeQuery = true)
+        int markApiDivergentesInBatch(@Param("batch") String importBatch);
+
+        @Modifying(flushAutomatically = true, clearAutomatically = true)
+        @Query(value = "UPDATE transacoes g SET status_conciliacao = 'CONCILIADO' " +
+                        "WHERE g.tipo_origem = 'GERAL' AND g.status_conciliacao IS DISTINCT FROM 'CONCILIADO' " +
+                        "AND g.id IN (" + PAREADAS_IN_BATCH + ")", nativeQuery = true)
+        int markGeralConciliadasInBatch(@Param("batch") String importBatch);
+
+        @Modifying(flushAutomatically = true, clearAutomatically = true)
+        @Query(value = "UPDATE transacoes g SET status_conciliacao = 'PENDENTE' " +
+                        "WHERE g.tipo_origem = 'GERAL' AND g.status_conciliacao = 'CONCILIADO' " +
+                        "AND NOT EXISTS (SELECT 1 FROM (" + PAREADAS_IN_BATCH + ") p WHERE p.id = g.id) " +
+                        "AND g.nosso_numero IN (" + BATCH_KEYS + ")", nativeQuery = true)
+        int resetGeralSemParInBatch(@Param("batch") String importBatch);
+
         // Queries para Dashboard
         @Query("SELECT SUM(t.valorPago) FROM Transacao t WHERE t.tipoOrigem = com.compara.retorno.model.TipoOrigem.API AND t.dataOcorrencia BETWEEN :startDate AND :endDate")
         BigDecimal sumValorApi(java.time.LocalDate startDate, java.time.LocalDate endDate);
@@ -91,12 +175,6 @@ public interface TransacaoRepository extends JpaRepository<Transacao, Long> {
         Page<Transacao> findByDataCreditoBetween(java.time.LocalDate startDate, java.time.LocalDate endDate,
                         Pageable pageable);
 
-        // Date Range
-        List<Transacao> findByDataOcorrenciaBetween(java.time.LocalDate startDate, java.time.LocalDate endDate);
-
-        // Credit Date Range
-        List<Transacao> findByDataCreditoBetween(java.time.LocalDate startDate, java.time.LocalDate endDate);
-
         // File Management
         @Query("SELECT DISTINCT t.fileSource FROM Transacao t WHERE t.fileSource IS NOT NULL ORDER BY t.fileSource")
         List<String> findDistinctFileSources();
@@ -155,4 +233,38 @@ public interface TransacaoRepository extends JpaRepository<Transacao, Long> {
                         "SUM(t.valorTitulo) as sumValorTitulo " +
                         "FROM Transacao t WHERE t.tipoOrigem = com.compara.retorno.model.TipoOrigem.GERAL AND t.dataCredito BETWEEN :startDate AND :endDate")
         FinancialStats getFinancialStatsByCredit(java.time.LocalDate startDate, java.time.LocalDate endDate);
+
+        // Totais do dashboard em uma única passada (agregados condicionais com FILTER)
+        public interface DashboardTotals extends FinancialStats {
+                BigDecimal getTotalApi();
+
+                BigDecimal getTotalGeral();
+
+                Long getCountDivergencias();
+
+                Long getCountConciliados();
+        }
+
+        String DASHBOARD_TOTALS = "SELECT " +
+                        "SUM(t.valor_pago) FILTER (WHERE t.tipo_origem = 'API') AS \"totalApi\", " +
+                        "SUM(t.valor_pago) FILTER (WHERE t.tipo_origem = 'GERAL') AS \"totalGeral\", " +
+                        "COUNT(*) FILTER (WHERE t.status_conciliacao = 'DIVERGENTE') AS \"countDivergencias\", " +
+                        "COUNT(*) FILTER (WHERE t.status_conciliacao = 'CONCILIADO') AS \"countConciliados\", " +
+                        "SUM(t.abatimento) FILTER (WHERE t.tipo_origem = 'GERAL') AS \"sumAbatimento\", " +
+                        "SUM(t.desconto) FILTER (WHERE t.tipo_origem = 'GERAL') AS \"sumDesconto\", " +
+                        "SUM(t.iof) FILTER (WHERE t.tipo_origem = 'GERAL') AS \"sumIof\", " +
+                        "SUM(t.juros_multa) FILTER (WHERE t.tipo_origem = 'GERAL') AS \"sumJurosMulta\", " +
+                        "SUM(t.outras_despesas) FILTER (WHERE t.tipo_origem = 'GERAL') AS \"sumOutrasDespesas\", " +
+                        "SUM(t.outros_creditos) FILTER (WHERE t.tipo_origem = 'GERAL') AS \"sumOutrosCreditos\", " +
+                        "SUM(t.valor_liquido) FILTER (WHERE t.tipo_origem = 'GERAL') AS \"sumValorLiquido\", " +
+                        "SUM(t.valor_pago) FILTER (WHERE t.tipo_origem = 'GERAL') AS \"sumValorPago\", " +
+                        "SUM(t.valor_tarifa) FILTER (WHERE t.tipo_origem = 'GERAL') AS \"sumValorTarifa\", " +
+                        "SUM(t.valor_titulo) FILTER (WHERE t.tipo_origem = 'GERAL') AS \"sumValorTitulo\" " +
+                        "FROM transacoes t ";
+
+        @Query(value = DASHBOARD_TOTALS + "WHERE t.data_ocorrencia BETWEEN :startDate AND :endDate", nativeQuery = true)
+        DashboardTotals getDashboardTotals(java.time.LocalDate startDate, java.time.LocalDate endDate);
+
+        @Query(value = DASHBOARD_TOTALS + "WHERE t.data_credito BETWEEN :startDate AND :endDate", nativeQuery = true)
+        DashboardTotals getDashboardTotalsByCredit(java.time.LocalDate startDate, java.time.LocalDate endDate);
 }
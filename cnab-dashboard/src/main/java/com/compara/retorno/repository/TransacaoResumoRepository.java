@@ -0,0 +1,280 @@
+package com.compara.retorno.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Daily rollup of {@code transacoes} ({@code transacoes_resumo_diario}, created in
+ * {@code db/migrations.sql}) read by the dashboard stats.
+ *
+ * Maintenance recomputes whole days from {@code transacoes}: callers collect the
+ * dates touched by a change and {@link #refresh} rebuilds just those rows. Runs
+ * on the connection of the current transaction, so the rollup commits together
+ * with the change that caused it.
+ */
+@Repository
+public class TransacaoResumoRepository {
+
+    public static final String OCORRENCIA = "OCORRENCIA";
+    public static final String CREDITO = "CREDITO";
+
+    /** Dates per statement in the refresh IN lists. */
+    private static final int DATES_PER_STATEMENT = 1000;
+
+    private static final String SUMS = "COUNT(*), "
+            + "COALESCE(SUM(t.abatimento), 0), COALESCE(SUM(t.desconto), 0), COALESCE(SUM(t.iof), 0), "
+            + "COALESCE(SUM(t.juros_multa), 0), COALESCE(SUM(t.outras_despesas), 0), "
+            + "COALESCE(SUM(t.outros_creditos), 0), COALESCE(SUM(t.valor_liquido), 0), "
+            + "COALESCE(SUM(t.valor_pago), 0), COALESCE(SUM(t.valor_tarifa), 0), COALESCE(SUM(t.valor_titulo), 0)";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbc;
+
+    /** Dates of every row sharing a nossoNumero with the import batch (all rows its reconciliation may touch). */
+    public AffectedDates datesOfBatchKeys(String importBatch) {
+        return findDates("t.nosso_numero IN (SELECT b.nosso_numero FROM transacoes b WHERE b.import_batch = :batch)",
+                new MapSqlParameterSource("batch", importBatch));
+    }
+
+    /** Dates of the rows of the given files; collect them before deleting the files. */
+    public AffectedDates datesOfFiles(Collection<String> fileSources) {
+        return findDates("t.file_source IN (:files)", new MapSqlParameterSource("files", fileSources));
+    }
+
+    private AffectedDates findDates(String where, MapSqlParameterSource params) {
+        AffectedDates dates = new AffectedDates();
+        jdbc.query("SELECT DISTINCT t.data_ocorrencia, t.data_credito FROM transacoes t WHERE " + where, params, rs -> {
+            dates.addOcorrencia(rs.getObject(1, LocalDate.class));
+            dates.addCredito(rs.getObject(2, LocalDate.class));
+        });
+        return dates;
+    }
+
+    /** Recomputes the rollup rows of the given dates from {@code transacoes}. */
+    public void refresh(AffectedDates dates) {
+        if (dates == null || dates.isEmpty()) {
+            return;
+        }
+        lock();
+        refresh(OCORRENCIA, "data_ocorrencia", dates.getOcorrencia());
+        refresh(CREDITO, "data_credito", dates.getCredito());
+    }
+
+    private void refresh(String tipoData, String column, Set<LocalDate> dates) {
+        List<LocalDate> all = new ArrayList<>(dates);
+        for (int from = 0; from < all.size(); from += DATES_PER_STATEMENT) {
+            List<LocalDate> slice = all.subList(from, Math.min(all.size(), from + DATES_PER_STATEMENT));
+            MapSqlParameterSource params = new MapSqlParameterSource("tipoData", tipoData).addValue("dates", slice);
+            jdbc.update("DELETE FROM transacoes_resumo_diario WHERE tipo_data = :tipoData AND data IN (:dates)",
+                    params);
+            jdbc.update("INSERT INTO transacoes_resumo_diario "
+                    + "SELECT t." + column + ", :tipoData, t.tipo_origem, COALESCE(t.status_conciliacao, ''), " + SUMS
+                    + " FROM transacoes t WHERE t." + column + " IN (:dates) "
+                    + "GROUP BY t." + column + ", t.tipo_origem, COALESCE(t.status_conciliacao, '')", params);
+        }
+    }
+
+    /** Recomputes the whole rollup, e.g. after a full reconciliation. */
+    public void rebuild() {
+        lock();
+        jdbc.update("DELETE FROM transacoes_resumo_diario", new MapSqlParameterSource());
+        for (String[] type : new String[][] { { OCORRENCIA, "data_ocorrencia" }, { CREDITO, "data_credito" } }) {
+            jdbc.update("INSERT INTO transacoes_resumo_diario "
+                    + "SELECT t." + type[1] + ", :tipoData, t.tipo_origem, COALESCE(t.status_conciliacao, ''), " + SUMS
+                    + " FROM transacoes t WHERE t." + type[1] + " IS NOT NULL "
+                    + "GROUP BY t." + type[1] + ", t.tipo_origem, COALESCE(t.status_conciliacao, '')",
+                    new MapSqlParameterSource("tipoData", type[0]));
+        }
+    }
+
+    public void clear() {
+        lock();
+        jdbc.update("DELETE FROM transacoes_resumo_diario", new MapSqlParameterSource());
+    }
+
+    /** Serializes rollup writers (parallel import jobs may refresh the same days). */
+    private void lock() {
+        jdbc.query("SELECT pg_advisory_xact_lock(hashtext('transacoes_resumo_diario'))", new MapSqlParameterSource(),
+                rs -> {
+                });
+    }
+
+    /**
+     * Dashboard totals of a date range: API/GERAL totals, divergence and
+     * conciliation counts and the GERAL financial sums.
+     */
+    public Totals sumRange(LocalDate startDate, LocalDate endDate, boolean useCreditDate) {
+        String sql = "SELECT "
+                + "COALESCE(SUM(r.soma_valor_pago) FILTER (WHERE r.tipo_origem = 'API'), 0), "
+                + "COALESCE(SUM(r.soma_valor_pago) FILTER (WHERE r.tipo_origem = 'GERAL'), 0), "
+                + "COALESCE(SUM(r.quantidade) FILTER (WHERE r.status_conciliacao = 'DIVERGENTE'), 0), "
+                + "COALESCE(SUM(r.quantidade) FILTER (WHERE r.status_conciliacao = 'CONCILIADO'), 0), "
+                + "SUM(r.soma_abatimento) FILTER (WHERE r.tipo_origem = 'GERAL'), "
+                + "SUM(r.soma_desconto) FILTER (WHERE r.tipo_origem = 'GERAL'), "
+                + "SUM(r.soma_iof) FILTER (WHERE r.tipo_origem = 'GERAL'), "
+                + "SUM(r.soma_juros_multa) FILTER (WHERE r.tipo_origem = 'GERAL'), "
+                + "SUM(r.soma_outras_despesas) FILTER (WHERE r.tipo_origem = 'GERAL'), "
+                + "SUM(r.soma_outros_creditos) FILTER (WHERE r.tipo_origem = 'GERAL'), "
+                + "SUM(r.soma_valor_liquido) FILTER (WHERE r.tipo_origem = 'GERAL'), "
+                + "SUM(r.soma_valor_pago) FILTER (WHERE r.tipo_origem = 'GERAL'), "
+                + "SUM(r.soma_valor_tarifa) FILTER (WHERE r.tipo_origem = 'GERAL'), "
+                + "SUM(r.soma_valor_titulo) FILTER (WHERE r.tipo_origem = 'GERAL') "
+                + "FROM transacoes_resumo_diario r "
+                + "WHERE r.tipo_data = :tipoData AND r.data BETWEEN :startDate AND :endDate";
+        MapSqlParameterSource params = new MapSqlParameterSource("tipoData", useCreditDate ? CREDITO : OCORRENCIA)
+                .addValue("startDate", startDate)
+                .addValue("endDate", endDate);
+        return jdbc.queryForObject(sql, params, (rs, i) -> {
+            Totals t = new Totals();
+            t.totalApi = rs.getBigDecimal(1);
+            t.totalGeral = rs.getBigDecimal(2);
+            t.countDivergencias = rs.getLong(3);
+            t.countConciliados = rs.getLong(4);
+            t.sumAbatimento = rs.getBigDecimal(5);
+            t.sumDesconto = rs.getBigDecimal(6);
+            t.sumIof = rs.getBigDecimal(7);
+            t.sumJurosMulta = rs.getBigDecimal(8);
+            t.sumOutrasDespesas = rs.getBigDecimal(9);
+            t.sumOutrosCreditos = rs.getBigDecimal(10);
+            t.sumValorLiquido = rs.getBigDecimal(11);
+            t.sumValorPago = rs.getBigDecimal(12);
+            t.sumValorTarifa = rs.getBigDecimal(13);
+            t.sumValorTitulo = rs.getBigDecimal(14);
+            return t;
+        });
+    }
+
+    /** Occurrence and credit dates touched by a change. */
+    public static class AffectedDates {
+        private final Set<LocalDate> ocorrencia = new TreeSet<>();
+        private final Set<LocalDate> credito = new TreeSet<>();
+
+        public void addOcorrencia(LocalDate date) {
+            if (date != null) {
+                ocorrencia.add(date);
+            }
+        }
+
+        public void addCredito(LocalDate date) {
+            if (date != null) {
+                credito.add(date);
+            }
+        }
+
+        public Set<LocalDate> getOcorrencia() {
+            return ocorrencia;
+        }
+
+        public Set<LocalDate> getCredito() {
+            return credito;
+        }
+
+        public boolean isEmpty() {
+            return ocorrencia.isEmpty() && credito.isEmpty();
+        }
+    }
+
+    /** Result of {@link #sumRange}; the financial sums are null when the range has no GERAL rows. */
+    public static class Totals implements TransacaoRepository.FinancialStats {
+        private BigDecimal totalApi;
+        private BigDecimal totalGeral;
+        private long countDivergencias;
+        private long countConciliados;
+        private BigDecimal sumAbatimento;
+        private BigDecimal sumDesconto;
+        private BigDecimal sumIof;
+        private BigDecimal sumJurosMulta;
+        private BigDecimal sumOutrasDespesas;
+        private BigDecimal sumOutrosCreditos;
+        private BigDecimal sumValorLiquido;
+        private BigDecimal sumValorPago;
+        private BigDecimal sumValorTarifa;
+        private BigDecimal sumValorTitulo;
+
+        public Totals() {
+        }
+
+        public Totals(BigDecimal totalApi, BigDecimal totalGeral, long countDivergencias, long countConciliados) {
+            this.totalApi = totalApi;
+            this.totalGeral = totalGeral;
+            this.countDivergencias = countDivergencias;
+            this.countConciliados = countConciliados;
+        }
+
+        public BigDecimal getTotalApi() {
+            return totalApi;
+        }
+
+        public BigDecimal getTotalGeral() {
+            return totalGeral;
+        }
+
+        public long getCountDivergencias() {
+            return countDivergencias;
+        }
+
+        public long getCountConciliados() {
+            return countConciliados;
+        }
+
+        @Override
+        public BigDecimal getSumAbatimento() {
+            return sumAbatimento;
+        }
+
+        @Override
+        public BigDecimal getSumDesconto() {
+            return sumDesconto;
+        }
+
+        @Override
+        public BigDecimal getSumIof() {
+            return sumIof;
+        }
+
+        @Override
+        public BigDecimal getSumJurosMulta() {
+            return sumJurosMulta;
+        }
+
+        @Override
+        public BigDecimal getSumOutrasDespesas() {
+            return sumOutrasDespesas;
+        }
+
+        @Override
+        public BigDecimal getSumOutrosCreditos() {
+            return sumOutrosCreditos;
+        }
+
+        @Override
+        public BigDecimal getSumValorLiquido() {
+            return sumValorLiquido;
+        }
+
+        @Override
+        public BigDecimal getSumValorPago() {
+            return sumValorPago;
+        }
+
+        @Override
+        public BigDecimal getSumValorTarifa() {
+            return sumValorTarifa;
+        }
+
+        @Override
+        public BigDecimal getSumValorTitulo() {
+            return sumValorTitulo;
+        }
+    }
+}
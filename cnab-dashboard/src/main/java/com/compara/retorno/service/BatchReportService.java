@@ -0,0 +1,150 @@
+package com.compara.retorno.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Report packs: many analysis PDFs in one zip download.
+ *
+ * Documents are rendered in parallel on a fixed pool, each in its own read-only
+ * transaction and into memory, and added to the zip by the calling thread in the
+ * order they finish ({@link ZipOutputStream} is not thread-safe). A pack keeps at
+ * most as many documents in flight as there are workers, so memory is bounded by
+ * the pool size rather than by the pack.
+ */
+@Service
+public class BatchReportService {
+
+    @Autowired
+    private ExportService exportService;
+
+    /** Documents rendered at once across all packs; each holds a database connection while it renders. */
+    @Value("${cnab.reports.batch-workers:4}")
+    private int workers = 4;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    void start() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "cnab-batch-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * One API x Geral analysis PDF per day of {@code month} with data, zipped onto
+     * {@code out} (left open). Days without any row are left out.
+     *
+     * @return number of documents in the zip
+     */
+    public int writeAnaliseMonthZip(YearMonth month, boolean useCreditDate, boolean onlyDivergences,
+            OutputStream out) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (LocalDate day = month.atDay(1); !day.isAfter(month.atEndOfMonth()); day = day.plusDays(1)) {
+            LocalDate date = day;
+            entries.add(new Entry("analise_api_geral_" + date + ".pdf", o -> exportService.writeAnalisePdf(date, date,
+                    useCreditDate, onlyDivergences, o)));
+        }
+        return writeZip(entries, out);
+    }
+
+    int writeZip(List<Entry> entries, OutputStream out) throws IOException {
+        CompletionService<Rendered> completion = new ExecutorCompletionService<>(executor);
+        List<Future<Rendered>> submitted = new ArrayList<>();
+        Iterator<Entry> pending = entries.iterator();
+        int inFlight = 0;
+        int written = 0;
+
+        ZipOutputStream zip = new ZipOutputStream(out);
+        // PDF content is already compressed
+        zip.setLevel(Deflater.BEST_SPEED);
+        try {
+            for (; inFlight < workers && pending.hasNext(); inFlight++) {
+                submitted.add(completion.submit(render(pending.next())));
+            }
+            while (inFlight > 0) {
+                Rendered document = completion.take().get();
+                inFlight--;
+                // Keep the workers busy while this one goes out
+                if (pending.hasNext()) {
+                    submitted.add(completion.submit(render(pending.next())));
+                    inFlight++;
+                }
+                if (document.rows() == 0) {
+                    continue;
+                }
+                zip.putNextEntry(new ZipEntry(document.name()));
+                zip.write(document.content());
+                zip.closeEntry();
+                zip.flush();
+                written++;
+            }
+            zip.finish();
+            zip.flush();
+            return written;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Geração do lote interrompida");
+        } catch (ExecutionException e) {
+            throw new IOException("Erro ao gerar o lote de relatórios: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            // Client gone or a document failed: the rest is not needed
+            submitted.forEach(f -> f.cancel(true));
+        }
+    }
+
+    private static Callable<Rendered> render(Entry entry) {
+        return () -> {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+            long rows = entry.writer().write(buffer);
+            return new Rendered(entry.name(), rows, buffer.toByteArray());
+        };
+    }
+
+    /** A document of a pack: its name in the zip and how to write it. */
+    record Entry(String name, DocumentWriter writer) {
+    }
+
+    @FunctionalInterface
+    interface DocumentWriter {
+        /** Writes the document and returns its number of rows. */
+        long write(OutputStream out) throws Exception;
+    }
+
+    private record Rendered(String name, long rows, byte[] content) {
+    }
+}
@@ -0,0 +1,422 @@
+package com.compara.retorno.service;
+
+import com.compara.retorno.model.TipoOrigem;
+import com.compara.retorno.model.Transacao;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.function.Consumer;
+
+/**
+ * Byte-level CNAB240 decoder.
+ *
+ * Works directly on a {@link ByteBuffer} (heap or memory-mapped): numeric fields are
+ * decoded with digit arithmetic into cents, dates into epoch days, and a
+ * {@link Transacao} is only materialized once its Segment U closes the T/U pair.
+ *
+ * The output is identical to the String based decoder in {@link CnabParserService}:
+ * lines containing non-ASCII bytes are decoded as UTF-8 text first (same as
+ * {@code BufferedReader.readLine}) so column positions keep the same semantics.
+ */
+final class CnabByteParser {
+
+    static final int MIN_LINE_LENGTH = 240;
+
+    /** Size of each memory-mapped window when reading files from disk. */
+    private static final long MAP_WINDOW = 256L * 1024 * 1024;
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("ddMMyyyy");
+
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private final String fileSource;
+    private final TipoOrigem tipoOrigem;
+    private final Consumer<Transacao> sink;
+
+    private final AsciiLine asciiLine = new AsciiLine();
+    private final TextLine textLine = new TextLine();
+
+    // Pending Segment T (decoded, not yet materialized)
+    private boolean pending;
+    private String banco, lote, tipoRegistro, nSeq, movimento, agencia, conta, nossoNumero, carteira,
+            numeroDocumento, bancoCobrador, agenciaCobradora, idTituloEmpresa, tipoInscricao, numInscricao,
+            nomePagador, numContrato, motivoOcorrencia;
+    private long vencimento;
+    private long valorTitulo, valorTarifa;
+
+    private int count;
+
+    CnabByteParser(String fileSource, TipoOrigem tipoOrigem, Consumer<Transacao> sink) {
+        this.fileSource = fileSource;
+        this.tipoOrigem = tipoOrigem;
+        this.sink = sink;
+    }
+
+    /** Number of transactions emitted so far. */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Parses a file from disk through read-only memory-mapped windows, so the heap
+     * footprint does not depend on the file size.
+     */
+    void parse(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(MAP_WINDOW, size - position);
+                boolean last = position + length >= size;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int consumed = parse(window, last);
+                if (consumed == 0 && !last) {
+                    throw new IOException("Linha maior que a janela de leitura em " + path);
+                }
+                position += consumed;
+            }
+        }
+    }
+
+    /**
+     * Parses all complete lines of the buffer.
+     *
+     * @param endOfInput whether the last line may be unterminated
+     * @return number of bytes consumed (always the full buffer when {@code endOfInput})
+     */
+    int parse(ByteBuffer buffer, boolean endOfInput) {
+        final int limit = buffer.limit();
+        int lineStart = buffer.position();
+        int i = lineStart;
+        boolean ascii = true;
+
+        while (i < limit) {
+            byte b = buffer.get(i);
+            if (b == '\n' || b == '\r') {
+                handleLine(buffer, lineStart, i, ascii);
+                i++;
+                // \r\n counts as a single terminator, like BufferedReader.readLine. A \n
+                // left at the start of the next window only yields an empty (ignored) line.
+                if (b == '\r' && i < limit && buffer.get(i) == '\n') {
+                    i++;
+                }
+                lineStart = i;
+                ascii = true;
+                continue;
+            }
+            if (b < 0) {
+                ascii = false;
+            }
+            i++;
+        }
+
+        if (!endOfInput) {
+            return lineStart - buffer.position();
+        }
+        if (lineStart < limit) {
+            handleLine(buffer, lineStart, limit, ascii);
+        }
+        return limit - buffer.position();
+    }
+
+    private void handleLine(ByteBuffer buffer, int start, int end, boolean ascii) {
+        Line line;
+        if (ascii) {
+            asciiLine.reset(buffer, start, end);
+            line = asciiLine;
+        } else {
+            byte[] raw = new byte[end - start];
+            buffer.get(start, raw);
+            textLine.reset(new String(raw, StandardCharsets.UTF_8));
+            line = textLine;
+        }
+        if (line.length() < MIN_LINE_LENGTH) {
+            return;
+        }
+
+        try {
+            int segmentType = line.charAt(13);
+            if (segmentType == 'T') {
+                readSegmentT(line);
+            } else if (segmentType == 'U') {
+                if (pending) {
+                    readSegmentUAndEmit(line);
+                }
+            }
+        } catch (Exception e) {
+            // Log error but continue parsing other lines
+            System.err.println("Erro ao ler linha: " + e.getMessage());
+        }
+    }
+
+    private void readSegmentT(Line line) {
+        pending = true;
+        banco = line.text(0, 3);
+        lote = line.text(3, 7);
+        tipoRegistro = line.text(7, 8);
+        nSeq = line.text(8, 13);
+        movimento = line.text(15, 17);
+        agencia = line.text(17, 22);
+        conta = line.text(23, 35);
+        nossoNumero = line.trimmed(37, 57);
+        carteira = line.text(57, 58);
+        numeroDocumento = line.trimmed(58, 73);
+        vencimento = isZeroDate(line, 73) ? NO_DATE : epochDay(line, 73);
+        valorTitulo = cents(line, 81, 96);
+        bancoCobrador = line.text(96, 99);
+        agenciaCobradora = line.text(99, 104);
+        idTituloEmpresa = line.trimmed(105, 130);
+        tipoInscricao = line.text(130, 131);
+        numInscricao = line.text(131, 148);
+        nomePagador = line.trimmed(148, 188);
+        numContrato = line.text(188, 198);
+        valorTarifa = cents(line, 198, 213);
+        motivoOcorrencia = line.trimmed(213, 223);
+    }
+
+    private void readSegmentUAndEmit(Line line) {
+        long jurosMulta = cents(line, 17, 32);
+        long desconto = cents(line, 32, 47);
+        long abatimento = cents(line, 47, 62);
+        long iof = cents(line, 62, 77);
+        long valorPago = cents(line, 77, 92);
+        long valorLiquido = cents(line, 92, 107);
+        long outrasDespesas = cents(line, 107, 122);
+        long outrosCreditos = cents(line, 122, 137);
+        long dataOcorrencia = epochDay(line, 137);
+        long dataCredito = isZeroDate(line, 145) ? NO_DATE : epochDay(line, 145);
+
+        // Materialize only now that the T/U pair is complete
+        Transacao t = new Transacao();
+        t.setTipoOrigem(tipoOrigem);
+        t.setFileSource(fileSource);
+        t.setStatusConciliacao("PENDENTE");
+        t.setBanco(banco);
+        t.setLote(lote);
+        t.setTipoRegistro(tipoRegistro);
+        t.setNSeq(nSeq);
+        t.setSegmento("T");
+        t.setMovimento(movimento);
+        t.setAgencia(agencia);
+        t.setConta(conta);
+        t.setNossoNumero(nossoNumero);
+        t.setCarteira(carteira);
+        t.setNumeroDocumento(numeroDocumento);
+        t.setVencimento(toDate(vencimento));
+        t.setValorTitulo(toMoney(valorTitulo));
+        t.setBancoCobrador(bancoCobrador);
+        t.setAgenciaCobradora(agenciaCobradora);
+        t.setIdTituloEmpresa(idTituloEmpresa);
+        t.setTipoInscricao(tipoInscricao);
+        t.setNumInscricao(numInscricao);
+        t.setNomePagador(nomePagador);
+        t.setNumContrato(numContrato);
+        t.setValorTarifa(toMoney(valorTarifa));
+        t.setMotivoOcorrencia(motivoOcorrencia);
+        t.setJurosMulta(toMoney(jurosMulta));
+        t.setDesconto(toMoney(desconto));
+        t.setAbatimento(toMoney(abatimento));
+        t.setIof(toMoney(iof));
+        t.setValorPago(toMoney(valorPago));
+        t.setValorLiquido(toMoney(valorLiquido));
+        t.setOutrasDespesas(toMoney(outrasDespesas));
+        t.setOutrosCreditos(toMoney(outrosCreditos));
+        t.setDataOcorrencia(toDate(dataOcorrencia));
+        t.setDataCredito(toDate(dataCredito));
+
+        pending = false;
+        count++;
+        sink.accept(t);
+    }
+
+    // --- Field decoding ---
+
+    /**
+     * Decodes a monetary field into cents. Mirrors the String decoder: surrounding
+     * blanks are ignored, an optional '-' is accepted and anything else yields zero.
+     */
+    static long cents(Line line, int start, int end) {
+        while (start < end && line.charAt(start) <= ' ') start++;
+        while (end > start && line.charAt(end - 1) <= ' ') end--;
+        if (start < end && line.charAt(start) == '-') {
+            long value = digits(line, start + 1, end);
+            return value < 0 ? 0 : -value;
+        }
+        long value = digits(line, start, end);
+        return value < 0 ? 0 : value;
+    }
+
+    /** Returns the unsigned value of an all-digit range, or -1 if empty or not numeric. */
+    private static long digits(Line line, int start, int end) {
+        if (start >= end) return -1;
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int c = line.charAt(i) - '0';
+            if (c < 0 || c > 9) return -1;
+            value = value * 10 + c;
+        }
+        return value;
+    }
+
+    private static boolean isZeroDate(Line line, int start) {
+        for (int i = start; i < start + 8; i++) {
+            if (line.charAt(i) != '0') return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a DDMMYYYY date into epoch days, {@link #NO_DATE} when invalid. Follows
+     * the SMART resolver of {@code DateTimeFormatter.ofPattern("ddMMyyyy")}: day 29-31
+     * is clamped to the last day of the month.
+     */
+    static long epochDay(Line line, int start) {
+        int day = 0, month = 0, year = 0;
+        for (int i = 0; i < 8; i++) {
+            int c = line.charAt(start + i) - '0';
+            if (c < 0 || c > 9) {
+                return epochDayFallback(line, start);
+            }
+            if (i < 2) day = day * 10 + c;
+            else if (i < 4) month = month * 10 + c;
+            else year = year * 10 + c;
+        }
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > 31) {
+            return NO_DATE;
+        }
+        return civilToEpochDay(year, month, Math.min(day, monthLength(year, month)));
+    }
+
+    /** Unusual content (signs, blanks): let java.time decide, exactly like the String decoder. */
+    private static long epochDayFallback(Line line, int start) {
+        try {
+            return LocalDate.parse(line.text(start, start + 8), DATE_FORMATTER).toEpochDay();
+        } catch (Exception e) {
+            return NO_DATE;
+        }
+    }
+
+    private static int monthLength(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /** Days since 1970-01-01 for a proleptic Gregorian date (Howard Hinnant's days_from_civil). */
+    static long civilToEpochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yoe = y - era * 400;
+        long doy = (153L * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static LocalDate toDate(long epochDay) {
+        return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+
+    /**
+     * Converts cents to the same BigDecimal the String decoder produces with
+     * {@code new BigDecimal(s).divide(new BigDecimal(100))}: the exact quotient at the
+     * smallest scale between 0 and 2.
+     */
+    static BigDecimal toMoney(long cents) {
+        if (cents % 100 == 0) return BigDecimal.valueOf(cents / 100);
+        if (cents % 10 == 0) return BigDecimal.valueOf(cents / 10, 1);
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    // --- Line views ---
+
+    /** Character view over one CNAB line, shared by the byte and the text representation. */
+    interface Line {
+        int length();
+
+        int charAt(int index);
+
+        String text(int start, int end);
+
+        default String trimmed(int start, int end) {
+            while (start < end && charAt(start) <= ' ') start++;
+            while (end > start && charAt(end - 1) <= ' ') end--;
+            return text(start, end);
+        }
+    }
+
+    /** Pure ASCII line read straight from the buffer: one byte per char. */
+    static final class AsciiLine implements Line {
+        private ByteBuffer buffer;
+        private int offset;
+        private int length;
+        private byte[] scratch = new byte[256];
+
+        void reset(ByteBuffer buffer, int start, int end) {
+            this.buffer = buffer;
+            this.offset = start;
+            this.length = end - start;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public int charAt(int index) {
+            if (index >= length) throw new StringIndexOutOfBoundsException(index);
+            return buffer.get(offset + index);
+        }
+
+        @Override
+        public String text(int start, int end) {
+            int len = end - start;
+            if (end > length) throw new StringIndexOutOfBoundsException(end);
+            if (len == 0) return "";
+            if (scratch.length < len) scratch = new byte[len];
+            buffer.get(offset + start, scratch, 0, len);
+            return new String(scratch, 0, len, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /** Line that had to be decoded as UTF-8 text (non-ASCII content). */
+    static final class TextLine implements Line {
+        private String value;
+
+        void reset(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public int length() {
+            return value.length();
+        }
+
+        @Override
+        public int charAt(int index) {
+            return value.charAt(index);
+        }
+
+        @Override
+        public String text(int start, int end) {
+            return value.substring(start, end);
+        }
+    }
+}
@@ -2,24 +2,50 @@ package com.compara.retorno.service;
 
 import com.compara.retorno.model.Transacao;
 import com.compara.retorno.model.TipoOrigem;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 @Service
 public class CnabParserService {
 
+    /**
+     * Decoding engine. BYTES works on ByteBuffers without intermediate Strings and
+     * produces the same transactions as LEGACY, the original line/substring decoder.
+     */
+    public enum Engine {
+        LEGACY,
+        BYTES
+    }
+
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("ddMMyyyy");
 
+    @Value("${cnab.parser.engine:BYTES}")
+    private Engine engine = Engine.BYTES;
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
     private BigDecimal parseMonetaryValue(String valueStr) {
         if (valueStr == null || valueStr.trim().isEmpty()) {
             return BigDecimal.ZERO;
@@ -38,8 +64,49 @@ public class CnabParserService {
 
     public List<Transacao> parseFile(MultipartFile file, String tipoOrigem) throws IOException {
         List<Transacao> transactions = new ArrayList<>();
-        
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8))) {
+        parse(file, tipoOrigem, transactions::add);
+        return transactions;
+    }
+
+    /**
+     * Parses an uploaded file, handing each completed T/U pair to {@code sink}.
+     *
+     * @return number of transactions emitted
+     */
+    public int parse(MultipartFile file, String tipoOrigem, Consumer<Transacao> sink) throws IOException {
+        if (engine == Engine.LEGACY) {
+            try (InputStream in = file.getInputStream()) {
+                return parseLegacy(in, file.getOriginalFilename(), tipoOrigem, sink);
+            }
+        }
+        CnabByteParser parser = new CnabByteParser(file.getOriginalFilename(), TipoOrigem.valueOf(tipoOrigem), sink);
+        parser.parse(ByteBuffer.wrap(file.getBytes()), true);
+        return parser.getCount();
+    }
+
+    /**
+     * Parses a file on disk. With the BYTES engine the file is memory-mapped instead of
+     * being read into the heap.
+     *
+     * @param fileSource name recorded in {@link Transacao#getFileSource()}
+     * @return number of transactions emitted
+     */
+    public int parse(Path path, String fileSource, String tipoOrigem, Consumer<Transacao> sink) throws IOException {
+        if (engine == Engine.LEGACY) {
+            try (InputStream in = Files.newInputStream(path)) {
+                return parseLegacy(in, fileSource, tipoOrigem, sink);
+            }
+        }
+        CnabByteParser parser = new CnabByteParser(fileSource, TipoOrigem.valueOf(tipoOrigem), sink);
+        parser.parse(path);
+        return parser.getCount();
+    }
+
+    private int parseLegacy(InputStream in, String fileSource, String tipoOrigem, Consumer<Transacao> sink)
+            throws IOException {
+        int count = 0;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
             String line;
             Transacao currentTransaction = null;
             
@@ -52,7 +119,7 @@ public class CnabParserService {
                     if (segmentType == 'T') {
                         currentTransaction = new Transacao();
                         currentTransaction.setTipoOrigem(TipoOrigem.valueOf(tipoOrigem));
-                        currentTransaction.setFileSource(file.getOriginalFilename());
+                        currentTransaction.setFileSource(fileSource);
                         currentTransaction.setStatusConciliacao("PENDENTE"); // Default
                         
                         // Parse Segment T
@@ -111,7 +178,8 @@ public class CnabParserService {
                             }
                             
                             // Add completed transaction
-                            transactions.add(currentTransaction);
+                            sink.accept(currentTransaction);
+                            count++;
                             currentTransaction = null; // Reset
                         }
                     }
@@ -121,6 +189,6 @@ public class CnabParserService {
                 }
             }
         }
-        return transactions;
+        return count;
     }
 }
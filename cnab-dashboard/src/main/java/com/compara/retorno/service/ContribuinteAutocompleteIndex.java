@@ -0,0 +1,338 @@
+package com.compara.retorno.service;
+
+import com.compara.retorno.model.Contribuinte;
+import com.compara.retorno.repository.ContribuinteRepository;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory prefix index for the contribuinte autocomplete, so typing in the
+ * search box does not query the database on every keystroke.
+ *
+ * The keys are the normalized name (lower case, no accents) from each word on,
+ * so "silva" finds "José da Silva", plus the CPF/CNPJ digits and the inscrição.
+ * They live in one sorted array with a parallel array of ids: a lookup is a
+ * binary search to the first key with the prefix followed by a short scan.
+ *
+ * The arrays are an immutable snapshot replaced on every change (copy on write),
+ * so lookups never lock. It is built at startup and kept current two ways:
+ * {@link EntityListener} merges the contribuintes a transaction saved or deleted
+ * through JPA once it commits, and {@link #refreshIfChanged()} rebuilds it when
+ * the table changed behind JPA's back (the register is loaded with SQL/COPY).
+ */
+@Component
+public class ContribuinteAutocompleteIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ContribuinteAutocompleteIndex.class);
+
+    /** Words shorter than this ("da", "de", "e") do not start a key of their own. */
+    private static final int MIN_WORD = 3;
+
+    /** Sorted keys and the contribuinte id of each. */
+    private record Snapshot(String[] keys, long[] ids) {
+    }
+
+    private record Entry(String key, long id) {
+    }
+
+    private static final Comparator<Entry> ORDER = Comparator.comparing(Entry::key).thenComparingLong(Entry::id);
+
+    @Autowired
+    private ContribuinteRepository contribuinteRepository;
+
+    private final Map<Long, Sugestao> byId = new ConcurrentHashMap<>();
+
+    private volatile Snapshot snapshot = new Snapshot(new String[0], new long[0]);
+
+    /** {@link ContribuinteRepository#findChangeMarker()} as of the last rebuild. */
+    private volatile String loadedMarker;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        long t0 = System.currentTimeMillis();
+        // read before the rows: a change committed in between triggers one more rebuild, never a missed one
+        String marker = contribuinteRepository.findChangeMarker();
+        List<Sugestao> all = new ArrayList<>();
+        for (Object[] row : contribuinteRepository.findAutocompleteEntries()) {
+            all.add(new Sugestao((Long) row[0], (String) row[1], (String) row[2], (String) row[3]));
+        }
+        load(all);
+        loadedMarker = marker;
+        log.info("Índice de autocomplete: {} contribuintes, {} chaves em {} ms", all.size(),
+                snapshot.keys().length, System.currentTimeMillis() - t0);
+    }
+
+    /**
+     * Rebuilds the index when the contribuintes table changed since the last
+     * rebuild; the check itself is a count and the table's modification counters.
+     */
+    @Scheduled(fixedDelayString = "${cnab.autocomplete.refresh-interval-ms:60000}",
+            initialDelayString = "${cnab.autocomplete.refresh-interval-ms:60000}")
+    public void refreshIfChanged() {
+        if (!Objects.equals(contribuinteRepository.findChangeMarker(), loadedMarker)) {
+            rebuild();
+        }
+    }
+
+    /** Replaces the whole index. */
+    synchronized void load(Collection<Sugestao> all) {
+        byId.clear();
+        List<Entry> entries = new ArrayList<>();
+        for (Sugestao s : all) {
+            byId.put(s.getId(), s);
+            entries.addAll(entries(s));
+        }
+        entries.sort(ORDER);
+        snapshot = toSnapshot(entries);
+    }
+
+    /** Adds a contribuinte, or replaces the keys of one already indexed. */
+    public void put(Contribuinte c) {
+        if (c.getId() != null) {
+            apply(Collections.singletonMap(c.getId(), sugestao(c)));
+        }
+    }
+
+    public void remove(Long id) {
+        if (id != null) {
+            apply(Collections.singletonMap(id, null));
+        }
+    }
+
+    /**
+     * Swaps the keys of the given ids (a null value removes the id): a single
+     * merge pass over the current arrays, however many ids changed.
+     */
+    synchronized void apply(Map<Long, Sugestao> changes) {
+        List<Entry> added = new ArrayList<>();
+        boolean changed = false;
+        for (Map.Entry<Long, Sugestao> change : changes.entrySet()) {
+            Sugestao replacement = change.getValue();
+            Sugestao previous = replacement == null ? byId.remove(change.getKey())
+                    : byId.put(change.getKey(), replacement);
+            if (replacement != null) {
+                added.addAll(entries(replacement));
+            }
+            changed |= previous != null || replacement != null;
+        }
+        if (!changed) {
+            return;
+        }
+        added.sort(ORDER);
+
+        Snapshot current = snapshot;
+        List<Entry> merged = new ArrayList<>(current.keys().length + added.size());
+        int a = 0;
+        for (int i = 0; i < current.keys().length; i++) {
+            if (changes.containsKey(current.ids()[i])) {
+                continue;
+            }
+            Entry e = new Entry(current.keys()[i], current.ids()[i]);
+            while (a < added.size() && ORDER.compare(added.get(a), e) < 0) {
+                merged.add(added.get(a++));
+            }
+            merged.add(e);
+        }
+        merged.addAll(added.subList(a, added.size()));
+        snapshot = toSnapshot(merged);
+    }
+
+    /**
+     * Up to {@code limit} contribuintes with a key starting with the normalized
+     * term, in key order; each contribuinte appears once.
+     */
+    public List<Sugestao> suggest(String term, int limit) {
+        String prefix = normalize(term);
+        if (prefix.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        String digits = term.replaceAll("\\D", "");
+        Snapshot s = snapshot;
+        Set<Long> found = new LinkedHashSet<>();
+        collect(s, prefix, limit, found);
+        // "123.456" is typed with punctuation, the CPF/CNPJ key has only digits
+        if (found.size() < limit && !digits.isEmpty() && !digits.equals(prefix)) {
+            collect(s, digits, limit, found);
+        }
+        List<Sugestao> result = new ArrayList<>(found.size());
+        for (Long id : found) {
+            Sugestao sugestao = byId.get(id);
+            if (sugestao != null) {
+                result.add(sugestao);
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    private static void collect(Snapshot s, String prefix, int limit, Set<Long> found) {
+        int i = Arrays.binarySearch(s.keys(), prefix);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        for (; i < s.keys().length && found.size() < limit && s.keys()[i].startsWith(prefix); i++) {
+            found.add(s.ids()[i]);
+        }
+    }
+
+    private static Sugestao sugestao(Contribuinte c) {
+        return new Sugestao(c.getId(), c.getNome(), c.getCpfCnpj(), c.getInscricaoMunicipal());
+    }
+
+    private static List<Entry> entries(Sugestao s) {
+        Set<String> keys = new HashSet<>();
+        String nome = normalize(s.getNome());
+        if (!nome.isEmpty()) {
+            keys.add(nome);
+            for (int i = nome.indexOf(' '); i >= 0; i = nome.indexOf(' ', i + 1)) {
+                int end = nome.indexOf(' ', i + 1);
+                if ((end < 0 ? nome.length() : end) - (i + 1) >= MIN_WORD) {
+                    keys.add(nome.substring(i + 1));
+                }
+            }
+        }
+        String doc = s.getCpfCnpj() == null ? "" : s.getCpfCnpj().replaceAll("\\D", "");
+        if (!doc.isEmpty()) {
+            keys.add(doc);
+        }
+        String inscricao = normalize(s.getInscricaoMunicipal());
+        if (!inscricao.isEmpty()) {
+            keys.add(inscricao);
+        }
+        List<Entry> entries = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            entries.add(new Entry(key, s.getId()));
+        }
+        return entries;
+    }
+
+    private static Snapshot toSnapshot(List<Entry> sorted) {
+        String[] keys = new String[sorted.size()];
+        long[] ids = new long[sorted.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = sorted.get(i).key();
+            ids[i] = sorted.get(i).id();
+        }
+        return new Snapshot(keys, ids);
+    }
+
+    /** Lower case without accents, single spaces. */
+    static String normalize(String s) {
+        if (s == null) {
+            return "";
+        }
+        String plain = Normalizer.normalize(s, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        return plain.toLowerCase().replaceAll("\\s+", " ").trim();
+    }
+
+    /**
+     * JPA listener on {@link Contribuinte}: collects the changes of a transaction
+     * and merges them into the index in one pass once it commits (Hibernate builds
+     * it through Spring, so the index is injected).
+     */
+    public static class EntityListener {
+
+        /** Transaction resource holding the changes not yet merged. */
+        private static final Object PENDING = new Object();
+
+        @Autowired
+        private ContribuinteAutocompleteIndex index;
+
+        @PostPersist
+        @PostUpdate
+        public void saved(Contribuinte c) {
+            record(c.getId(), sugestao(c));
+        }
+
+        @PostRemove
+        public void removed(Contribuinte c) {
+            record(c.getId(), null);
+        }
+
+        private void record(Long id, Sugestao value) {
+            if (index == null || id == null) {
+                return;
+            }
+            if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+                index.apply(Collections.singletonMap(id, value));
+                return;
+            }
+            @SuppressWarnings("unchecked")
+            Map<Long, Sugestao> pending = (Map<Long, Sugestao>) TransactionSynchronizationManager.getResource(PENDING);
+            if (pending == null) {
+                Map<Long, Sugestao> changes = new LinkedHashMap<>();
+                TransactionSynchronizationManager.bindResource(PENDING, changes);
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        TransactionSynchronizationManager.unbindResourceIfPossible(PENDING);
+                        if (status == STATUS_COMMITTED) {
+                            index.apply(changes);
+                        }
+                    }
+                });
+                pending = changes;
+            }
+            pending.put(id, value);
+        }
+    }
+
+    /** What the autocomplete shows for one contribuinte. */
+    public static class Sugestao {
+        private final Long id;
+        private final String nome;
+        private final String cpfCnpj;
+        private final String inscricaoMunicipal;
+
+        public Sugestao(Long id, String nome, String cpfCnpj, String inscricaoMunicipal) {
+            this.id = id;
+            this.nome = nome;
+            this.cpfCnpj = cpfCnpj;
+            this.inscricaoMunicipal = inscricaoMunicipal;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getNome() {
+            return nome;
+        }
+
+        public String getCpfCnpj() {
+            return cpfCnpj;
+        }
+
+        public String getInscricaoMunicipal() {
+            return inscricaoMunicipal;
+        }
+    }
+}
@@ -5,12 +5,11 @@ import com.lowagie.text.*;
 import com.lowagie.text.pdf.PdfPCell;
 import com.lowagie.text.pdf.PdfPTable;
 import com.lowagie.text.pdf.PdfWriter;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.springframework.stereotype.Service;
 
 import java.awt.Color;
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.util.List;
 
 @Service
@@ -64,42 +63,49 @@ public class ContribuinteReportService {
     }
 
     public byte[] generateExcel(List<Contribuinte> list) {
-        try (Workbook wb = new XSSFWorkbook(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            Sheet s = wb.createSheet("Contribuintes");
-            int r = 0;
-            org.apache.poi.ss.usermodel.Row header = s.createRow(r++);
-            String[] cols = {"CPF/CNPJ", "Nome", "Inscrição", "Endereço", "Bairro", "Atividade", "Situação"};
-            for (int i = 0; i < cols.length; i++) {
-                org.apache.poi.ss.usermodel.Cell c = header.createCell(i);
-                c.setCellValue(cols[i]);
-            }
-            for (Contribuinte c : list) {
-                org.apache.poi.ss.usermodel.Row row = s.createRow(r++);
-                row.createCell(0).setCellValue(maskCpfCnpj(c.getCpfCnpj()));
-                row.createCell(1).setCellValue(nvl(c.getNome()));
-                row.createCell(2).setCellValue(nvl(c.getInscricaoMunicipal()));
-                row.createCell(3).setCellValue(formatEndereco(c));
-                row.createCell(4).setCellValue(nvl(c.getBairro()));
-                row.createCell(5).setCellValue(nvl(c.getAtividadeEconomica()));
-                row.createCell(6).setCellValue(nvl(c.getSituacaoCadastral()));
-            }
-            for (int i = 0; i < 7; i++) s.autoSizeColumn(i);
-            wb.write(out);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ContribuintesSheet sheet = openExcel(out)) {
+            list.forEach(sheet::add);
+            sheet.finish();
             return out.toByteArray();
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /** Contribuintes spreadsheet on {@code out}, written as rows are added (see {@link ExcelService.StreamingSheet}). */
+    public ContribuintesSheet openExcel(OutputStream out) {
+        return new ContribuintesSheet(out);
+    }
+
+    public static class ContribuintesSheet extends ExcelService.StreamingSheet {
+
+        ContribuintesSheet(OutputStream out) {
+            super(out, "Contribuintes",
+                    new String[] { "CPF/CNPJ", "Nome", "Inscrição", "Endereço", "Bairro", "Atividade", "Situação" },
+                    new int[] { 20, 45, 16, 60, 25, 30, 12 });
+        }
+
+        public void add(Contribuinte c) {
+            row(maskCpfCnpj(c.getCpfCnpj()),
+                    nvl(c.getNome()),
+                    nvl(c.getInscricaoMunicipal()),
+                    formatEndereco(c),
+                    nvl(c.getBairro()),
+                    nvl(c.getAtividadeEconomica()),
+                    nvl(c.getSituacaoCadastral()));
+        }
+    }
+
     private void addHeader(PdfPTable t, String text) {
         PdfPCell h = new PdfPCell(new Phrase(text, FontFactory.getFont(FontFactory.HELVETICA_BOLD, 10)));
         h.setBackgroundColor(Color.LIGHT_GRAY);
         t.addCell(h);
     }
 
-    private String nvl(String s) { return s == null ? "" : s; }
+    private static String nvl(String s) { return s == null ? "" : s; }
 
-    private String formatEndereco(Contribuinte c) {
+    private static String formatEndereco(Contribuinte c) {
         StringBuilder sb = new StringBuilder();
         if (c.getLogradouro() != null) sb.append(c.getLogradouro());
         if (c.getNumero() != null) sb.append(", ").append(c.getNumero());
@@ -110,7 +116,7 @@ public class ContribuinteReportService {
         return sb.toString().trim();
     }
 
-    private String maskCpfCnpj(String digits) {
+    private static String maskCpfCnpj(String digits) {
         if (digits == null) return "";
         String d = digits.replaceAll("\\D", "");
         if (d.length() == 11) {
@@ -4,12 +4,26 @@ import com.compara.retorno.model.AuditoriaConsulta;
 import com.compara.retorno.model.Contribuinte;
 import com.compara.retorno.repository.AuditoriaConsultaRepository;
 import com.compara.retorno.repository.ContribuinteRepository;
+import com.compara.retorno.repository.ContribuinteSpecifications;
 import com.compara.retorno.repository.PagamentoRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.hibernate.jpa.AvailableHints;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
 public class ContribuinteService {
@@ -23,10 +37,18 @@ public class ContribuinteService {
     @Autowired
     private AuditoriaConsultaRepository auditoriaConsultaRepository;
 
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${cnab.export.fetch-size:1000}")
+    private int fetchSize;
+
     public Page<Contribuinte> search(String q, String bairro, String atividade, String situacao, int page, int size, String usuario, String ip, String userAgent) {
         long t0 = System.currentTimeMillis();
         Pageable pageable = PageRequest.of(page, size);
-        Page<Contribuinte> result = contribuinteRepository.search(normalizeQuery(q), normalize(bairro), normalize(atividade), normalize(situacao), pageable);
+        Page<Contribuinte> result = contribuinteRepository.findAll(
+                ContribuinteSpecifications.search(normalizeQuery(q), normalize(bairro), normalize(atividade), normalize(situacao)),
+                pageable);
         long took = System.currentTimeMillis() - t0;
 
         AuditoriaConsulta log = new AuditoriaConsulta();
@@ -42,6 +64,34 @@ public class ContribuinteService {
         return result;
     }
 
+    /**
+     * Every contribuinte matching the same filters as {@link #search}, in the same
+     * order, handed over one at a time from a database cursor. Each entity is
+     * detached once handled, so the persistence context does not grow with the
+     * result. For the exports; must run inside the read-only transaction.
+     */
+    @Transactional(readOnly = true)
+    public void forEach(String q, String bairro, String atividade, String situacao, Consumer<Contribuinte> action) {
+        Specification<Contribuinte> spec = ContribuinteSpecifications.search(normalizeQuery(q), normalize(bairro),
+                normalize(atividade), normalize(situacao));
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Contribuinte> query = cb.createQuery(Contribuinte.class);
+        Root<Contribuinte> root = query.from(Contribuinte.class);
+        Predicate where = spec.toPredicate(root, query, cb);
+        if (where != null) {
+            query.where(where);
+        }
+        try (Stream<Contribuinte> rows = entityManager.createQuery(query)
+                .setHint(AvailableHints.HINT_FETCH_SIZE, fetchSize)
+                .setHint(AvailableHints.HINT_READ_ONLY, true)
+                .getResultStream()) {
+            rows.forEach(c -> {
+                action.accept(c);
+                entityManager.detach(c);
+            });
+        }
+    }
+
     private String normalize(String s) {
         if (s == null) return null;
         s = s.trim();
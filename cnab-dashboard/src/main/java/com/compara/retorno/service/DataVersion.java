@@ -0,0 +1,43 @@
+package com.compara.retorno.service;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version of the transaction data (transacoes and the tables derived from it),
+ * changed by the same operations that evict the read caches. Anything computed
+ * from the data and tagged with the version it was read at is still valid while
+ * {@link #current()} returns that value.
+ *
+ * Starts from the boot time, so results kept on disk by a previous run never
+ * look current.
+ */
+@Component
+public class DataVersion {
+
+    private final AtomicLong version = new AtomicLong(System.currentTimeMillis());
+
+    public long current() {
+        return version.get();
+    }
+
+    /**
+     * Marks the data as changed: at once outside a transaction, after commit
+     * inside one (a rolled back change leaves the version alone).
+     */
+    public void changed() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    version.incrementAndGet();
+                }
+            });
+        } else {
+            version.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.compara.retorno.service;
+
+import com.compara.retorno.repository.TransacaoExportRepository;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.springframework.stereotype.Service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+@Service
+public class ExcelService {
+
+    public static final String CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    /** Rows kept in memory; older ones are flushed to a temporary file as new rows are added. */
+    static final int ROW_WINDOW = 100;
+
+    /** API x Geral analysis spreadsheet on {@code out}; feed it with {@link AnaliseSheet#add}. */
+    public AnaliseSheet openAnaliseSheet(OutputStream out) {
+        return new AnaliseSheet(out);
+    }
+
+    /** Transactions spreadsheet (payer search) on {@code out}; feed it with {@link TransactionsSheet#add}. */
+    public TransactionsSheet openTransactionsSheet(OutputStream out) {
+        return new TransactionsSheet(out);
+    }
+
+    /**
+     * A spreadsheet written while it is filled. Only the last {@link #ROW_WINDOW}
+     * rows stay in memory ({@link SXSSFWorkbook}); column widths are fixed up
+     * front, since {@code autoSizeColumn} would have to measure every cell.
+     * {@link #finish()} writes the workbook to the output; {@link #close()}
+     * removes the temporary files whether or not it got that far, so open it in
+     * a try-with-resources. A sheet full to the format limit continues in a new
+     * one.
+     */
+    public abstract static class StreamingSheet implements Closeable {
+        private final SXSSFWorkbook workbook;
+        private final OutputStream out;
+        private final String name;
+        private final String[] headers;
+        private final int[] widths;
+        private final CellStyle headerStyle;
+        private final CellStyle dateStyle;
+        private final CellStyle currencyStyle;
+        private Sheet sheet;
+        private int nextRow;
+        private long rows;
+
+        /** {@code widths} in characters, one per header. */
+        StreamingSheet(OutputStream out, String name, String[] headers, int[] widths) {
+            this.workbook = new SXSSFWorkbook(ROW_WINDOW);
+            this.workbook.setCompressTempFiles(true);
+            this.out = out;
+            this.name = name;
+            this.headers = headers;
+            this.widths = widths;
+
+            Font bold = workbook.createFont();
+            bold.setBold(true);
+            headerStyle = workbook.createCellStyle();
+            headerStyle.setFont(bold);
+            dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.createDataFormat().getFormat("dd/mm/yyyy"));
+            currencyStyle = workbook.createCellStyle();
+            currencyStyle.setDataFormat(workbook.createDataFormat().getFormat("#,##0.00"));
+            newSheet();
+        }
+
+        private void newSheet() {
+            int index = workbook.getNumberOfSheets();
+            sheet = workbook.createSheet(index == 0 ? name : name + " (" + (index + 1) + ")");
+            for (int i = 0; i < widths.length; i++) {
+                sheet.setColumnWidth(i, Math.min(widths[i], 255) * 256);
+            }
+            Row header = sheet.createRow(0);
+            for (int i = 0; i < headers.length; i++) {
+                Cell cell = header.createCell(i);
+                cell.setCellValue(headers[i]);
+                cell.setCellStyle(headerStyle);
+            }
+            sheet.createFreezePane(0, 1);
+            nextRow = 1;
+        }
+
+        /**
+         * Adds one row: {@link BigDecimal} goes as a number with two decimals,
+         * {@link LocalDate} as a date, null as an empty cell, anything else as text.
+         */
+        protected void row(Object... values) {
+            if (nextRow > SpreadsheetVersion.EXCEL2007.getLastRowIndex()) {
+                newSheet();
+            }
+            Row row = sheet.createRow(nextRow++);
+            for (int i = 0; i < values.length; i++) {
+                Object value = values[i];
+                if (value == null) {
+                    continue;
+                }
+                Cell cell = row.createCell(i);
+                if (value instanceof BigDecimal number) {
+                    cell.setCellValue(number.doubleValue());
+                    cell.setCellStyle(currencyStyle);
+                } else if (value instanceof LocalDate date) {
+                    cell.setCellValue(date);
+                    cell.setCellStyle(dateStyle);
+                } else if (value instanceof Number number) {
+                    cell.setCellValue(number.doubleValue());
+                } else {
+                    cell.setCellValue(value.toString());
+                }
+            }
+            rows++;
+        }
+
+        /** Writes the workbook to the output (left open). */
+        public void finish() throws IOException {
+            workbook.write(out);
+            out.flush();
+        }
+
+        /** Deletes the temporary files; the output is left open. */
+        @Override
+        public void close() throws IOException {
+            try {
+                workbook.dispose();
+            } finally {
+                workbook.close();
+            }
+        }
+
+        public long getRows() {
+            return rows;
+        }
+    }
+
+    /** API x Geral analysis, same columns as the PDF report. */
+    public static class AnaliseSheet extends StreamingSheet {
+
+        AnaliseSheet(OutputStream out) {
+            super(out, "Análise API x Geral",
+                    new String[] { "Status", "Nosso Número", "Pagador", "Data Pag.", "Data Créd.", "Valor API",
+                            "Valor Geral", "Diferença" },
+                    new int[] { 12, 22, 45, 12, 12, 14, 14, 14 });
+        }
+
+        public void add(TransactionService.ComparisonResult result) {
+            BigDecimal valApi = result.getApiTransaction() != null ? result.getApiTransaction().getValorPago() : null;
+            BigDecimal valGeral = result.getGeralTransaction() != null
+                    ? result.getGeralTransaction().getValorPago()
+                    : null;
+            BigDecimal diff = (valApi != null ? valApi : BigDecimal.ZERO)
+                    .subtract(valGeral != null ? valGeral : BigDecimal.ZERO);
+            row(result.isDivergent() ? "DIVERGENTE" : "CONCILIADO",
+                    result.getNossoNumero(),
+                    result.getNomePagador(),
+                    result.getMainDate(),
+                    result.getDataCredito(),
+                    valApi,
+                    valGeral,
+                    diff);
+        }
+    }
+
+    /** Transaction list (payer search), same columns as the PDF report. */
+    public static class TransactionsSheet extends StreamingSheet {
+
+        TransactionsSheet(OutputStream out) {
+            super(out, "Transações",
+                    new String[] { "Origem", "Nosso Número", "Pagador", "Valor", "Data Ocorr.", "Data Créd.",
+                            "Status" },
+                    new int[] { 8, 22, 45, 14, 12, 12, 14 });
+        }
+
+        public void add(TransacaoExportRepository.ExportRow t) {
+            row(t.getTipoOrigem() != null ? t.getTipoOrigem().name() : null,
+                    t.getNossoNumero(),
+                    t.getNomePagador(),
+                    t.getValorPago(),
+                    t.getDataOcorrencia(),
+                    t.getDataCredito(),
+                    t.getStatusConciliacao());
+        }
+    }
+}
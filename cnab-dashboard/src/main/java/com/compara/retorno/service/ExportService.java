@@ -0,0 +1,145 @@
+package com.compara.retorno.service;
+
+import com.compara.retorno.repository.TransacaoExportRepository;
+import com.lowagie.text.DocumentException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * File exports written straight to the response while the rows are read, one
+ * row in memory at a time (see {@link TransacaoExportRepository}).
+ */
+@Service
+public class ExportService {
+
+    /** Rows written between explicit flushes, so the download keeps moving. */
+    static final int FLUSH_EVERY = 1000;
+
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    @Autowired
+    private TransacaoExportRepository exportRepository;
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private PdfService pdfService;
+
+    @Autowired
+    private ExcelService excelService;
+
+    @Autowired
+    private ContribuinteService contribuinteService;
+
+    @Autowired
+    private ContribuinteReportService contribuinteReportService;
+
+    /**
+     * Date analysis CSV for the period. The header is flushed before the query
+     * runs, so the client gets bytes at once; returns the number of rows.
+     */
+    @Transactional(readOnly = true)
+    public long writeAnaliseDatasCsv(LocalDate startDate, LocalDate endDate, Writer out) throws IOException {
+        out.write("Origem;Nosso Numero;Pagador;Data Ocorrencia;Data Credito;Diferenca (Dias);Valor Pago\n");
+        out.flush();
+
+        long[] rows = { 0 };
+        StringBuilder line = new StringBuilder(128);
+        try {
+            exportRepository.forEachInPeriod(startDate, endDate, r -> {
+                long diff = 0;
+                if (r.getDataOcorrencia() != null && r.getDataCredito() != null) {
+                    diff = ChronoUnit.DAYS.between(r.getDataOcorrencia(), r.getDataCredito());
+                }
+                line.setLength(0);
+                line.append(r.getTipoOrigem()).append(';')
+                        .append(r.getNossoNumero()).append(';')
+                        .append(r.getNomePagador()).append(';')
+                        .append(r.getDataOcorrencia() != null ? r.getDataOcorrencia().format(DATE) : "").append(';')
+                        .append(r.getDataCredito() != null ? r.getDataCredito().format(DATE) : "").append(';')
+                        .append(diff).append(';')
+                        .append(r.getValorPago()).append('\n');
+                try {
+                    out.append(line);
+                    if (++rows[0] % FLUSH_EVERY == 0) {
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            // client went away: stop reading and let the caller see the original failure
+            throw e.getCause();
+        }
+        out.flush();
+        return rows[0];
+    }
+
+    /**
+     * API x Geral analysis PDF (same rows as the analysis page), laid out and
+     * written page by page while the stored comparison is read. Closes {@code out}.
+     */
+    @Transactional(readOnly = true)
+    public long writeAnalisePdf(LocalDate startDate, LocalDate endDate, boolean useCreditDate,
+            boolean onlyDivergences, OutputStream out) throws DocumentException {
+        PdfService.AnaliseReport report = pdfService.openAnaliseReport(out, startDate, endDate);
+        transactionService.forEachStoredComparison(startDate, endDate, useCreditDate, onlyDivergences, report::add);
+        report.finish();
+        return report.getRows();
+    }
+
+    /** Payer search PDF, written while the results are read. Closes {@code out}. */
+    @Transactional(readOnly = true)
+    public long writeTransactionsPdf(String nomePagador, BigDecimal valorPago, OutputStream out)
+            throws DocumentException {
+        PdfService.TransactionsReport report = pdfService.openTransactionsReport(out);
+        exportRepository.forEachByPagador(nomePagador, valorPago, report::add);
+        report.finish();
+        return report.getRows();
+    }
+
+    /** API x Geral analysis spreadsheet (same rows as the PDF). Leaves {@code out} open. */
+    @Transactional(readOnly = true)
+    public long writeAnaliseExcel(LocalDate startDate, LocalDate endDate, boolean useCreditDate,
+            boolean onlyDivergences, OutputStream out) throws IOException {
+        try (ExcelService.AnaliseSheet sheet = excelService.openAnaliseSheet(out)) {
+            transactionService.forEachStoredComparison(startDate, endDate, useCreditDate, onlyDivergences, sheet::add);
+            sheet.finish();
+            return sheet.getRows();
+        }
+    }
+
+    /** Payer search spreadsheet. Leaves {@code out} open. */
+    @Transactional(readOnly = true)
+    public long writeTransactionsExcel(String nomePagador, BigDecimal valorPago, OutputStream out)
+            throws IOException {
+        try (ExcelService.TransactionsSheet sheet = excelService.openTransactionsSheet(out)) {
+            exportRepository.forEachByPagador(nomePagador, valorPago, sheet::add);
+            sheet.finish();
+            return sheet.getRows();
+        }
+    }
+
+    /** Contribuinte search spreadsheet (same filters as the search). Leaves {@code out} open. */
+    @Transactional(readOnly = true)
+    public long writeContribuintesExcel(String q, String bairro, String atividade, String situacao,
+            OutputStream out) throws IOException {
+        try (ContribuinteReportService.ContribuintesSheet sheet = contribuinteReportService.openExcel(out)) {
+            contribuinteService.forEach(q, bairro, atividade, situacao, sheet::add);
+            sheet.finish();
+            return sheet.getRows();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.compara.retorno.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Pushes import progress to every open {@code /import/events} stream.
+ *
+ * Events are produced once by the import and fanned out to all subscribers, so the
+ * number of operators watching does not add any load on the database. Sending
+ * happens on a dedicated thread: a slow or dead client never stalls an import.
+ */
+@Component
+public class ImportEventBroadcaster {
+
+    /** Browsers reconnect on their own once the stream times out. */
+    private static final long EMITTER_TIMEOUT_MS = 30 * 60 * 1000L;
+
+    private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+
+    private final ExecutorService sender = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "cnab-import-events");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public SseEmitter subscribe() {
+        SseEmitter emitter = createEmitter();
+        emitter.onCompletion(() -> emitters.remove(emitter));
+        emitter.onTimeout(() -> emitters.remove(emitter));
+        emitter.onError(e -> emitters.remove(emitter));
+        emitters.add(emitter);
+        return emitter;
+    }
+
+    SseEmitter createEmitter() {
+        return new SseEmitter(EMITTER_TIMEOUT_MS);
+    }
+
+    public int getSubscriberCount() {
+        return emitters.size();
+    }
+
+    /** Queues an event for all current subscribers. */
+    public void publish(String name, Map<String, ?> data) {
+        if (emitters.isEmpty()) {
+            return;
+        }
+        sender.execute(() -> {
+            for (SseEmitter emitter : emitters) {
+                try {
+                    emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+                } catch (IOException | IllegalStateException e) {
+                    // client went away; completeWithError triggers the onError cleanup
+                    emitters.remove(emitter);
+                    emitter.completeWithError(e);
+                }
+            }
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        sender.shutdownNow();
+        for (SseEmitter emitter : emitters) {
+            emitter.complete();
+        }
+        emitters.clear();
+    }
+}
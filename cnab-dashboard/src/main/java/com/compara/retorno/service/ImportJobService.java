@@ -0,0 +1,399 @@
+package com.compara.retorno.service;
+
+import com.compara.retorno.model.ImportJob;
+import com.compara.retorno.repository.ImportJobRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Runs imports as background jobs so the upload request returns as soon as the
+ * files are on local disk. Jobs wait on a bounded queue and are executed by a
+ * fixed number of workers; their state is kept in the {@code import_job} table.
+ */
+@Service
+public class ImportJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(ImportJobService.class);
+
+    /** Minimum interval between progress writes to {@code import_job} while a file is being saved. */
+    private static final long PROGRESS_SAVE_INTERVAL_MS = 1000;
+
+    /** Minimum interval between live progress events of the same file. */
+    private static final long PROGRESS_EVENT_INTERVAL_MS = 250;
+
+    @Autowired
+    private ImportService importService;
+
+    @Autowired
+    private ImportJobRepository jobRepository;
+
+    @Autowired
+    private ImportEventBroadcaster events;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${cnab.import.jobs.workers:2}")
+    private int workers = 2;
+
+    @Value("${cnab.import.jobs.queue-capacity:20}")
+    private int queueCapacity = 20;
+
+    private ThreadPoolExecutor executor;
+
+    /**
+     * Progress is written in its own transaction: the callbacks come from inside
+     * the per-file import transactions, which must never hold the job row.
+     */
+    private TransactionTemplate progressTx;
+
+    @PostConstruct
+    void start() {
+        progressTx = new TransactionTemplate(transactionManager);
+        progressTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "cnab-import-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    /** Jobs left queued or running by a previous shutdown will never finish. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void failInterruptedJobs() {
+        List<ImportJob> interrupted = jobRepository.findByStatusIn(
+                List.of(ImportJob.NA_FILA, ImportJob.PROCESSANDO, ImportJob.CONCILIANDO));
+        for (ImportJob job : interrupted) {
+            job.setStatus(ImportJob.FALHOU);
+            job.setMensagem("Importação interrompida pela reinicialização do servidor.");
+            job.setTipoMensagem("danger");
+            job.setFinalizadoEm(LocalDateTime.now());
+        }
+        jobRepository.saveAll(interrupted);
+    }
+
+    /**
+     * Copies the uploads to a job directory and queues the import.
+     *
+     * @return the queued job, or null when no file was selected
+     * @throws IllegalStateException when the queue is full
+     */
+    public ImportJob submit(MultipartFile[] apiFiles, MultipartFile[] geralFiles) throws IOException {
+        Path dir = Files.createTempDirectory("cnab-job-");
+        List<ImportService.StagedFile> staged = new ArrayList<>();
+        try {
+            stage(dir, apiFiles, "API", staged);
+            stage(dir, geralFiles, "GERAL", staged);
+        } catch (IOException | RuntimeException e) {
+            deleteDirectory(dir);
+            throw e;
+        }
+        if (staged.isEmpty()) {
+            deleteDirectory(dir);
+            return null;
+        }
+
+        ImportJob job = new ImportJob();
+        job.setStatus(ImportJob.NA_FILA);
+        job.setImportBatch(ImportService.newImportBatch());
+        job.setTotalArquivos(staged.size());
+        job.setBytesTotal(staged.stream().mapToLong(ImportService.StagedFile::getSize).sum());
+        job = jobRepository.save(job);
+
+        ImportJob queued = job;
+        try {
+            executor.execute(() -> run(queued, staged, dir));
+        } catch (RejectedExecutionException e) {
+            deleteDirectory(dir);
+            job.setStatus(ImportJob.FALHOU);
+            job.setMensagem("Fila de importação cheia.");
+            job.setTipoMensagem("danger");
+            job.setFinalizadoEm(LocalDateTime.now());
+            jobRepository.save(job);
+            throw new IllegalStateException("Fila de importação cheia. Tente novamente em instantes.");
+        }
+        return job;
+    }
+
+    public List<ImportJob> getRecentJobs() {
+        return jobRepository.findTop10ByOrderByCriadoEmDesc();
+    }
+
+    private void stage(Path dir, MultipartFile[] files, String tipoOrigem, List<ImportService.StagedFile> staged)
+            throws IOException {
+        if (files == null) {
+            return;
+        }
+        for (MultipartFile file : files) {
+            if (file.isEmpty()) {
+                continue;
+            }
+            Path target = dir.resolve(staged.size() + ".ret");
+            file.transferTo(target);
+            staged.add(new ImportService.StagedFile(file.getOriginalFilename(), tipoOrigem, target, file.getSize()));
+        }
+    }
+
+    private void run(ImportJob job, List<ImportService.StagedFile> staged, Path dir) {
+        JobProgress progress = new JobProgress(job);
+        try {
+            progress.started();
+            ImportService.ImportSummary summary = importService.importStaged(staged, job.getImportBatch(), progress);
+            progress.finished(summary);
+        } catch (Exception e) {
+            log.error("Erro na importação #{}", job.getId(), e);
+            progress.failed(e);
+        } finally {
+            deleteDirectory(dir);
+        }
+    }
+
+    private void deleteDirectory(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Não foi possível remover {}", dir, e);
+        }
+    }
+
+    /** Event payload; null values are left out. */
+    private static Map<String, Object> event(Object... keyValues) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            if (keyValues[i + 1] != null) {
+                data.put((String) keyValues[i], keyValues[i + 1]);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Applies the import callbacks to the job row and publishes them as live
+     * events. Files are imported concurrently, so the job is updated while
+     * synchronized on this object; the row itself is written after leaving the
+     * monitor, from a copy, one write at a time.
+     */
+    private class JobProgress implements ImportService.Listener {
+        private final ImportJob job;
+        private final Map<String, FileProgress> files = new HashMap<>();
+        private final Object writeLock = new Object();
+        private ImportJob pending;
+        private long lastSave;
+
+        JobProgress(ImportJob job) {
+            this.job = job;
+        }
+
+        void started() {
+            synchronized (this) {
+                job.setStatus(ImportJob.PROCESSANDO);
+                job.setIniciadoEm(LocalDateTime.now());
+                snapshot();
+                publishJob();
+            }
+            save();
+        }
+
+        @Override
+        public synchronized void fileStarted(String fileName, String tipoOrigem, long bytes) {
+            files.put(fileName, new FileProgress(tipoOrigem));
+            events.publish("file", event("jobId", job.getId(), "fileName", fileName, "tipoOrigem", tipoOrigem,
+                    "status", "PROCESSANDO", "rows", 0, "bytes", bytes));
+        }
+
+        @Override
+        public void rowsWritten(String fileName, int rows) {
+            synchronized (this) {
+                job.setTransacoesGravadas(job.getTransacoesGravadas() + rows);
+                long now = System.currentTimeMillis();
+                if (now - lastSave >= PROGRESS_SAVE_INTERVAL_MS) {
+                    snapshot();
+                }
+                FileProgress file = files.computeIfAbsent(fileName, k -> new FileProgress(null));
+                file.rows += rows;
+                if (now - file.lastEvent >= PROGRESS_EVENT_INTERVAL_MS) {
+                    file.lastEvent = now;
+                    events.publish("file", event("jobId", job.getId(), "fileName", fileName,
+                            "tipoOrigem", file.tipoOrigem, "status", "PROCESSANDO", "rows", file.rows,
+                            "rowsPerSecond", file.rowsPerSecond(now)));
+                }
+            }
+            save();
+        }
+
+        @Override
+        public void fileFinished(ImportService.FileResult result, long bytes) {
+            synchronized (this) {
+                job.setBytesProcessados(job.getBytesProcessados() + bytes);
+                String status;
+                if (result.isImported()) {
+                    job.setArquivosProcessados(job.getArquivosProcessados() + 1);
+                    status = "IMPORTADO";
+                } else if (result.isSkipped()) {
+                    job.setArquivosIgnorados(job.getArquivosIgnorados() + 1);
+                    status = "IGNORADO";
+                } else {
+                    job.setArquivosComFalha(job.getArquivosComFalha() + 1);
+                    status = "FALHOU";
+                }
+                snapshot();
+
+                FileProgress file = files.remove(result.getFileName());
+                long now = System.currentTimeMillis();
+                events.publish("file", event("jobId", job.getId(), "fileName", result.getFileName(),
+                        "tipoOrigem", result.getTipoOrigem(), "status", status, "rows", result.getTransactionCount(),
+                        "bytes", bytes, "durationMs", result.isImported() ? result.getDurationMs() : null,
+                        "rowsPerSecond", file != null && result.isImported() ? file.rowsPerSecond(now) : null,
+                        "error", result.getError()));
+                publishJob();
+            }
+            save();
+        }
+
+        @Override
+        public void reconciliationStarted() {
+            synchronized (this) {
+                job.setStatus(ImportJob.CONCILIANDO);
+                snapshot();
+                publishJob();
+            }
+            save();
+        }
+
+        @Override
+        public synchronized void reconciliationFinished(TransactionService.ReconciliationReport report) {
+            job.setDuracaoConciliacaoMs(report.getElapsedMs());
+            events.publish("reconciliation", event("jobId", job.getId(), "updatedRows", report.getUpdatedRows(),
+                    "elapsedMs", report.getElapsedMs(), "phases", report.getPhaseMs()));
+        }
+
+        void finished(ImportService.ImportSummary summary) {
+            synchronized (this) {
+                job.setStatus(ImportJob.CONCLUIDO);
+                job.setMensagem(summary.getMessage());
+                job.setTipoMensagem(summary.getMessageType());
+                job.setFinalizadoEm(LocalDateTime.now());
+                snapshot();
+                publishJob();
+            }
+            save();
+        }
+
+        void failed(Exception e) {
+            synchronized (this) {
+                job.setStatus(ImportJob.FALHOU);
+                job.setMensagem("Erro ao processar arquivos: " + e.getMessage());
+                job.setTipoMensagem("danger");
+                job.setFinalizadoEm(LocalDateTime.now());
+                snapshot();
+                publishJob();
+            }
+            save();
+        }
+
+        /** Marks the current state for writing; called while synchronized. */
+        private void snapshot() {
+            pending = copy(job);
+            lastSave = System.currentTimeMillis();
+        }
+
+        /**
+         * Writes the latest snapshot, if any. Never called while holding this
+         * monitor, so a file waiting on the row does not block the other files'
+         * callbacks; the write lock keeps an older snapshot from landing last.
+         */
+        private void save() {
+            synchronized (writeLock) {
+                ImportJob snapshot;
+                synchronized (this) {
+                    snapshot = pending;
+                    pending = null;
+                }
+                if (snapshot != null) {
+                    progressTx.executeWithoutResult(status -> jobRepository.save(snapshot));
+                }
+            }
+        }
+
+        /** Carries the whole job row, so subscribers update their table without querying it back. */
+        private void publishJob() {
+            events.publish("job", event("jobId", job.getId(), "status", job.getStatus(), "ativo", job.isAtivo(),
+                    "percentual", job.getPercentual(), "transacoes", job.getTransacoesGravadas(),
+                    "arquivos", job.getArquivosProcessados() + job.getArquivosIgnorados() + job.getArquivosComFalha(),
+                    "totalArquivos", job.getTotalArquivos(), "duracaoMs", job.getDuracaoMs(),
+                    "mensagem", job.getMensagem(), "tipoMensagem", job.getTipoMensagem()));
+        }
+    }
+
+    private static ImportJob copy(ImportJob job) {
+        ImportJob copy = new ImportJob();
+        copy.setId(job.getId());
+        copy.setStatus(job.getStatus());
+        copy.setImportBatch(job.getImportBatch());
+        copy.setTotalArquivos(job.getTotalArquivos());
+        copy.setArquivosProcessados(job.getArquivosProcessados());
+        copy.setArquivosIgnorados(job.getArquivosIgnorados());
+        copy.setArquivosComFalha(job.getArquivosComFalha());
+        copy.setTransacoesGravadas(job.getTransacoesGravadas());
+        copy.setBytesTotal(job.getBytesTotal());
+        copy.setBytesProcessados(job.getBytesProcessados());
+        copy.setMensagem(job.getMensagem());
+        copy.setTipoMensagem(job.getTipoMensagem());
+        copy.setCriadoEm(job.getCriadoEm());
+        copy.setIniciadoEm(job.getIniciadoEm());
+        copy.setFinalizadoEm(job.getFinalizadoEm());
+        copy.setDuracaoConciliacaoMs(job.getDuracaoConciliacaoMs());
+        return copy;
+    }
+
+    private static class FileProgress {
+        final String tipoOrigem;
+        final long start = System.currentTimeMillis();
+        long rows;
+        long lastEvent;
+
+        FileProgress(String tipoOrigem) {
+            this.tipoOrigem = tipoOrigem;
+        }
+
+        long rowsPerSecond(long now) {
+            long elapsed = Math.max(1, now - start);
+            return rows * 1000 / elapsed;
+        }
+    }
+}
@@ -0,0 +1,562 @@
+package com.compara.retorno.service;
+
+import com.compara.retorno.model.Transacao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Streaming import of retorno files: the parser emits transactions one by one and
+ * they are written to the database in fixed-size chunks, so heap usage does not
+ * grow with the file size.
+ *
+ * Multi-file uploads are ingested in parallel on virtual threads. Parsing runs
+ * concurrently per file; database writes are limited to
+ * {@code cnab.import.db-concurrency} files at a time so the connection pool is
+ * never exhausted.
+ */
+@Service
+public class ImportService {
+
+    private static final Logger log = LoggerFactory.getLogger(ImportService.class);
+
+    @Autowired
+    private CnabParserService parserService;
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${cnab.import.chunk-size:1000}")
+    private int chunkSize = 1000;
+
+    @Value("${cnab.import.db-concurrency:4}")
+    private int dbConcurrency = 4;
+
+    /** Files up to this size are parsed in memory before taking a write permit. */
+    @Value("${cnab.import.in-memory-threshold:67108864}")
+    private long inMemoryThreshold = 64L * 1024 * 1024;
+
+    /**
+     * Total size (file bytes) of the files held parsed in memory at once, across
+     * all uploads. A file that does not fit streams under its write permit instead.
+     */
+    @Value("${cnab.import.in-memory-budget:134217728}")
+    private long inMemoryBudget = 128L * 1024 * 1024;
+
+    private volatile Semaphore writePermits;
+
+    // In KB, so budgets above 2 GB still fit the int permits
+    private volatile Semaphore memoryPermits;
+
+    /**
+     * Reconciles the batches whose files a previous run committed but whose
+     * reconciliation never did (the server stopped or the reconciliation failed),
+     * so the daily rollup and the comparacao table do not go on missing their rows.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcilePendingBatches() {
+        for (String importBatch : transactionService.findBatchesPendingReconciliation()) {
+            try {
+                TransactionService.ReconciliationReport report = transactionService.performReconciliation(importBatch);
+                log.info("Conciliação pendente do lote {} concluída: {}", importBatch, report);
+            } catch (RuntimeException e) {
+                log.error("Conciliação pendente do lote {} falhou", importBatch, e);
+            }
+        }
+    }
+
+    /**
+     * Imports all files of an upload in parallel and runs the reconciliation once at
+     * the end. Files already imported (or repeated in the same upload) are skipped;
+     * a failing file does not stop the others.
+     *
+     * All rows of the upload share one import batch id, and the reconciliation is
+     * limited to the keys of that batch.
+     */
+    public ImportSummary importUploads(MultipartFile[] apiFiles, MultipartFile[] geralFiles) {
+        List<UploadFile> files = new ArrayList<>();
+        addUploads(files, apiFiles, "API");
+        addUploads(files, geralFiles, "GERAL");
+        return importAll(files, newImportBatch(), Listener.NONE);
+    }
+
+    /**
+     * Same as {@link #importUploads}, for files already spooled to disk (background
+     * import jobs). Progress is reported to the given listener.
+     */
+    public ImportSummary importStaged(List<StagedFile> stagedFiles, String importBatch, Listener listener) {
+        List<UploadFile> files = new ArrayList<>();
+        for (StagedFile staged : stagedFiles) {
+            files.add(new UploadFile(staged.getFileName(), staged.getTipoOrigem(), staged.getSize(),
+                    sink -> parserService.parse(staged.getPath(), staged.getFileName(), staged.getTipoOrigem(), sink)));
+        }
+        return importAll(files, importBatch, listener);
+    }
+
+    private void addUploads(List<UploadFile> files, MultipartFile[] uploads, String tipoOrigem) {
+        if (uploads == null) {
+            return;
+        }
+        for (MultipartFile file : uploads) {
+            if (file.isEmpty()) {
+                continue;
+            }
+            files.add(new UploadFile(file.getOriginalFilename(), tipoOrigem, file.getSize(),
+                    sink -> file.getSize() <= inMemoryThreshold
+                            ? parserService.parse(file, tipoOrigem, sink)
+                            : spoolAndParse(file, tipoOrigem, sink)));
+        }
+    }
+
+    private ImportSummary importAll(List<UploadFile> files, String importBatch, Listener listener) {
+        ImportSummary summary = new ImportSummary(importBatch);
+        List<Future<FileResult>> futures = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (UploadFile file : files) {
+                if (!seen.add(file.fileName)) {
+                    FileResult skipped = FileResult.skipped(file.fileName, file.tipoOrigem);
+                    summary.add(skipped);
+                    listener.fileFinished(skipped, file.size);
+                    continue;
+                }
+                futures.add(executor.submit(() -> ingest(file, importBatch, listener)));
+            }
+
+            for (Future<FileResult> future : futures) {
+                summary.add(await(future));
+            }
+        }
+
+        if (summary.getProcessedCount() > 0) {
+            listener.reconciliationStarted();
+            summary.setReconciliation(transactionService.performReconciliation(importBatch));
+            listener.reconciliationFinished(summary.getReconciliation());
+        }
+        return summary;
+    }
+
+    private FileResult await(Future<FileResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Importação interrompida", e);
+        } catch (ExecutionException e) {
+            // ingest() reports its own failures; this only happens on unexpected errors
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private FileResult ingest(UploadFile file, String importBatch, Listener listener) {
+        FileResult result;
+        try {
+            if (transactionService.isFileAlreadyImported(file.fileName)) {
+                result = FileResult.skipped(file.fileName, file.tipoOrigem);
+            } else {
+                listener.fileStarted(file.fileName, file.tipoOrigem, file.size);
+                long start = System.currentTimeMillis();
+                int count;
+                int memoryKb = (int) Math.max(1, (file.size + 1023) / 1024);
+                if (file.size <= inMemoryThreshold && memoryPermits().tryAcquire(memoryKb)) {
+                    // Parse without holding a connection, then queue for a write permit
+                    try {
+                        List<Transacao> parsed = new ArrayList<>();
+                        file.source.emit(parsed::add);
+                        count = withWritePermit(() -> write(sink -> {
+                            parsed.forEach(sink);
+                            return parsed.size();
+                        }, importBatch, file.fileName, listener));
+                    } finally {
+                        memoryPermits().release(memoryKb);
+                    }
+                } else {
+                    count = withWritePermit(() -> write(file.source, importBatch, file.fileName, listener));
+                }
+                result = FileResult.imported(file.fileName, file.tipoOrigem, count,
+                        System.currentTimeMillis() - start);
+            }
+        } catch (Exception e) {
+            result = FileResult.failed(file.fileName, file.tipoOrigem, e.getMessage());
+        }
+        listener.fileFinished(result, file.size);
+        return result;
+    }
+
+    private int withWritePermit(IoTask task) throws IOException, InterruptedException {
+        Semaphore permits = writePermits();
+        permits.acquire();
+        try {
+            return task.run();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Semaphore writePermits() {
+        Semaphore permits = writePermits;
+        if (permits == null) {
+            synchronized (this) {
+                if (writePermits == null) {
+                    writePermits = new Semaphore(Math.max(1, dbConcurrency), true);
+                }
+                permits = writePermits;
+            }
+        }
+        return permits;
+    }
+
+    private Semaphore memoryPermits() {
+        Semaphore permits = memoryPermits;
+        if (permits == null) {
+            synchronized (this) {
+                if (memoryPermits == null) {
+                    memoryPermits = new Semaphore((int) Math.min(Integer.MAX_VALUE, Math.max(0, inMemoryBudget / 1024)));
+                }
+                permits = memoryPermits;
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * Spools an upload to a temporary file on disk and imports it from there.
+     *
+     * @return number of transactions imported
+     */
+    public int importUpload(MultipartFile file, String tipoOrigem) throws IOException {
+        String importBatch = newImportBatch();
+        return write(sink -> spoolAndParse(file, tipoOrigem, sink), importBatch, file.getOriginalFilename(),
+                Listener.NONE);
+    }
+
+    private int spoolAndParse(MultipartFile file, String tipoOrigem, Consumer<Transacao> sink) throws IOException {
+        Path spooled = Files.createTempFile("cnab-upload-", ".ret");
+        try {
+            file.transferTo(spooled.toFile());
+            return parserService.parse(spooled, file.getOriginalFilename(), tipoOrigem, sink);
+        } finally {
+            Files.deleteIfExists(spooled);
+        }
+    }
+
+    /**
+     * Imports one file in a single database transaction, flushing every
+     * {@code cnab.import.chunk-size} transactions while parsing continues.
+     *
+     * @param fileSource name recorded as the transactions' file source
+     * @return number of transactions imported
+     */
+    public int importFile(Path path, String fileSource, String tipoOrigem) throws IOException {
+        return importFile(path, fileSource, tipoOrigem, newImportBatch());
+    }
+
+    /**
+     * Same as {@link #importFile(Path, String, String)}, tagging every row with the
+     * given import batch id.
+     */
+    public int importFile(Path path, String fileSource, String tipoOrigem, String importBatch)
+            throws IOException {
+        return write(sink -> parserService.parse(path, fileSource, tipoOrigem, sink), importBatch, fileSource,
+                Listener.NONE);
+    }
+
+    public static String newImportBatch() {
+        return java.util.UUID.randomUUID().toString();
+    }
+
+    private int write(TransactionSource source, String importBatch, String fileName, Listener listener)
+            throws IOException {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        try {
+            Integer count = tx.execute(status -> {
+                transactionService.markReconciliationPending(importBatch);
+                List<Transacao> chunk = new ArrayList<>(chunkSize);
+                int emitted;
+                try {
+                    emitted = source.emit(t -> {
+                        t.setImportBatch(importBatch);
+                        chunk.add(t);
+                        if (chunk.size() >= chunkSize) {
+                            transactionService.saveChunk(chunk);
+                            listener.rowsWritten(fileName, chunk.size());
+                            chunk.clear();
+                        }
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (!chunk.isEmpty()) {
+                    transactionService.saveChunk(chunk);
+                    listener.rowsWritten(fileName, chunk.size());
+                }
+                return emitted;
+            });
+            return count != null ? count : 0;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    @FunctionalInterface
+    private interface TransactionSource {
+        int emit(Consumer<Transacao> sink) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface IoTask {
+        int run() throws IOException;
+    }
+
+    /** One file of an upload, with the way to parse it. */
+    private static class UploadFile {
+        final String fileName;
+        final String tipoOrigem;
+        final long size;
+        final TransactionSource source;
+
+        UploadFile(String fileName, String tipoOrigem, long size, TransactionSource source) {
+            this.fileName = fileName;
+            this.tipoOrigem = tipoOrigem;
+            this.size = size;
+            this.source = source;
+        }
+    }
+
+    /**
+     * Progress callbacks of an import. Called from the import threads (several files
+     * run concurrently), so implementations must be thread-safe.
+     */
+    public interface Listener {
+        Listener NONE = new Listener() {
+        };
+
+        default void fileStarted(String fileName, String tipoOrigem, long bytes) {
+        }
+
+        /**
+         * A chunk of {@code rows} transactions of the file was written to the database.
+         * Runs inside the file's import transaction, which is still open: anything the
+         * listener writes must go through a transaction of its own.
+         */
+        default void rowsWritten(String fileName, int rows) {
+        }
+
+        default void fileFinished(FileResult result, long bytes) {
+        }
+
+        default void reconciliationStarted() {
+        }
+
+        default void reconciliationFinished(TransactionService.ReconciliationReport report) {
+        }
+    }
+
+    /** An uploaded file already copied to local disk. */
+    public static class StagedFile {
+        private final String fileName;
+        private final String tipoOrigem;
+        private final Path path;
+        private final long size;
+
+        public StagedFile(String fileName, String tipoOrigem, Path path, long size) {
+            this.fileName = fileName;
+            this.tipoOrigem = tipoOrigem;
+            this.path = path;
+            this.size = size;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public String getTipoOrigem() {
+            return tipoOrigem;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    public static class FileResult {
+        private String fileName;
+        private String tipoOrigem;
+        private boolean skipped;
+        private String error;
+        private int transactionCount;
+        private long durationMs;
+
+        static FileResult imported(String fileName, String tipoOrigem, int count, long durationMs) {
+            FileResult r = new FileResult();
+            r.fileName = fileName;
+            r.tipoOrigem = tipoOrigem;
+            r.transactionCount = count;
+            r.durationMs = durationMs;
+            return r;
+        }
+
+        static FileResult skipped(String fileName, String tipoOrigem) {
+            FileResult r = new FileResult();
+            r.fileName = fileName;
+            r.tipoOrigem = tipoOrigem;
+            r.skipped = true;
+            return r;
+        }
+
+        static FileResult failed(String fileName, String tipoOrigem, String error) {
+            FileResult r = new FileResult();
+            r.fileName = fileName;
+            r.tipoOrigem = tipoOrigem;
+            r.error = error;
+            return r;
+        }
+
+        public boolean isImported() {
+            return !skipped && error == null;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public String getTipoOrigem() {
+            return tipoOrigem;
+        }
+
+        public boolean isSkipped() {
+            return skipped;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public int getTransactionCount() {
+            return transactionCount;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+    }
+
+    /** Per-file results of one upload, summarized into the flash message shown on /import. */
+    public static class ImportSummary {
+        private final String importBatch;
+        private final List<FileResult> results = new ArrayList<>();
+        private TransactionService.ReconciliationReport reconciliation;
+
+        public ImportSummary(String importBatch) {
+            this.importBatch = importBatch;
+        }
+
+        public String getImportBatch() {
+            return importBatch;
+        }
+
+        void add(FileResult result) {
+            results.add(result);
+        }
+
+        public TransactionService.ReconciliationReport getReconciliation() {
+            return reconciliation;
+        }
+
+        void setReconciliation(TransactionService.ReconciliationReport reconciliation) {
+            this.reconciliation = reconciliation;
+        }
+
+        public List<FileResult> getResults() {
+            return results;
+        }
+
+        public int getProcessedCount() {
+            return (int) results.stream().filter(FileResult::isImported).count();
+        }
+
+        public List<String> getSkippedFiles() {
+            return results.stream().filter(FileResult::isSkipped).map(FileResult::getFileName).toList();
+        }
+
+        public List<String> getFailedFiles() {
+            return results.stream().filter(r -> r.getError() != null)
+                    .map(r -> r.getFileName() + " (" + r.getError() + ")").toList();
+        }
+
+        public String getMessage() {
+            int processed = getProcessedCount();
+            List<String> skipped = getSkippedFiles();
+            List<String> failed = getFailedFiles();
+
+            StringBuilder msg = new StringBuilder();
+            if (!failed.isEmpty()) {
+                msg.append(processed > 0 ? "Importação parcial concluída. " : "Erro ao processar arquivos. ");
+                msg.append("Falhas: ").append(String.join(", ", failed)).append(". ");
+            } else if (!skipped.isEmpty()) {
+                msg.append(processed > 0 ? "Importação parcial concluída. " : "Importação cancelada. ");
+            } else if (processed > 0) {
+                return "Arquivos processados com sucesso!" + reconciliationNote();
+            } else {
+                return "Nenhum arquivo selecionado.";
+            }
+            if (!skipped.isEmpty()) {
+                msg.append("Arquivos já existentes ignorados: ").append(String.join(", ", skipped));
+            }
+            return (msg.toString().trim() + reconciliationNote()).trim();
+        }
+
+        private String reconciliationNote() {
+            if (reconciliation == null) {
+                return "";
+            }
+            return String.format(" Conciliação: %d registros atualizados em %d ms.",
+                    reconciliation.getUpdatedRows(), reconciliation.getElapsedMs());
+        }
+
+        public String getMessageType() {
+            int processed = getProcessedCount();
+            if (!getFailedFiles().isEmpty()) {
+                return processed > 0 ? "warning" : "danger";
+            }
+            if (!getSkippedFiles().isEmpty()) {
+                return "warning";
+            }
+            return processed > 0 ? "success" : "info";
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.compara.retorno.service;
 
+import com.compara.retorno.repository.TransacaoExportRepository;
 import com.lowagie.text.*;
 import com.lowagie.text.pdf.PdfPCell;
 import com.lowagie.text.pdf.PdfPTable;
@@ -7,75 +8,147 @@ import com.lowagie.text.pdf.PdfWriter;
 import org.springframework.stereotype.Service;
 
 import java.awt.Color;
-import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.text.NumberFormat;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
-import java.util.List;
 import java.util.Locale;
 
 @Service
 public class PdfService {
 
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd/MM/yyyy");
-    private static final NumberFormat CURRENCY_FORMATTER = NumberFormat.getCurrencyInstance(new Locale("pt", "BR"));
-
-    public byte[] generateAnaliseReport(List<TransactionService.ComparisonResult> results,
-            LocalDate startDate,
-            LocalDate endDate) throws DocumentException {
-
-        java.io.ByteArrayOutputStream outputStream = new java.io.ByteArrayOutputStream();
-        Document document = new Document(PageSize.A4.rotate());
-        document.setMargins(10, 10, 10, 10);
-        PdfWriter.getInstance(document, outputStream);
-
-        document.open();
-
-        // Title
-        Font titleFont = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 18);
-        Paragraph title = new Paragraph("Relatório de Análise API x Geral", titleFont);
-        title.setAlignment(Element.ALIGN_CENTER);
-        document.add(title);
-
-        // Period
-        Font subTitleFont = FontFactory.getFont(FontFactory.HELVETICA, 12);
-        String periodText = String.format("Período: %s a %s",
-                startDate.format(DATE_FORMATTER),
-                endDate.format(DATE_FORMATTER));
-        Paragraph period = new Paragraph(periodText, subTitleFont);
-        period.setAlignment(Element.ALIGN_CENTER);
-        period.setSpacingAfter(20);
-        document.add(period);
-
-        // Table
-        PdfPTable table = new PdfPTable(8); // Columns: Status, Nosso Numero, Pagador, Data Pag., Data Cred., Valor API,
-                                            // Valor Geral, Diferença
-        table.setWidthPercentage(100);
-        // Adjusted widths to prevent wrapping: Status=1.8, NossoNum=2.7, Pagador=5.5,
-        // Dates/Values=1.7
-        table.setWidths(new float[] { 1.8f, 2.7f, 5.5f, 1.7f, 1.7f, 1.7f, 1.7f, 1.7f });
-
-        // Header
-        addTableHeader(table, "Status", Element.ALIGN_LEFT);
-        addTableHeader(table, "Nosso Número", Element.ALIGN_LEFT);
-        addTableHeader(table, "Pagador", Element.ALIGN_LEFT);
-        addTableHeader(table, "Data Pag.", Element.ALIGN_CENTER);
-        addTableHeader(table, "Data Créd.", Element.ALIGN_CENTER);
-        addTableHeader(table, "Valor API", Element.ALIGN_RIGHT);
-        addTableHeader(table, "Valor Geral", Element.ALIGN_RIGHT);
-        addTableHeader(table, "Diferença", Element.ALIGN_RIGHT);
-
-        // Data
-        Font cellFont = FontFactory.getFont(FontFactory.HELVETICA, 9);
-
-        BigDecimal totalApi = BigDecimal.ZERO;
-        BigDecimal totalGeral = BigDecimal.ZERO;
-        BigDecimal totalDiff = BigDecimal.ZERO;
-
-        for (TransactionService.ComparisonResult result : results) {
-            // Helper to add aligned cells
+    private static final Locale PT_BR = new Locale("pt", "BR");
+
+    /** Table rows kept in memory before they are laid out and written to the output (about two pages). */
+    static final int ROWS_PER_CHUNK = 100;
+
+    /**
+     * Starts the API x Geral analysis report on {@code out}. Feed it rows with
+     * {@link AnaliseReport#add} as they are read and call {@link AnaliseReport#finish}:
+     * only the rows of the current chunk are held, the rest is already on the stream.
+     */
+    public AnaliseReport openAnaliseReport(OutputStream out, LocalDate startDate, LocalDate endDate)
+            throws DocumentException {
+        return new AnaliseReport(out, startDate, endDate);
+    }
+
+    /** Starts the transactions report on {@code out}; same use as {@link #openAnaliseReport}. */
+    public TransactionsReport openTransactionsReport(OutputStream out) throws DocumentException {
+        return new TransactionsReport(out);
+    }
+
+    /**
+     * A report table written while it is filled: the table is incomplete
+     * ({@link PdfPTable#setComplete(boolean)}), so every {@link #ROWS_PER_CHUNK}
+     * rows it is added to the document, which lays those rows out onto pages,
+     * writes them and drops them from the table. The header row repeats on each page.
+     */
+    public abstract static class StreamingReport {
+        protected final Document document;
+        protected final PdfPTable table;
+        protected final Font cellFont = FontFactory.getFont(FontFactory.HELVETICA, 9);
+        protected final Font boldFont = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 9);
+        // NumberFormat is not thread-safe: each report has its own, and a report is filled by one thread
+        protected final NumberFormat currency = NumberFormat.getCurrencyInstance(PT_BR);
+        private int pending;
+        private long rows;
+
+        StreamingReport(OutputStream out, String title, float[] widths) throws DocumentException {
+            document = new Document(PageSize.A4.rotate());
+            document.setMargins(10, 10, 10, 10);
+            PdfWriter.getInstance(document, out);
+
+            document.open();
+
+            Font titleFont = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 18);
+            Paragraph titleParagraph = new Paragraph(title, titleFont);
+            titleParagraph.setAlignment(Element.ALIGN_CENTER);
+            document.add(titleParagraph);
+
+            table = new PdfPTable(widths.length);
+            table.setWidthPercentage(100);
+            table.setWidths(widths);
+            table.setComplete(false);
+        }
+
+        /** Called after the cells of one row were added: writes the chunk once it is full. */
+        protected void rowAdded() {
+            rows++;
+            if (++pending >= ROWS_PER_CHUNK) {
+                pending = 0;
+                try {
+                    document.add(table);
+                } catch (DocumentException e) {
+                    throw new ExceptionConverter(e);
+                }
+            }
+        }
+
+        /** Adds the totals row, writes what is left and closes the document (and the stream). */
+        public void finish() throws DocumentException {
+            addTotals();
+            table.setComplete(true);
+            document.add(table);
+
+            document.add(new Paragraph("\n"));
+            Paragraph summary = new Paragraph(String.format("Total de registros: %d", rows),
+                    FontFactory.getFont(FontFactory.HELVETICA, 12));
+            document.add(summary);
+
+            document.close();
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        protected abstract void addTotals();
+
+        protected PdfPCell totalCell(String text, int colspan, int alignment) {
+            PdfPCell cell = new PdfPCell(new Phrase(text, boldFont));
+            cell.setColspan(colspan);
+            cell.setHorizontalAlignment(alignment);
+            cell.setBackgroundColor(Color.LIGHT_GRAY);
+            return cell;
+        }
+    }
+
+    /** API x Geral analysis, with totals of both sides and of the differences kept as rows go by. */
+    public static class AnaliseReport extends StreamingReport {
+        private BigDecimal totalApi = BigDecimal.ZERO;
+        private BigDecimal totalGeral = BigDecimal.ZERO;
+        private BigDecimal totalDiff = BigDecimal.ZERO;
+
+        AnaliseReport(OutputStream out, LocalDate startDate, LocalDate endDate) throws DocumentException {
+            // Columns: Status, Nosso Numero, Pagador, Data Pag., Data Cred., Valor API, Valor Geral, Diferença.
+            // Widths prevent wrapping: Status=1.8, NossoNum=2.7, Pagador=5.5, Dates/Values=1.7
+            super(out, "Relatório de Análise API x Geral",
+                    new float[] { 1.8f, 2.7f, 5.5f, 1.7f, 1.7f, 1.7f, 1.7f, 1.7f });
+
+            // Period
+            Font subTitleFont = FontFactory.getFont(FontFactory.HELVETICA, 12);
+            String periodText = String.format("Período: %s a %s",
+                    startDate.format(DATE_FORMATTER),
+                    endDate.format(DATE_FORMATTER));
+            Paragraph period = new Paragraph(periodText, subTitleFont);
+            period.setAlignment(Element.ALIGN_CENTER);
+            period.setSpacingAfter(20);
+            document.add(period);
+
+            addTableHeader(table, "Status", Element.ALIGN_LEFT);
+            addTableHeader(table, "Nosso Número", Element.ALIGN_LEFT);
+            addTableHeader(table, "Pagador", Element.ALIGN_LEFT);
+            addTableHeader(table, "Data Pag.", Element.ALIGN_CENTER);
+            addTableHeader(table, "Data Créd.", Element.ALIGN_CENTER);
+            addTableHeader(table, "Valor API", Element.ALIGN_RIGHT);
+            addTableHeader(table, "Valor Geral", Element.ALIGN_RIGHT);
+            addTableHeader(table, "Diferença", Element.ALIGN_RIGHT);
+            table.setHeaderRows(1);
+        }
+
+        public void add(TransactionService.ComparisonResult result) {
             // Status
             String status = result.isDivergent() ? "DIVERGENTE" : "CONCILIADO";
             PdfPCell statusCell = createCell(status, cellFont, Element.ALIGN_LEFT);
@@ -115,93 +188,49 @@ public class PdfService {
             totalDiff = totalDiff.add(diff);
 
             // Add cells
-            table.addCell(createCell(result.getApiTransaction() != null ? CURRENCY_FORMATTER.format(valApi) : "-",
+            table.addCell(createCell(result.getApiTransaction() != null ? currency.format(valApi) : "-",
                     cellFont, Element.ALIGN_RIGHT));
-            table.addCell(createCell(result.getGeralTransaction() != null ? CURRENCY_FORMATTER.format(valGeral) : "-",
+            table.addCell(createCell(result.getGeralTransaction() != null ? currency.format(valGeral) : "-",
                     cellFont, Element.ALIGN_RIGHT));
 
-            PdfPCell diffCell = createCell(CURRENCY_FORMATTER.format(diff), cellFont, Element.ALIGN_RIGHT);
+            PdfPCell diffCell = createCell(currency.format(diff), cellFont, Element.ALIGN_RIGHT);
             if (diff.compareTo(BigDecimal.ZERO) != 0) {
                 diffCell.setBackgroundColor(new Color(255, 255, 200)); // Light Yellow
             }
             table.addCell(diffCell);
+            rowAdded();
         }
 
-        // Totals Row
-        Font boldFont = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 9);
-
-        PdfPCell totalLabel = new PdfPCell(new Phrase("TOTAIS", boldFont));
-        totalLabel.setColspan(5);
-        totalLabel.setHorizontalAlignment(Element.ALIGN_RIGHT);
-        totalLabel.setBackgroundColor(Color.LIGHT_GRAY);
-        table.addCell(totalLabel);
-
-        PdfPCell totalApiCell = new PdfPCell(new Phrase(CURRENCY_FORMATTER.format(totalApi), boldFont));
-        totalApiCell.setHorizontalAlignment(Element.ALIGN_RIGHT);
-        totalApiCell.setBackgroundColor(Color.LIGHT_GRAY);
-        table.addCell(totalApiCell);
-
-        PdfPCell totalGeralCell = new PdfPCell(new Phrase(CURRENCY_FORMATTER.format(totalGeral), boldFont));
-        totalGeralCell.setHorizontalAlignment(Element.ALIGN_RIGHT);
-        totalGeralCell.setBackgroundColor(Color.LIGHT_GRAY);
-        table.addCell(totalGeralCell);
-
-        PdfPCell totalDiffCell = new PdfPCell(new Phrase(CURRENCY_FORMATTER.format(totalDiff), boldFont));
-        totalDiffCell.setHorizontalAlignment(Element.ALIGN_RIGHT);
-        totalDiffCell.setBackgroundColor(Color.LIGHT_GRAY);
-        table.addCell(totalDiffCell);
-
-        document.add(table);
-
-        // Summary
-        document.add(new Paragraph("\n"));
-        Paragraph summary = new Paragraph(String.format("Total de registros: %d", results.size()), subTitleFont);
-        document.add(summary);
-
-        document.close();
-
-        return outputStream.toByteArray();
+        @Override
+        protected void addTotals() {
+            table.addCell(totalCell("TOTAIS", 5, Element.ALIGN_RIGHT));
+            table.addCell(totalCell(currency.format(totalApi), 1, Element.ALIGN_RIGHT));
+            table.addCell(totalCell(currency.format(totalGeral), 1, Element.ALIGN_RIGHT));
+            table.addCell(totalCell(currency.format(totalDiff), 1, Element.ALIGN_RIGHT));
+        }
     }
 
-    public byte[] generateTransactionsReport(List<com.compara.retorno.model.Transacao> transactions)
-            throws DocumentException {
-        java.io.ByteArrayOutputStream outputStream = new java.io.ByteArrayOutputStream();
-        Document document = new Document(PageSize.A4.rotate());
-        document.setMargins(10, 10, 10, 10);
-        PdfWriter.getInstance(document, outputStream);
-
-        document.open();
-
-        // Title
-        Font titleFont = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 18);
-        Paragraph title = new Paragraph("Relatório de Transações", titleFont);
-        title.setAlignment(Element.ALIGN_CENTER);
-        document.add(title);
+    /** Transaction list (payer search), with the running total of the paid values. */
+    public static class TransactionsReport extends StreamingReport {
+        private BigDecimal totalValor = BigDecimal.ZERO;
 
-        document.add(new Paragraph("\n"));
+        TransactionsReport(OutputStream out) throws DocumentException {
+            // Columns: Origem, Nosso Numero, Pagador, Valor, Data Ocorr., Data Cred., Status
+            super(out, "Relatório de Transações", new float[] { 1.5f, 2.5f, 5.0f, 2.0f, 2.0f, 2.0f, 2.0f });
 
-        // Table
-        PdfPTable table = new PdfPTable(7); // Columns: Origem, Nosso Numero, Pagador, Valor, Data Ocorr., Data Cred.,
-                                            // Status
-        table.setWidthPercentage(100);
-        table.setWidths(new float[] { 1.5f, 2.5f, 5.0f, 2.0f, 2.0f, 2.0f, 2.0f });
+            document.add(new Paragraph("\n"));
 
-        // Header
-        addTableHeader(table, "Origem", Element.ALIGN_LEFT);
-        addTableHeader(table, "Nosso Número", Element.ALIGN_LEFT);
-        addTableHeader(table, "Pagador", Element.ALIGN_LEFT);
-        addTableHeader(table, "Valor", Element.ALIGN_RIGHT);
-        addTableHeader(table, "Data Ocorr.", Element.ALIGN_CENTER);
-        addTableHeader(table, "Data Créd.", Element.ALIGN_CENTER);
-        addTableHeader(table, "Status", Element.ALIGN_LEFT);
-
-        // Data
-        Font cellFont = FontFactory.getFont(FontFactory.HELVETICA, 9);
-
-        BigDecimal totalValor = BigDecimal.ZERO;
-
-        for (com.compara.retorno.model.Transacao t : transactions) {
+            addTableHeader(table, "Origem", Element.ALIGN_LEFT);
+            addTableHeader(table, "Nosso Número", Element.ALIGN_LEFT);
+            addTableHeader(table, "Pagador", Element.ALIGN_LEFT);
+            addTableHeader(table, "Valor", Element.ALIGN_RIGHT);
+            addTableHeader(table, "Data Ocorr.", Element.ALIGN_CENTER);
+            addTableHeader(table, "Data Créd.", Element.ALIGN_CENTER);
+            addTableHeader(table, "Status", Element.ALIGN_LEFT);
+            table.setHeaderRows(1);
+        }
 
+        public void add(TransacaoExportRepository.ExportRow t) {
             table.addCell(createCell(t.getTipoOrigem().name(), cellFont, Element.ALIGN_LEFT));
             table.addCell(createCell(t.getNossoNumero(), cellFont, Element.ALIGN_LEFT));
             table.addCell(createCell(t.getNomePagador(), cellFont, Element.ALIGN_LEFT));
@@ -209,7 +238,7 @@ public class PdfService {
             BigDecimal valor = t.getValorPago();
             totalValor = totalValor.add(valor != null ? valor : BigDecimal.ZERO);
             table.addCell(
-                    createCell(valor != null ? CURRENCY_FORMATTER.format(valor) : "-", cellFont, Element.ALIGN_RIGHT));
+                    createCell(valor != null ? currency.format(valor) : "-", cellFont, Element.ALIGN_RIGHT));
 
             table.addCell(createCell(t.getDataOcorrencia() != null ? t.getDataOcorrencia().format(DATE_FORMATTER) : "-",
                     cellFont, Element.ALIGN_CENTER));
@@ -226,39 +255,18 @@ public class PdfService {
                 statusCell.setBackgroundColor(new Color(255, 255, 200)); // Pending/Warning
             }
             table.addCell(statusCell);
+            rowAdded();
         }
 
-        // Totals
-        Font boldFont = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 9);
-        PdfPCell totalLabel = new PdfPCell(new Phrase("TOTAL", boldFont));
-        totalLabel.setColspan(3);
-        totalLabel.setHorizontalAlignment(Element.ALIGN_RIGHT);
-        totalLabel.setBackgroundColor(Color.LIGHT_GRAY);
-        table.addCell(totalLabel);
-
-        PdfPCell totalValue = new PdfPCell(new Phrase(CURRENCY_FORMATTER.format(totalValor), boldFont));
-        totalValue.setHorizontalAlignment(Element.ALIGN_RIGHT);
-        totalValue.setBackgroundColor(Color.LIGHT_GRAY);
-        table.addCell(totalValue);
-
-        PdfPCell empty = new PdfPCell(new Phrase(""));
-        empty.setColspan(3);
-        empty.setBackgroundColor(Color.LIGHT_GRAY);
-        table.addCell(empty);
-
-        document.add(table);
-
-        document.add(new Paragraph("\n"));
-        Paragraph summary = new Paragraph(String.format("Total de registros: %d", transactions.size()),
-                FontFactory.getFont(FontFactory.HELVETICA, 12));
-        document.add(summary);
-
-        document.close();
-
-        return outputStream.toByteArray();
+        @Override
+        protected void addTotals() {
+            table.addCell(totalCell("TOTAL", 3, Element.ALIGN_RIGHT));
+            table.addCell(totalCell(currency.format(totalValor), 1, Element.ALIGN_RIGHT));
+            table.addCell(totalCell("", 3, Element.ALIGN_LEFT));
+        }
     }
 
-    private void addTableHeader(PdfPTable table, String headerTitle, int alignment) {
+    private static void addTableHeader(PdfPTable table, String headerTitle, int alignment) {
         PdfPCell header = new PdfPCell();
         header.setBackgroundColor(Color.LIGHT_GRAY);
         header.setBorderWidth(2);
@@ -268,7 +276,7 @@ public class PdfService {
         table.addCell(header);
     }
 
-    private PdfPCell createCell(String content, Font font, int alignment) {
+    private static PdfPCell createCell(String content, Font font, int alignment) {
         PdfPCell cell = new PdfPCell(new Phrase(content, font));
         cell.setHorizontalAlignment(alignment);
         cell.setVerticalAlignment(Element.ALIGN_MIDDLE);
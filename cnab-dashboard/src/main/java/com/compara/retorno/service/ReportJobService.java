@@ -0,0 +1,405 @@
+package com.compara.retorno.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Heavy exports (analysis and transaction reports, PDF or Excel) generated in the
+ * background and kept as files on local disk.
+ *
+ * A job is identified by the report parameters plus the {@link DataVersion} they
+ * were requested at, so operators asking for the same report share one job and
+ * one file until the data changes. Jobs run on a bounded pool, like imports. Once
+ * the files add up to more than the configured size, the least recently
+ * requested ones are deleted, results of older data first.
+ */
+@Service
+public class ReportJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportJobService.class);
+
+    /** Failed jobs are forgotten after this long without being requested again. */
+    private static final long FAILED_RETENTION_MS = 60 * 60 * 1000L;
+
+    @Autowired
+    private ExportService exportService;
+
+    @Autowired
+    private DataVersion dataVersion;
+
+    @Value("${cnab.reports.dir:${java.io.tmpdir}/cnab-reports}")
+    private String dir;
+
+    @Value("${cnab.reports.workers:2}")
+    private int workers = 2;
+
+    @Value("${cnab.reports.queue-capacity:20}")
+    private int queueCapacity = 20;
+
+    @Value("${cnab.reports.max-disk-mb:1024}")
+    private long maxDiskMb = 1024;
+
+    private final ConcurrentMap<String, ReportJob> jobs = new ConcurrentHashMap<>();
+
+    private Path directory;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    void start() throws IOException {
+        directory = Files.createDirectories(Path.of(dir));
+        // Files left by a previous run were made from an older version of the data
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(ReportJobService::deleteQuietly);
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "cnab-report-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The job for this report at the current data version: the existing one when
+     * the same report was already requested (queued, running or done), otherwise a
+     * new queued job. A failed job is retried.
+     *
+     * @throws IllegalStateException when the queue is full
+     */
+    public ReportJob submit(ReportRequest request) {
+        long version = dataVersion.current();
+        String id = request.key(version);
+        ReportJob[] created = { null };
+        ReportJob job = jobs.compute(id, (key, existing) -> {
+            if (existing != null && !ReportJob.FALHOU.equals(existing.getStatus())) {
+                return existing;
+            }
+            created[0] = new ReportJob(id, request, version);
+            return created[0];
+        });
+        if (created[0] != null) {
+            try {
+                executor.execute(() -> run(created[0]));
+            } catch (RejectedExecutionException e) {
+                jobs.remove(id, created[0]);
+                throw new IllegalStateException("Fila de relatórios cheia. Tente novamente em instantes.");
+            }
+        }
+        job.touch();
+        return job;
+    }
+
+    /** The job, or null when unknown or already evicted. */
+    public ReportJob get(String id) {
+        return jobs.get(id);
+    }
+
+    /** The job when its file is ready for download, or null when unknown, not done or evicted. */
+    public ReportJob ready(String id) {
+        ReportJob job = jobs.get(id);
+        if (job == null || !ReportJob.CONCLUIDO.equals(job.getStatus())) {
+            return null;
+        }
+        job.touch();
+        return job;
+    }
+
+    long getDiskUsage() {
+        return jobs.values().stream().filter(j -> j.getFile() != null).mapToLong(ReportJob::getTamanho).sum();
+    }
+
+    private void run(ReportJob job) {
+        job.setStatus(ReportJob.PROCESSANDO);
+        Path part = directory.resolve(job.getId() + ".part");
+        Path target = directory.resolve(job.getId() + job.getRequest().getFormato().getExtensao());
+        long start = System.currentTimeMillis();
+        try {
+            long rows;
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(part), 64 * 1024)) {
+                rows = job.getRequest().write(exportService, out);
+            }
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            job.stored(target, Files.size(target), rows, System.currentTimeMillis() - start);
+            log.info("Relatório {} gerado: {} registros, {} bytes em {} ms", job.getDescricao(), rows,
+                    job.getTamanho(), job.getDuracaoMs());
+            // Room is made before the job shows as done, so a finished job is never one about to go
+            evict();
+            job.setStatus(ReportJob.CONCLUIDO);
+        } catch (Exception e) {
+            log.warn("Falha ao gerar o relatório {}: {}", job.getDescricao(), e.getMessage());
+            deleteQuietly(part);
+            job.failed("Erro ao gerar o relatório: " + e.getMessage());
+            evict();
+        }
+    }
+
+    /**
+     * Deletes finished files, least recently requested first (results of older
+     * data before current ones), until the total fits the configured size.
+     */
+    synchronized void evict() {
+        long now = System.currentTimeMillis();
+        jobs.values().removeIf(j -> ReportJob.FALHOU.equals(j.getStatus())
+                && now - j.getUltimoAcesso() > FAILED_RETENTION_MS);
+
+        long current = dataVersion.current();
+        List<ReportJob> done = jobs.values().stream()
+                .filter(j -> j.getFile() != null)
+                .sorted(Comparator.comparing((ReportJob j) -> j.getVersion() == current)
+                        .thenComparingLong(ReportJob::getUltimoAcesso))
+                .toList();
+        long total = done.stream().mapToLong(ReportJob::getTamanho).sum();
+        long max = maxDiskMb * 1024 * 1024;
+        for (ReportJob job : done) {
+            if (total <= max) {
+                break;
+            }
+            jobs.remove(job.getId(), job);
+            deleteQuietly(job.getFile());
+            total -= job.getTamanho();
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Não foi possível remover {}: {}", path, e.getMessage());
+        }
+    }
+
+    public enum Formato {
+        PDF("application/pdf", ".pdf"),
+        EXCEL(ExcelService.CONTENT_TYPE, ".xlsx");
+
+        private final String contentType;
+        private final String extensao;
+
+        Formato(String contentType, String extensao) {
+            this.contentType = contentType;
+            this.extensao = extensao;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtensao() {
+            return extensao;
+        }
+    }
+
+    /** What to export; two requests with the same fields are the same report. */
+    public static class ReportRequest {
+        private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+        private final String tipo;
+        private final Formato formato;
+        private LocalDate startDate;
+        private LocalDate endDate;
+        private boolean useCreditDate;
+        private boolean onlyDivergences;
+        private String nomePagador;
+        private BigDecimal valorPago;
+
+        private ReportRequest(String tipo, Formato formato) {
+            this.tipo = tipo;
+            this.formato = formato;
+        }
+
+        /** API x Geral analysis of the period (dates already validated). */
+        public static ReportRequest analise(Formato formato, LocalDate startDate, LocalDate endDate,
+                boolean useCreditDate, boolean onlyDivergences) {
+            ReportRequest r = new ReportRequest("ANALISE", formato);
+            r.startDate = startDate;
+            r.endDate = endDate;
+            r.useCreditDate = useCreditDate;
+            r.onlyDivergences = onlyDivergences;
+            return r;
+        }
+
+        /** Payer search results; blank name and trailing zeros of the value do not make a different report. */
+        public static ReportRequest transacoes(Formato formato, String nomePagador, BigDecimal valorPago) {
+            ReportRequest r = new ReportRequest("TRANSACOES", formato);
+            r.nomePagador = nomePagador == null || nomePagador.isBlank() ? null : nomePagador.trim();
+            r.valorPago = valorPago == null ? null : valorPago.stripTrailingZeros();
+            return r;
+        }
+
+        /** Job id: hash of the parameters and the data version. */
+        String key(long version) {
+            String text = String.join("|", tipo, formato.name(), String.valueOf(startDate),
+                    String.valueOf(endDate), String.valueOf(useCreditDate), String.valueOf(onlyDivergences),
+                    String.valueOf(nomePagador), valorPago == null ? "null" : valorPago.toPlainString(),
+                    String.valueOf(version));
+            try {
+                byte[] hash = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+                return HexFormat.of().formatHex(hash, 0, 16);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        long write(ExportService exportService, OutputStream out) throws Exception {
+            if ("ANALISE".equals(tipo)) {
+                return formato == Formato.PDF
+                        ? exportService.writeAnalisePdf(startDate, endDate, useCreditDate, onlyDivergences, out)
+                        : exportService.writeAnaliseExcel(startDate, endDate, useCreditDate, onlyDivergences, out);
+            }
+            return formato == Formato.PDF
+                    ? exportService.writeTransactionsPdf(nomePagador, valorPago, out)
+                    : exportService.writeTransactionsExcel(nomePagador, valorPago, out);
+        }
+
+        public Formato getFormato() {
+            return formato;
+        }
+
+        /** Download file name, the same the direct export endpoints use. */
+        public String getNomeArquivo() {
+            return ("ANALISE".equals(tipo) ? "analise_api_geral_" + startDate + "_" + endDate : "relatorio_transacoes")
+                    + formato.getExtensao();
+        }
+
+        public String getDescricao() {
+            String descricao;
+            if ("ANALISE".equals(tipo)) {
+                descricao = "Análise API x Geral " + startDate.format(DATE) + " a " + endDate.format(DATE)
+                        + (onlyDivergences ? " (divergentes)" : "");
+            } else {
+                descricao = "Transações" + (nomePagador != null ? " de \"" + nomePagador + "\"" : "")
+                        + (valorPago != null ? " de R$ " + valorPago.toPlainString() : "");
+            }
+            return descricao + " - " + formato.name();
+        }
+    }
+
+    /** A report being generated or ready for download. Updated by the worker, read by the status requests. */
+    public static class ReportJob {
+        public static final String NA_FILA = "NA_FILA";
+        public static final String PROCESSANDO = "PROCESSANDO";
+        public static final String CONCLUIDO = "CONCLUIDO";
+        public static final String FALHOU = "FALHOU";
+
+        private final String id;
+        private final ReportRequest request;
+        private final long version;
+        private volatile String status = NA_FILA;
+        private volatile Path file;
+        private volatile long tamanho;
+        private volatile long registros;
+        private volatile long duracaoMs;
+        private volatile String mensagem;
+        private volatile long ultimoAcesso = System.currentTimeMillis();
+
+        ReportJob(String id, ReportRequest request, long version) {
+            this.id = id;
+            this.request = request;
+            this.version = version;
+        }
+
+        void touch() {
+            ultimoAcesso = System.currentTimeMillis();
+        }
+
+        void setStatus(String status) {
+            this.status = status;
+        }
+
+        void stored(Path file, long tamanho, long registros, long duracaoMs) {
+            this.tamanho = tamanho;
+            this.registros = registros;
+            this.duracaoMs = duracaoMs;
+            this.file = file;
+        }
+
+        void failed(String mensagem) {
+            this.mensagem = mensagem;
+            this.status = FALHOU;
+        }
+
+        public boolean isAtivo() {
+            return NA_FILA.equals(status) || PROCESSANDO.equals(status);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public ReportRequest getRequest() {
+            return request;
+        }
+
+        public String getDescricao() {
+            return request.getDescricao();
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public long getTamanho() {
+            return tamanho;
+        }
+
+        public long getRegistros() {
+            return registros;
+        }
+
+        public long getDuracaoMs() {
+            return duracaoMs;
+        }
+
+        public String getMensagem() {
+            return mensagem;
+        }
+
+        public long getUltimoAcesso() {
+            return ultimoAcesso;
+        }
+    }
+}
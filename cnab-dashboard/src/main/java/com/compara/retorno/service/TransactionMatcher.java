@@ -0,0 +1,420 @@
+package com.compara.retorno.service;
+
+import com.compara.retorno.model.Transacao;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Pairs the API and GERAL rows of one nossoNumero one-to-one.
+ *
+ * Rows are matched in tiers, each tier only seeing what the previous ones left:
+ * same value and payment date, then value and date within the configured
+ * tolerance, then same value, then same payment date, and finally by position.
+ * The exact tiers are a single pass over a hash index of the GERAL rows; the
+ * tolerance tier looks GERAL rows up in a date and value index they leave once
+ * matched, so a group costs O(n log n) however many duplicates it has. Rows left
+ * over on either side are returned as unmatched. This is what fills the
+ * comparacao table (see
+ * {@link com.compara.retorno.repository.TransacaoComparacaoRepository}).
+ *
+ * Rows without nossoNumero are matched by {@link #matchWithoutKey}: same
+ * numInscricao (or payer name when either side has none), value and date within
+ * tolerance.
+ */
+public class TransactionMatcher {
+
+    /** How a pair was formed, from the strongest to the weakest rule. */
+    public enum MatchRule {
+        EXATO, TOLERANCIA, DOCUMENTO, VALOR, DATA, ORDEM
+    }
+
+    /** The single lookup group of the TOLERANCIA tier. */
+    private static final List<Object> ANY = List.of(Boolean.TRUE);
+
+    private final long toleranceCents;
+    private final int toleranceDays;
+
+    /** Exact matching only. */
+    public TransactionMatcher() {
+        this(0, 0);
+    }
+
+    /**
+     * @param toleranceCents accepted value difference, in cents (either direction)
+     * @param toleranceDays  accepted payment date difference, in days (either direction)
+     */
+    public TransactionMatcher(long toleranceCents, int toleranceDays) {
+        this.toleranceCents = Math.max(0, toleranceCents);
+        this.toleranceDays = Math.max(0, toleranceDays);
+    }
+
+    /** Key of the EXATO tier: value in cents and payment date. */
+    private record ValueDate(long cents, LocalDate date) {
+    }
+
+    public MatchResult match(List<Transacao> api, List<Transacao> geral) {
+        MatchResult result = new MatchResult();
+        List<Transacao> apiLeft = api;
+        List<Transacao> geralLeft = geral;
+
+        apiLeft = tier(apiLeft, geralLeft, MatchRule.EXATO, t -> {
+            Long cents = cents(t.getValorPago());
+            return cents == null || t.getDataOcorrencia() == null ? null : new ValueDate(cents, t.getDataOcorrencia());
+        }, result);
+        geralLeft = result.remainingGeral(geralLeft);
+
+        if (toleranceCents > 0 || toleranceDays > 0) {
+            apiLeft = toleranceTier(apiLeft, geralLeft, MatchRule.TOLERANCIA, t -> ANY, t -> ANY, result);
+            geralLeft = result.remainingGeral(geralLeft);
+        }
+
+        apiLeft = tier(apiLeft, geralLeft, MatchRule.VALOR, t -> cents(t.getValorPago()), result);
+        geralLeft = result.remainingGeral(geralLeft);
+
+        apiLeft = tier(apiLeft, geralLeft, MatchRule.DATA, Transacao::getDataOcorrencia, result);
+        geralLeft = result.remainingGeral(geralLeft);
+
+        int paired = Math.min(apiLeft.size(), geralLeft.size());
+        for (int i = 0; i < paired; i++) {
+            result.add(apiLeft.get(i), geralLeft.get(i), MatchRule.ORDEM,
+                    confidence(MatchRule.ORDEM, apiLeft.get(i), geralLeft.get(i)));
+        }
+        result.unmatchedApi.addAll(apiLeft.subList(paired, apiLeft.size()));
+        result.unmatchedGeral.addAll(geralLeft.subList(paired, geralLeft.size()));
+        return result;
+    }
+
+    /**
+     * Pairs rows that have no nossoNumero (see {@link #hasKey}) across the whole
+     * period: same document, value and date within tolerance. There is no
+     * positional fallback, whatever does not match is returned as unmatched.
+     */
+    public MatchResult matchWithoutKey(List<Transacao> api, List<Transacao> geral) {
+        MatchResult result = new MatchResult();
+        List<Transacao> apiLeft = toleranceTier(api, geral, MatchRule.DOCUMENTO,
+                TransactionMatcher::documentGroupsOfApi, TransactionMatcher::documentGroupsOfGeral, result);
+        result.unmatchedApi.addAll(apiLeft);
+        result.unmatchedGeral.addAll(result.remainingGeral(geral));
+        return result;
+    }
+
+    public static boolean hasKey(Transacao t) {
+        return t.getNossoNumero() != null && !t.getNossoNumero().isBlank();
+    }
+
+    /** Value difference in cents, null when either side has no value. */
+    public static Long centsDiff(Transacao api, Transacao geral) {
+        Long a = cents(api.getValorPago());
+        Long g = cents(geral.getValorPago());
+        return a == null || g == null ? null : Math.abs(a - g);
+    }
+
+    /** Days between two dates, null when either is missing. */
+    public static Long daysDiff(LocalDate a, LocalDate b) {
+        return a == null || b == null ? null : Math.abs(ChronoUnit.DAYS.between(a, b));
+    }
+
+    public boolean withinValueTolerance(Long centsDiff) {
+        return centsDiff != null && centsDiff <= toleranceCents;
+    }
+
+    public boolean withinDateTolerance(Long daysDiff) {
+        return daysDiff != null && daysDiff <= toleranceDays;
+    }
+
+    /**
+     * Confidence of a pair, 0 to 100: a fixed level per rule, and for the
+     * tolerance-based rules up to 10 points off for each of the value and date
+     * differences, in proportion to how much of the tolerance they use.
+     */
+    public int confidence(MatchRule rule, Transacao api, Transacao geral) {
+        switch (rule) {
+            case EXATO:
+                return 100;
+            case TOLERANCIA:
+                return 90 - penalty(api, geral);
+            case DOCUMENTO:
+                return 75 - penalty(api, geral);
+            case VALOR:
+                return 60;
+            case DATA:
+                return 40;
+            default:
+                return 20;
+        }
+    }
+
+    private int penalty(Transacao api, Transacao geral) {
+        return penalty(centsDiff(api, geral), toleranceCents)
+                + penalty(daysDiff(api.getDataOcorrencia(), geral.getDataOcorrencia()), toleranceDays);
+    }
+
+    private static int penalty(Long diff, long tolerance) {
+        if (diff == null || tolerance == 0) {
+            return 0;
+        }
+        return (int) Math.round(10.0 * Math.min(diff, tolerance) / tolerance);
+    }
+
+    /**
+     * Matches API rows to GERAL rows with the same key, first come first served.
+     * Rows with a null key never match in this tier.
+     *
+     * @return the API rows left unmatched, in their original order
+     */
+    private <K> List<Transacao> tier(List<Transacao> api, List<Transacao> geral, MatchRule rule,
+            Function<Transacao, K> key, MatchResult result) {
+        if (api.isEmpty() || geral.isEmpty()) {
+            return api;
+        }
+        Map<K, ArrayDeque<Transacao>> index = new HashMap<>();
+        for (Transacao g : geral) {
+            K k = key.apply(g);
+            if (k != null) {
+                index.computeIfAbsent(k, x -> new ArrayDeque<>()).add(g);
+            }
+        }
+        List<Transacao> left = new ArrayList<>();
+        for (Transacao a : api) {
+            K k = key.apply(a);
+            ArrayDeque<Transacao> candidates = k != null ? index.get(k) : null;
+            Transacao g = candidates != null ? candidates.poll() : null;
+            if (g != null) {
+                result.add(a, g, rule, confidence(rule, a, g));
+            } else {
+                left.add(a);
+            }
+        }
+        return left;
+    }
+
+    /**
+     * Tolerance tier: API rows, in payment date order, each take the GERAL row of
+     * one of their groups with the highest confidence (the earliest on ties) whose
+     * value and date are within tolerance. GERAL rows are indexed by group, date
+     * and value; equal rows share one bucket and matched rows leave it, so a lookup
+     * only looks at the head of each (date, value) bucket within tolerance, however
+     * many duplicates the group has. Rows without payment date or value never
+     * match here.
+     *
+     * @return the API rows left unmatched, in their original order
+     */
+    private List<Transacao> toleranceTier(List<Transacao> api, List<Transacao> geral, MatchRule rule,
+            Function<Transacao, List<Object>> apiGroups, Function<Transacao, List<Object>> geralGroups,
+            MatchResult result) {
+        if (api.isEmpty() || geral.isEmpty()) {
+            return api;
+        }
+        Map<Object, TreeMap<LocalDate, TreeMap<Long, ArrayDeque<Transacao>>>> index = new HashMap<>();
+        for (Transacao g : geral) {
+            Long cents = cents(g.getValorPago());
+            if (cents == null || g.getDataOcorrencia() == null) {
+                continue;
+            }
+            for (Object group : geralGroups.apply(g)) {
+                index.computeIfAbsent(group, k -> new TreeMap<>())
+                        .computeIfAbsent(g.getDataOcorrencia(), k -> new TreeMap<>())
+                        .computeIfAbsent(cents, k -> new ArrayDeque<>()).add(g);
+            }
+        }
+
+        Set<Transacao> used = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<Transacao> matched = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Transacao> apiSorted = api.stream()
+                .filter(t -> t.getDataOcorrencia() != null && t.getValorPago() != null)
+                .sorted(Comparator.comparing(Transacao::getDataOcorrencia)).toList();
+        for (Transacao a : apiSorted) {
+            long cents = cents(a.getValorPago());
+            LocalDate from = a.getDataOcorrencia().minusDays(toleranceDays);
+            LocalDate to = a.getDataOcorrencia().plusDays(toleranceDays);
+            ArrayDeque<Transacao> best = null;
+            int bestScore = -1;
+            for (Object group : apiGroups.apply(a)) {
+                TreeMap<LocalDate, TreeMap<Long, ArrayDeque<Transacao>>> dates = index.get(group);
+                if (dates == null) {
+                    continue;
+                }
+                Iterator<TreeMap<Long, ArrayDeque<Transacao>>> days = dates.subMap(from, true, to, true).values()
+                        .iterator();
+                while (days.hasNext()) {
+                    TreeMap<Long, ArrayDeque<Transacao>> values = days.next();
+                    Iterator<ArrayDeque<Transacao>> buckets = values
+                            .subMap(cents - toleranceCents, true, cents + toleranceCents, true).values().iterator();
+                    while (buckets.hasNext()) {
+                        ArrayDeque<Transacao> bucket = buckets.next();
+                        // Rows already taken (here or through another group) are dropped on the way
+                        while (!bucket.isEmpty() && used.contains(bucket.peek())) {
+                            bucket.poll();
+                        }
+                        if (bucket.isEmpty()) {
+                            buckets.remove();
+                            continue;
+                        }
+                        int score = confidence(rule, a, bucket.peek());
+                        if (score > bestScore) {
+                            best = bucket;
+                            bestScore = score;
+                        }
+                    }
+                    if (values.isEmpty()) {
+                        days.remove();
+                    }
+                }
+            }
+            if (best != null) {
+                Transacao g = best.poll();
+                used.add(g);
+                matched.add(a);
+                result.add(a, g, rule, bestScore);
+            }
+        }
+
+        List<Transacao> left = new ArrayList<>();
+        for (Transacao a : api) {
+            if (!matched.contains(a)) {
+                left.add(a);
+            }
+        }
+        return left;
+    }
+
+    /** A lookup group of the DOCUMENTO tier. */
+    private record DocumentGroup(String kind, String value) {
+    }
+
+    /**
+     * Groups of a GERAL row in the DOCUMENTO tier: its numInscricao, and its payer
+     * name kept apart by whether the row has a document.
+     */
+    private static List<Object> documentGroupsOfGeral(Transacao geral) {
+        String document = digits(geral.getNumInscricao());
+        String name = normalize(geral.getNomePagador());
+        List<Object> groups = new ArrayList<>(2);
+        if (!document.isEmpty()) {
+            groups.add(new DocumentGroup("DOCUMENTO", document));
+        }
+        if (!name.isEmpty()) {
+            groups.add(new DocumentGroup(document.isEmpty() ? "NOME" : "NOME_COM_DOCUMENTO", name));
+        }
+        return groups;
+    }
+
+    /**
+     * Groups an API row looks up in the DOCUMENTO tier: the same numInscricao when
+     * both sides have one, otherwise the same payer name. A row with a document
+     * never pairs by name with a GERAL row that has a different one.
+     */
+    private static List<Object> documentGroupsOfApi(Transacao api) {
+        String document = digits(api.getNumInscricao());
+        String name = normalize(api.getNomePagador());
+        List<Object> groups = new ArrayList<>(2);
+        if (!document.isEmpty()) {
+            groups.add(new DocumentGroup("DOCUMENTO", document));
+        }
+        if (!name.isEmpty()) {
+            groups.add(new DocumentGroup("NOME", name));
+            if (document.isEmpty()) {
+                groups.add(new DocumentGroup("NOME_COM_DOCUMENTO", name));
+            }
+        }
+        return groups;
+    }
+
+    private static String digits(String value) {
+        return value == null ? "" : value.replaceAll("\\D", "").replaceFirst("^0+", "");
+    }
+
+    private static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        String plain = Normalizer.normalize(value, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        return plain.trim().replaceAll("\\s+", " ").toUpperCase(Locale.ROOT);
+    }
+
+    private static Long cents(BigDecimal value) {
+        return value == null ? null : value.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+    }
+
+    /** One API row paired with one GERAL row. */
+    public static class Match {
+        private final Transacao api;
+        private final Transacao geral;
+        private final MatchRule rule;
+        private final int confidence;
+
+        public Match(Transacao api, Transacao geral, MatchRule rule, int confidence) {
+            this.api = api;
+            this.geral = geral;
+            this.rule = rule;
+            this.confidence = confidence;
+        }
+
+        public Transacao getApi() {
+            return api;
+        }
+
+        public Transacao getGeral() {
+            return geral;
+        }
+
+        public MatchRule getRule() {
+            return rule;
+        }
+
+        public int getConfidence() {
+            return confidence;
+        }
+    }
+
+    public static class MatchResult {
+        private final List<Match> matches = new ArrayList<>();
+        private final List<Transacao> unmatchedApi = new ArrayList<>();
+        private final List<Transacao> unmatchedGeral = new ArrayList<>();
+        private final Set<Transacao> matchedGeral = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private void add(Transacao api, Transacao geral, MatchRule rule, int confidence) {
+            matches.add(new Match(api, geral, rule, confidence));
+            matchedGeral.add(geral);
+        }
+
+        private List<Transacao> remainingGeral(List<Transacao> geral) {
+            List<Transacao> left = new ArrayList<>();
+            for (Transacao g : geral) {
+                if (!matchedGeral.contains(g)) {
+                    left.add(g);
+                }
+            }
+            return left;
+        }
+
+        public List<Match> getMatches() {
+            return matches;
+        }
+
+        public List<Transacao> getUnmatchedApi() {
+            return unmatchedApi;
+        }
+
+        public List<Transacao> getUnmatchedGeral() {
+            return unmatchedGeral;
+        }
+    }
+}
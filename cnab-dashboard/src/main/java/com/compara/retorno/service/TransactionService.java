@@ -1,9 +1,22 @@
 package com.compara.retorno.service;
 
 import com.compara.retorno.model.Transacao;
-import com.compara.retorno.model.TipoOrigem;
+import com.compara.retorno.repository.ConciliacaoPendenteRepository;
+import com.compara.retorno.repository.TransacaoBulkRepository;
+import com.compara.retorno.repository.TransacaoComparacaoRepository;
+import com.compara.retorno.repository.TransacaoKeysetRepository;
 import com.compara.retorno.repository.TransacaoRepository;
+import com.compara.retorno.repository.TransacaoResumoRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -13,17 +26,109 @@ import java.util.List;
 @Service
 public class TransactionService {
 
+    private static final Logger log = LoggerFactory.getLogger(TransactionService.class);
+
+    /** Caches of read-only results; cleared whenever transacoes changes (see @CacheEvict below). */
+    public static final String STATS_CACHE = "dashboardStats";
+    public static final String COMPARISON_CACHE = "comparacoes";
+
+    /** Log prefix of a difference accepted by the matching tolerance. */
+    public static final String TOLERATED = "TOLERÂNCIA";
+
     @Autowired
     private TransacaoRepository repository;
 
+    @Autowired
+    private TransacaoBulkRepository bulkRepository;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private TransacaoResumoRepository resumoRepository;
+
+    @Autowired
+    private TransacaoComparacaoRepository comparacaoRepository;
+
+    @Autowired
+    private TransacaoKeysetRepository keysetRepository;
+
+    @Autowired
+    private ConciliacaoPendenteRepository pendenteRepository;
+
+    @Autowired
+    private DataVersion dataVersion;
+
+    /**
+     * Dashboard stats source: ROLLUP (daily rollup table), SINGLE_PASS (one FILTER
+     * aggregate over transacoes) or QUERIES (one aggregate query per figure).
+     */
+    @Value("${cnab.stats.source:ROLLUP}")
+    private String statsSource = "ROLLUP";
+
+    /** Matching tolerance: value difference in cents and payment/credit date difference in days. */
+    @Value("${cnab.match.tolerancia-centavos:0}")
+    private long toleranceCents;
+
+    @Value("${cnab.match.tolerancia-dias:0}")
+    private int toleranceDays;
+
+    /** Import write path: COPY (PostgreSQL bulk load) or JPA (repository.saveAll). */
+    @Value("${cnab.import.writer:COPY}")
+    private String importWriter = "COPY";
+
+    @CacheEvict(cacheNames = { STATS_CACHE, COMPARISON_CACHE }, allEntries = true)
     @Transactional
     public void saveAll(List<Transacao> transactions) {
+        dataVersion.changed();
         repository.saveAll(transactions);
+        entityManager.flush();
+        TransacaoResumoRepository.AffectedDates dates = new TransacaoResumoRepository.AffectedDates();
+        for (Transacao t : transactions) {
+            dates.addOcorrencia(t.getDataOcorrencia());
+            dates.addCredito(t.getDataCredito());
+        }
+        resumoRepository.refresh(dates);
+        comparacaoRepository.refreshKeys(transactions.stream().map(Transacao::getNossoNumero)
+                .filter(java.util.Objects::nonNull).collect(java.util.stream.Collectors.toSet()));
+    }
+
+    /**
+     * Writes one chunk of a streaming import and detaches it from the persistence
+     * context, so a long import transaction keeps a constant memory footprint.
+     */
+    @Transactional
+    public void saveChunk(List<Transacao> chunk) {
+        if ("COPY".equalsIgnoreCase(importWriter)) {
+            bulkInsert(chunk);
+            return;
+        }
+        repository.saveAll(chunk);
+        entityManager.flush();
+        entityManager.clear();
     }
 
+    /**
+     * Bulk loads transactions with PostgreSQL COPY inside the current transaction.
+     * The generated ids are set on the given objects.
+     *
+     * @return number of rows inserted
+     */
+    @Transactional
+    public long bulkInsert(List<Transacao> transactions) {
+        // Pending JPA changes must reach the database before the COPY
+        entityManager.flush();
+        return bulkRepository.copy(transactions);
+    }
+
+    @CacheEvict(cacheNames = { STATS_CACHE, COMPARISON_CACHE }, allEntries = true)
     @Transactional
     public void clearAll() {
+        dataVersion.changed();
         repository.deleteAll();
+        entityManager.flush();
+        resumoRepository.clear();
+        comparacaoRepository.clear();
     }
 
     @Transactional
@@ -31,10 +136,17 @@ public class TransactionService {
         return repository.findDistinctFileSources();
     }
 
+    @CacheEvict(cacheNames = { STATS_CACHE, COMPARISON_CACHE }, allEntries = true)
     @Transactional
     public void deleteByFileSources(List<String> fileSources) {
+        dataVersion.changed();
         if (fileSources != null && !fileSources.isEmpty()) {
+            TransacaoResumoRepository.AffectedDates dates = resumoRepository.datesOfFiles(fileSources);
+            List<String> keys = comparacaoRepository.keysOfFiles(fileSources);
             repository.deleteByFileSourceIn(fileSources);
+            entityManager.flush();
+            resumoRepository.refresh(dates);
+            comparacaoRepository.refreshKeys(keys);
         }
     }
 
@@ -42,31 +154,97 @@ public class TransactionService {
         return repository.existsByFileSource(fileName);
     }
 
+    /**
+     * Reconciles API against GERAL with a handful of set-based UPDATEs instead of
+     * one lookup and save per row. A pair matches on nossoNumero, valorPago and
+     * dataOcorrencia.
+     */
+    @CacheEvict(cacheNames = { STATS_CACHE, COMPARISON_CACHE }, allEntries = true)
     @Transactional
-    public void performReconciliation() {
-        List<Transacao> apiTransactions = repository.findByTipoOrigem(TipoOrigem.API);
-
-        for (Transacao api : apiTransactions) {
-            // Find match in GERAL
-            List<Transacao> matches = repository.findMatch(TipoOrigem.GERAL, api.getNossoNumero(), api.getValorPago(),
-                    api.getDataOcorrencia());
-
-            if (!matches.isEmpty()) {
-                api.setStatusConciliacao("CONCILIADO");
-                for (Transacao m : matches) {
-                    m.setStatusConciliacao("CONCILIADO");
-                }
-                repository.save(api);
-                repository.saveAll(matches);
-            } else {
-                api.setStatusConciliacao("DIVERGENTE");
-                repository.save(api);
-            }
-        }
+    public ReconciliationReport performReconciliation() {
+        dataVersion.changed();
+        long start = System.currentTimeMillis();
+        ReconciliationReport report = new ReconciliationReport();
+        report.setApiConciliadas(report.timed("API conciliadas", () -> repository.markApiConciliadas()));
+        report.setApiDivergentes(report.timed("API divergentes", () -> repository.markApiDivergentes()));
+        report.setGeralConciliadas(report.timed("GERAL conciliadas", () -> repository.markGeralConciliadas()));
+        report.setGeralPendentes(report.timed("GERAL sem par", () -> repository.resetGeralSemPar()));
+        report.timed("Resumo diário", () -> {
+            resumoRepository.rebuild();
+            return 0;
+        });
+        report.timed("Comparação", () -> comparacaoRepository.rebuild());
+        report.setElapsedMs(System.currentTimeMillis() - start);
+        log.info("Conciliação: {}", report);
+        return report;
+    }
+
+    /**
+     * Incremental variant of {@link #performReconciliation()}: only rows (API and
+     * GERAL) whose nossoNumero appears in the given import batch are re-evaluated,
+     * so the cost follows the size of the upload rather than of the table. Clears
+     * the batch's {@link #markReconciliationPending pending mark} in the same
+     * transaction.
+     */
+    @CacheEvict(cacheNames = { STATS_CACHE, COMPARISON_CACHE }, allEntries = true)
+    @Transactional
+    public ReconciliationReport performReconciliation(String importBatch) {
+        dataVersion.changed();
+        long start = System.currentTimeMillis();
+        ReconciliationReport report = new ReconciliationReport();
+        report.setApiConciliadas(report.timed("API conciliadas",
+                () -> repository.markApiConciliadasInBatch(importBatch)));
+        report.setApiDivergentes(report.timed("API divergentes",
+                () -> repository.markApiDivergentesInBatch(importBatch)));
+        report.setGeralConciliadas(report.timed("GERAL conciliadas",
+                () -> repository.markGeralConciliadasInBatch(importBatch)));
+        report.setGeralPendentes(report.timed("GERAL sem par",
+                () -> repository.resetGeralSemParInBatch(importBatch)));
+        report.timed("Resumo diário", () -> {
+            resumoRepository.refresh(resumoRepository.datesOfBatchKeys(importBatch));
+            return 0;
+        });
+        report.timed("Comparação", () -> comparacaoRepository.refreshBatch(importBatch));
+        pendenteRepository.clear(importBatch);
+        report.setElapsedMs(System.currentTimeMillis() - start);
+        log.info("Conciliação do lote {}: {}", importBatch, report);
+        return report;
     }
 
+    /**
+     * Records that the batch has committed rows not yet reconciled. Called inside
+     * each file's import transaction, so the mark exists exactly when its rows do.
+     */
+    @Transactional
+    public void markReconciliationPending(String importBatch) {
+        pendenteRepository.mark(importBatch);
+    }
+
+    /** Batches whose files committed but whose reconciliation never did, oldest first. */
+    @Transactional(readOnly = true)
+    public List<String> findBatchesPendingReconciliation() {
+        return pendenteRepository.findBatches();
+    }
+
+    /**
+     * Dashboard totals for a date range. With the default ROLLUP source this reads
+     * the daily rollup (a few rows per day) instead of aggregating transacoes.
+     */
+    @Cacheable(STATS_CACHE)
     public DashboardStats getStats(java.time.LocalDate startDate, java.time.LocalDate endDate, boolean useCreditDate) {
-        DashboardStats stats = new DashboardStats();
+        if ("ROLLUP".equalsIgnoreCase(statsSource)) {
+            TransacaoResumoRepository.Totals totals = resumoRepository.sumRange(startDate, endDate, useCreditDate);
+            return buildStats(totals.getTotalApi(), totals.getTotalGeral(), totals.getCountDivergencias(),
+                    totals.getCountConciliados(), totals);
+        }
+        if ("SINGLE_PASS".equalsIgnoreCase(statsSource)) {
+            TransacaoRepository.DashboardTotals totals = useCreditDate
+                    ? repository.getDashboardTotalsByCredit(startDate, endDate)
+                    : repository.getDashboardTotals(startDate, endDate);
+            return buildStats(totals.getTotalApi(), totals.getTotalGeral(), totals.getCountDivergencias(),
+                    totals.getCountConciliados(), totals);
+        }
+
         BigDecimal api, geral;
         Long countDiv, countConc;
 
@@ -82,6 +260,18 @@ public class TransactionService {
             countConc = repository.countConciliados(startDate, endDate);
         }
 
+        // Financial Distribution
+        TransacaoRepository.FinancialStats fStats = useCreditDate
+                ? repository.getFinancialStatsByCredit(startDate, endDate)
+                : repository.getFinancialStats(startDate, endDate);
+
+        return buildStats(api, geral, countDiv, countConc, fStats);
+    }
+
+    private DashboardStats buildStats(BigDecimal api, BigDecimal geral, Long countDiv, Long countConc,
+            TransacaoRepository.FinancialStats fStats) {
+        DashboardStats stats = new DashboardStats();
+
         if (api == null)
             api = BigDecimal.ZERO;
         if (geral == null)
@@ -94,11 +284,6 @@ public class TransactionService {
         stats.setCountDivergencias(countDiv);
         stats.setCountConciliados(countConc);
 
-        // Financial Distribution
-        TransacaoRepository.FinancialStats fStats = useCreditDate
-                ? repository.getFinancialStatsByCredit(startDate, endDate)
-                : repository.getFinancialStats(startDate, endDate);
-
         java.util.Map<String, BigDecimal> dist = new java.util.LinkedHashMap<>(); // LinkedHashMap to preserve order
         if (fStats != null) {
             dist.put("Abatimento", fStats.getSumAbatimento() != null ? fStats.getSumAbatimento() : BigDecimal.ZERO);
@@ -125,67 +310,83 @@ public class TransactionService {
         return repository.findByDataOcorrenciaBetween(start, end, pageable);
     }
 
-    public List<Transacao> findAllByPeriod(java.time.LocalDate start, java.time.LocalDate end) {
-        return repository.findByDataOcorrenciaBetween(start, end);
-    }
-
     public org.springframework.data.domain.Page<Transacao> searchTransactions(String nomePagador, BigDecimal valorPago,
             org.springframework.data.domain.Pageable pageable) {
         return repository.findByNomePagadorAndValorPago(nomePagador, valorPago, pageable);
     }
 
+    /** Payer search one page at a time, continuing from a cursor of the previous page (no total count). */
+    public TransacaoKeysetRepository.CursorPage<Transacao> searchTransactions(String nomePagador,
+            BigDecimal valorPago, String cursor, int size) {
+        return keysetRepository.search(nomePagador, valorPago, cursor, size);
+    }
+
     public List<Transacao> searchTransactionsList(String nomePagador, BigDecimal valorPago) {
         return repository.findByNomePagadorAndValorPagoList(nomePagador, valorPago);
     }
 
     // --- Advanced Comparison Logic ---
 
-    public List<ComparisonResult> compareTransactions(java.time.LocalDate start, java.time.LocalDate end,
-            boolean filterByCreditDate, boolean onlyDivergences) {
-        List<Transacao> allTransactions;
-
-        if (filterByCreditDate) {
-            allTransactions = repository.findByDataCreditoBetween(start, end);
-        } else {
-            allTransactions = repository.findByDataOcorrenciaBetween(start, end);
-        }
-
-        // Group by 'Nosso Numero' to find pairs
-        java.util.Map<String, List<Transacao>> grouped = allTransactions.stream()
-                .collect(java.util.stream.Collectors.groupingBy(Transacao::getNossoNumero));
-
-        List<ComparisonResult> results = new java.util.ArrayList<>();
-
-        for (java.util.Map.Entry<String, List<Transacao>> entry : grouped.entrySet()) {
-            List<Transacao> group = entry.getValue();
-            Transacao api = group.stream().filter(t -> TipoOrigem.API == t.getTipoOrigem()).findFirst().orElse(null);
-            Transacao geral = group.stream().filter(t -> TipoOrigem.GERAL == t.getTipoOrigem()).findFirst()
-                    .orElse(null);
-
-            ComparisonResult result = new ComparisonResult();
-            result.setNossoNumero(entry.getKey());
-            result.setApiTransaction(api);
-            result.setGeralTransaction(geral);
+    /**
+     * One page of the API x GERAL comparison read from the comparacao table
+     * (divergent first), so memory use does not depend on the period length.
+     */
+    @Cacheable(COMPARISON_CACHE)
+    public org.springframework.data.domain.Page<ComparisonResult> compareTransactionsPage(java.time.LocalDate start,
+            java.time.LocalDate end, boolean filterByCreditDate, boolean onlyDivergences, String sort,
+            boolean descending, org.springframework.data.domain.Pageable pageable) {
+        return comparacaoRepository
+                .findPage(start, end, filterByCreditDate, onlyDivergences, sort, descending, pageable)
+                .map(this::toComparisonResult);
+    }
 
-            analyzeDiscrepancies(result);
+    /**
+     * Whole stored comparison of a period, in the same order as the page, one row
+     * at a time from a database cursor (reports written while they are read).
+     */
+    @Transactional(readOnly = true)
+    public void forEachStoredComparison(java.time.LocalDate start, java.time.LocalDate end,
+            boolean filterByCreditDate, boolean onlyDivergences, java.util.function.Consumer<ComparisonResult> action) {
+        comparacaoRepository.forEach(start, end, filterByCreditDate, onlyDivergences,
+                pair -> action.accept(toComparisonResult(pair)));
+    }
 
-            if (onlyDivergences && !result.isDivergent()) {
-                continue;
-            }
+    /**
+     * Fills the comparacao table on the first start after it was introduced; later
+     * imports and deletes keep it up to date key by key.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void initComparacoes() {
+        if (comparacaoRepository.isEmpty() && repository.count() > 0) {
+            int rows = comparacaoRepository.rebuild();
+            log.info("Tabela comparacao preenchida: {} pares", rows);
+        }
+    }
 
-            results.add(result);
+    private ComparisonResult toComparisonResult(TransacaoComparacaoRepository.ComparisonPair pair) {
+        Integer confianca = null;
+        if (pair.getRegra() != null && pair.getApi() != null && pair.getGeral() != null) {
+            confianca = matcher().confidence(TransactionMatcher.MatchRule.valueOf(pair.getRegra()), pair.getApi(),
+                    pair.getGeral());
         }
+        return newResult(pair.getNossoNumero(), pair.getApi(), pair.getGeral(), pair.getRegra(), confianca);
+    }
 
-        // Sort by discrepancies first, then date
-        results.sort((a, b) -> {
-            if (a.isDivergent() && !b.isDivergent())
-                return -1;
-            if (!a.isDivergent() && b.isDivergent())
-                return 1;
-            return 0;
-        });
+    private ComparisonResult newResult(String nossoNumero, Transacao api, Transacao geral, String regra,
+            Integer confianca) {
+        ComparisonResult result = new ComparisonResult();
+        result.setNossoNumero(nossoNumero);
+        result.setApiTransaction(api);
+        result.setGeralTransaction(geral);
+        result.setRegra(regra);
+        result.setConfianca(confianca);
+        analyzeDiscrepancies(result);
+        return result;
+    }
 
-        return results;
+    private TransactionMatcher matcher() {
+        return new TransactionMatcher(toleranceCents, toleranceDays);
     }
 
     private void analyzeDiscrepancies(ComparisonResult result) {
@@ -209,26 +410,34 @@ public class TransactionService {
         } else {
             // Both exist - Deep Comparison
 
+            // Differences within the configured tolerance are reported but not divergent
+            TransactionMatcher matcher = matcher();
+
             // 1. Compare Value
             if (api.getValorPago().compareTo(geral.getValorPago()) != 0) {
-                logs.add(String.format("DIVERGÊNCIA DE VALOR: API[R$ %s] vs GERAL[R$ %s]", api.getValorPago(),
-                        geral.getValorPago()));
-                divergent = true;
+                boolean tolerated = matcher.withinValueTolerance(TransactionMatcher.centsDiff(api, geral));
+                logs.add(String.format("%s DE VALOR: API[R$ %s] vs GERAL[R$ %s]",
+                        tolerated ? TOLERATED : "DIVERGÊNCIA", api.getValorPago(), geral.getValorPago()));
+                divergent |= !tolerated;
             }
 
             // 2. Compare Payment Date
             if (!api.getDataOcorrencia().isEqual(geral.getDataOcorrencia())) {
-                logs.add(String.format("DIVERGÊNCIA DATA PAGAMENTO: API[%s] vs GERAL[%s]", api.getDataOcorrencia(),
-                        geral.getDataOcorrencia()));
-                divergent = true;
+                boolean tolerated = matcher.withinDateTolerance(
+                        TransactionMatcher.daysDiff(api.getDataOcorrencia(), geral.getDataOcorrencia()));
+                logs.add(String.format("%s DATA PAGAMENTO: API[%s] vs GERAL[%s]",
+                        tolerated ? TOLERATED : "DIVERGÊNCIA", api.getDataOcorrencia(), geral.getDataOcorrencia()));
+                divergent |= !tolerated;
             }
 
             // 3. Compare Credit Date (if present)
             if (api.getDataCredito() != null && geral.getDataCredito() != null) {
                 if (!api.getDataCredito().isEqual(geral.getDataCredito())) {
-                    logs.add(String.format("DIVERGÊNCIA DATA CRÉDITO: API[%s] vs GERAL[%s]", api.getDataCredito(),
-                            geral.getDataCredito()));
-                    divergent = true;
+                    boolean tolerated = matcher.withinDateTolerance(
+                            TransactionMatcher.daysDiff(api.getDataCredito(), geral.getDataCredito()));
+                    logs.add(String.format("%s DATA CRÉDITO: API[%s] vs GERAL[%s]",
+                            tolerated ? TOLERATED : "DIVERGÊNCIA", api.getDataCredito(), geral.getDataCredito()));
+                    divergent |= !tolerated;
                 }
             }
 
@@ -245,6 +454,8 @@ public class TransactionService {
         private Transacao geralTransaction;
         private boolean divergent;
         private String status;
+        private String regra;
+        private Integer confianca;
         private List<String> logs;
 
         // Helper methods for view
@@ -321,6 +532,24 @@ public class TransactionService {
             this.status = status;
         }
 
+        /** Matching rule that formed the pair (see TransactionMatcher.MatchRule); null when unpaired. */
+        public String getRegra() {
+            return regra;
+        }
+
+        public void setRegra(String regra) {
+            this.regra = regra;
+        }
+
+        /** Confidence of the pair, 0 to 100; null when unpaired. */
+        public Integer getConfianca() {
+            return confianca;
+        }
+
+        public void setConfianca(Integer confianca) {
+            this.confianca = confianca;
+        }
+
         public List<String> getLogs() {
             return logs;
         }
@@ -330,6 +559,80 @@ public class TransactionService {
         }
     }
 
+    /** Rows whose status changed in one reconciliation run, and how long it took. */
+    public static class ReconciliationReport {
+        private int apiConciliadas;
+        private int apiDivergentes;
+        private int geralConciliadas;
+        private int geralPendentes;
+        private long elapsedMs;
+        private final java.util.Map<String, Long> phaseMs = new java.util.LinkedHashMap<>();
+
+        /** Runs one reconciliation statement, recording how long it took. */
+        int timed(String phase, java.util.function.IntSupplier statement) {
+            long start = System.currentTimeMillis();
+            int rows = statement.getAsInt();
+            phaseMs.put(phase, System.currentTimeMillis() - start);
+            return rows;
+        }
+
+        /** Elapsed time of each statement, in execution order. */
+        public java.util.Map<String, Long> getPhaseMs() {
+            return phaseMs;
+        }
+
+        public int getUpdatedRows() {
+            return apiConciliadas + apiDivergentes + geralConciliadas + geralPendentes;
+        }
+
+        public int getApiConciliadas() {
+            return apiConciliadas;
+        }
+
+        public void setApiConciliadas(int apiConciliadas) {
+            this.apiConciliadas = apiConciliadas;
+        }
+
+        public int getApiDivergentes() {
+            return apiDivergentes;
+        }
+
+        public void setApiDivergentes(int apiDivergentes) {
+            this.apiDivergentes = apiDivergentes;
+        }
+
+        public int getGeralConciliadas() {
+            return geralConciliadas;
+        }
+
+        public void setGeralConciliadas(int geralConciliadas) {
+            this.geralConciliadas = geralConciliadas;
+        }
+
+        public int getGeralPendentes() {
+            return geralPendentes;
+        }
+
+        public void setGeralPendentes(int geralPendentes) {
+            this.geralPendentes = geralPendentes;
+        }
+
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        public void setElapsedMs(long elapsedMs) {
+            this.elapsedMs = elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d API conciliadas, %d API divergentes, %d GERAL conciliadas, "
+                    + "%d GERAL sem par em %d ms", apiConciliadas, apiDivergentes, geralConciliadas,
+                    geralPendentes, elapsedMs);
+        }
+    }
+
     public static class DashboardStats {
         private BigDecimal totalApi;
         private BigDecimal totalGeral;
@@ -0,0 +1,111 @@
+-- Idempotent schema adjustments, executed after Hibernate's ddl-auto=update on
+-- every startup (spring.sql.init). Every statement must be safe to re-run.
+
+-- Sequence-based ids (pooled optimizer, allocationSize = 50) replacing IDENTITY.
+-- Tables created before the switch keep their identity/serial default, which is
+-- dropped here; each sequence is moved past the current max(id) so Hibernate's
+-- and the COPY loader's blocks never collide with existing rows.
+CREATE SEQUENCE IF NOT EXISTS transacoes_seq START WITH 1 INCREMENT BY 50;
+ALTER TABLE transacoes ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE transacoes ALTER COLUMN id DROP DEFAULT;
+SELECT setval('transacoes_seq', GREATEST((SELECT COALESCE(MAX(id), 0) FROM transacoes) + 50, (SELECT last_value FROM transacoes_seq), 50), true);
+
+CREATE SEQUENCE IF NOT EXISTS contribuintes_seq START WITH 1 INCREMENT BY 50;
+ALTER TABLE contribuintes ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE contribuintes ALTER COLUMN id DROP DEFAULT;
+SELECT setval('contribuintes_seq', GREATEST((SELECT COALESCE(MAX(id), 0) FROM contribuintes) + 50, (SELECT last_value FROM contribuintes_seq), 50), true);
+
+CREATE SEQUENCE IF NOT EXISTS pagamentos_seq START WITH 1 INCREMENT BY 50;
+ALTER TABLE pagamentos ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE pagamentos ALTER COLUMN id DROP DEFAULT;
+SELECT setval('pagamentos_seq', GREATEST((SELECT COALESCE(MAX(id), 0) FROM pagamentos) + 50, (SELECT last_value FROM pagamentos_seq), 50), true);
+
+CREATE SEQUENCE IF NOT EXISTS auditoria_consulta_seq START WITH 1 INCREMENT BY 50;
+ALTER TABLE auditoria_consulta ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE auditoria_consulta ALTER COLUMN id DROP DEFAULT;
+SELECT setval('auditoria_consulta_seq', GREATEST((SELECT COALESCE(MAX(id), 0) FROM auditoria_consulta) + 50, (SELECT last_value FROM auditoria_consulta_seq), 50), true);
+
+-- Daily rollup of transacoes for the dashboard stats, one row per date, date type
+-- (OCORRENCIA / CREDITO), tipo_origem and status_conciliacao ('' when null).
+-- Kept up to date by TransacaoResumoRepository on import, delete and
+-- reconciliation; filled here from transacoes when it is empty.
+CREATE TABLE IF NOT EXISTS transacoes_resumo_diario (
+    data DATE NOT NULL,
+    tipo_data VARCHAR(10) NOT NULL,
+    tipo_origem VARCHAR(10) NOT NULL,
+    status_conciliacao VARCHAR(20) NOT NULL,
+    quantidade BIGINT NOT NULL,
+    soma_abatimento NUMERIC NOT NULL,
+    soma_desconto NUMERIC NOT NULL,
+    soma_iof NUMERIC NOT NULL,
+    soma_juros_multa NUMERIC NOT NULL,
+    soma_outras_despesas NUMERIC NOT NULL,
+    soma_outros_creditos NUMERIC NOT NULL,
+    soma_valor_liquido NUMERIC NOT NULL,
+    soma_valor_pago NUMERIC NOT NULL,
+    soma_valor_tarifa NUMERIC NOT NULL,
+    soma_valor_titulo NUMERIC NOT NULL,
+    PRIMARY KEY (tipo_data, data, tipo_origem, status_conciliacao)
+);
+INSERT INTO transacoes_resumo_diario
+SELECT t.data_ocorrencia, 'OCORRENCIA', t.tipo_origem, COALESCE(t.status_conciliacao, ''), COUNT(*),
+       COALESCE(SUM(t.abatimento), 0), COALESCE(SUM(t.desconto), 0), COALESCE(SUM(t.iof), 0),
+       COALESCE(SUM(t.juros_multa), 0), COALESCE(SUM(t.outras_despesas), 0), COALESCE(SUM(t.outros_creditos), 0),
+       COALESCE(SUM(t.valor_liquido), 0), COALESCE(SUM(t.valor_pago), 0), COALESCE(SUM(t.valor_tarifa), 0),
+       COALESCE(SUM(t.valor_titulo), 0)
+FROM transacoes t
+WHERE t.data_ocorrencia IS NOT NULL AND NOT EXISTS (SELECT 1 FROM transacoes_resumo_diario)
+GROUP BY t.data_ocorrencia, t.tipo_origem, COALESCE(t.status_conciliacao, '')
+UNION ALL
+SELECT t.data_credito, 'CREDITO', t.tipo_origem, COALESCE(t.status_conciliacao, ''), COUNT(*),
+       COALESCE(SUM(t.abatimento), 0), COALESCE(SUM(t.desconto), 0), COALESCE(SUM(t.iof), 0),
+       COALESCE(SUM(t.juros_multa), 0), COALESCE(SUM(t.outras_despesas), 0), COALESCE(SUM(t.outros_creditos), 0),
+       COALESCE(SUM(t.valor_liquido), 0), COALESCE(SUM(t.valor_pago), 0), COALESCE(SUM(t.valor_tarifa), 0),
+       COALESCE(SUM(t.valor_titulo), 0)
+FROM transacoes t
+WHERE t.data_credito IS NOT NULL AND NOT EXISTS (SELECT 1 FROM transacoes_resumo_diario)
+GROUP BY t.data_credito, t.tipo_origem, COALESCE(t.status_conciliacao, '');
+
+-- Keyset pagination (TransacaoKeysetRepository): one index per sort, with the same
+-- expressions and directions as its ORDER BY, so the next page seeks to the cursor
+-- instead of skipping OFFSET rows.
+CREATE INDEX IF NOT EXISTS idx_transacoes_keyset_ocorrencia ON transacoes
+    (lower(coalesce(nome_pagador, '')), nosso_numero, tipo_origem, coalesce(status_conciliacao, '') DESC,
+     data_ocorrencia DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_transacoes_keyset_credito ON transacoes
+    (lower(coalesce(nome_pagador, '')), nosso_numero, tipo_origem, coalesce(status_conciliacao, '') DESC,
+     data_credito DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_transacoes_keyset_busca ON transacoes (data_ocorrencia DESC, id DESC);
+
+-- Payer/contribuinte search: trigram (pg_trgm) GIN indexes over accent- and
+-- case-insensitive copies of the names. unaccent() is only STABLE, so
+-- normaliza_busca() pins the dictionary to be usable in generated columns and
+-- indexes. Queries must normalize the term with the same function.
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE EXTENSION IF NOT EXISTS unaccent;
+CREATE OR REPLACE FUNCTION normaliza_busca(text) RETURNS text
+    LANGUAGE sql IMMUTABLE STRICT PARALLEL SAFE
+    AS $$ SELECT lower(public.unaccent('public.unaccent'::regdictionary, $1)) $$;
+ALTER TABLE transacoes ADD COLUMN IF NOT EXISTS nome_pagador_normalizado TEXT
+    GENERATED ALWAYS AS (normaliza_busca(nome_pagador)) STORED;
+CREATE INDEX IF NOT EXISTS idx_transacoes_nome_trgm ON transacoes USING gin (nome_pagador_normalizado gin_trgm_ops);
+
+-- Contribuinte search (ContribuinteSpecifications) only emits the filters given,
+-- each with an index it can use: the name through an expression index (the
+-- criteria query cannot see a generated column), the inscrição as a prefix and
+-- bairro/atividade case-insensitively. CPF/CNPJ is an equality on idx_contrib_cpf_cnpj.
+CREATE INDEX IF NOT EXISTS idx_contrib_nome_busca_trgm ON contribuintes USING gin (normaliza_busca(nome) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_contrib_inscricao_prefixo ON contribuintes (inscricao_municipal varchar_pattern_ops);
+CREATE INDEX IF NOT EXISTS idx_contrib_bairro_lower ON contribuintes (lower(bairro));
+CREATE INDEX IF NOT EXISTS idx_contrib_atividade_lower ON contribuintes (lower(atividade_economica));
+
+-- Import batches whose files are committed but whose reconciliation (status, daily
+-- rollup, comparacao) has not run yet. One row per file, written in the file's own
+-- transaction (no unique key, so files of one batch never wait on each other) and
+-- deleted when the batch reconciliation commits; ImportService re-runs what is
+-- left on startup.
+CREATE TABLE IF NOT EXISTS conciliacao_pendente (
+    import_batch VARCHAR(36) NOT NULL,
+    criado_em TIMESTAMP NOT NULL DEFAULT now()
+);
+CREATE INDEX IF NOT EXISTS idx_conciliacao_pendente_lote ON conciliacao_pendente (import_batch);
@@ -0,0 +1,140 @@
+package com.compara.retorno.repository;
+
+import com.compara.retorno.model.Contribuinte;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Explains the SQL the contribuinte search really sends and checks every filter
+ * is served by an index: no catch-all {@code IS NULL} branches, no sequential
+ * scan on contribuintes. Sequential scans are disabled for the EXPLAIN so an
+ * almost empty test table does not hide a missing index.
+ *
+ * Criteria values are inlined (value_handling_mode) so the captured statement can
+ * be explained as is; with bound values PostgreSQL plans the same way for the
+ * first executions (custom plans).
+ *
+ * Needs PostgreSQL (CNAB_TEST_DB_URL, see {@link TransacaoBatchInsertTest}).
+ */
+@EnabledIfEnvironmentVariable(named = "CNAB_TEST_DB_URL", matches = ".+")
+@SpringBootTest(properties = {
+        "spring.datasource.url=${CNAB_TEST_DB_URL}",
+        "spring.datasource.username=${CNAB_TEST_DB_USER:postgres}",
+        "spring.datasource.password=${CNAB_TEST_DB_PASSWORD:admin}",
+        "spring.jpa.properties.hibernate.criteria.value_handling_mode=inline",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+                + "com.compara.retorno.repository.ContribuinteSearchPlanTest$Recorder"
+})
+class ContribuinteSearchPlanTest {
+
+    /** Keeps the SQL Hibernate sends. */
+    public static class Recorder implements StatementInspector {
+        static final List<String> STATEMENTS = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public String inspect(String sql) {
+            STATEMENTS.add(sql);
+            return sql;
+        }
+    }
+
+    @Autowired
+    private ContribuinteRepository repository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /** Statement behind the last plan. */
+    private String lastSql;
+
+    @Test
+    void cpfCnpjIsAnEqualityLookup() {
+        String plan = explain(ContribuinteSpecifications.search("12345678901", null, null, null));
+        assertTrue(plan.contains("idx_contrib_cpf_cnpj"), plan);
+    }
+
+    @Test
+    void inscricaoIsAPrefixLookup() {
+        String plan = explain(ContribuinteSpecifications.search("2024", null, null, null));
+        assertTrue(plan.contains("inscricao_municipal"), plan);
+    }
+
+    @Test
+    void nameUsesTheTrigramIndex() {
+        String plan = explain(ContribuinteSpecifications.search("José da Silva", null, null, null));
+        assertTrue(plan.contains("idx_contrib_nome_busca_trgm"), plan);
+    }
+
+    @Test
+    void bairroUsesTheLowerIndex() {
+        String plan = explain(ContribuinteSpecifications.search(null, "Centro", null, null));
+        assertTrue(plan.contains("idx_contrib_bairro_lower"), plan);
+    }
+
+    @Test
+    void atividadeUsesTheLowerIndex() {
+        String plan = explain(ContribuinteSpecifications.search(null, null, "Comércio", null));
+        assertTrue(plan.contains("idx_contrib_atividade_lower"), plan);
+    }
+
+    @Test
+    void situacaoUsesItsIndex() {
+        String plan = explain(ContribuinteSpecifications.search(null, null, null, "ATIVO"));
+        assertTrue(plan.contains("idx_contrib_situacao"), plan);
+    }
+
+    @Test
+    void onlyTheGivenFiltersAreSent() {
+        explain(ContribuinteSpecifications.search(null, "Centro", null, "ATIVO"));
+        String where = lastSql.substring(lastSql.indexOf(" where ")).toLowerCase();
+        assertTrue(where.contains("lower(") && where.contains("bairro"), where);
+        assertTrue(where.contains("situacao_cadastral"), where);
+        assertFalse(where.contains("atividade_economica"), where);
+        assertFalse(where.contains("cpf_cnpj") || where.contains("inscricao_municipal"), where);
+    }
+
+    private String explain(Specification<Contribuinte> spec) {
+        Recorder.STATEMENTS.clear();
+        repository.findAll(spec);
+        List<String> selects = Recorder.STATEMENTS.stream()
+                .filter(sql -> sql.startsWith("select") && sql.contains("contribuintes")).toList();
+        assertEquals(1, selects.size(), Recorder.STATEMENTS::toString);
+        String sql = selects.get(0);
+        assertFalse(sql.toLowerCase().contains(" is null"), sql);
+        lastSql = sql;
+
+        String plan = jdbcTemplate.execute((ConnectionCallback<String>) con -> {
+            try (Statement st = con.createStatement()) {
+                st.execute("SET enable_seqscan = off");
+                StringBuilder lines = new StringBuilder();
+                try (ResultSet rs = st.executeQuery("EXPLAIN " + sql)) {
+                    while (rs.next()) {
+                        lines.append(rs.getString(1)).append('\n');
+                    }
+                } finally {
+                    st.execute("RESET enable_seqscan");
+                }
+                return lines.toString();
+            }
+        });
+        assertFalse(plan.contains("Seq Scan"), plan);
+        assertTrue(plan.contains("Index Cond") || plan.contains("Recheck Cond"), plan);
+        return plan;
+    }
+}
@@ -0,0 +1,141 @@
+package com.compara.retorno.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the single-pass FILTER stats query with the previous six-query path on
+ * a generated table, checking both return the same figures and printing the
+ * median time of each.
+ *
+ * Needs PostgreSQL (CNAB_TEST_DB_URL, see {@link TransacaoBatchInsertTest}) and
+ * CNAB_BENCHMARK_ROWS with the number of rows to generate, e.g. 5000000.
+ */
+@EnabledIfEnvironmentVariable(named = "CNAB_TEST_DB_URL", matches = ".+")
+@EnabledIfEnvironmentVariable(named = "CNAB_BENCHMARK_ROWS", matches = "\\d+")
+@SpringBootTest(properties = {
+        "spring.datasource.url=${CNAB_TEST_DB_URL}",
+        "spring.datasource.username=${CNAB_TEST_DB_USER:postgres}",
+        "spring.datasource.password=${CNAB_TEST_DB_PASSWORD:admin}"
+})
+class DashboardStatsBenchmarkTest {
+
+    private static final int RUNS = 5;
+    private static final LocalDate START = LocalDate.of(2025, 1, 1);
+    private static final LocalDate END = LocalDate.of(2026, 12, 31);
+
+    @Autowired
+    private TransacaoRepository repository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final String fileSource = "benchmark-" + System.nanoTime();
+
+    @BeforeEach
+    void generateRows() {
+        long rows = Long.parseLong(System.getenv("CNAB_BENCHMARK_ROWS"));
+        // Two years of data, half API / half GERAL, statuses spread evenly
+        jdbcTemplate.update("INSERT INTO transacoes (id, tipo_origem, nosso_numero, valor_pago, valor_liquido, "
+                + "valor_titulo, valor_tarifa, juros_multa, desconto, abatimento, iof, outras_despesas, "
+                + "outros_creditos, data_ocorrencia, data_credito, file_source, status_conciliacao) "
+                + "SELECT nextval('transacoes_seq'), CASE WHEN g % 2 = 0 THEN 'API' ELSE 'GERAL' END, 'BENCH' || g, "
+                + "(g % 100000) / 100.0, (g % 100000) / 100.0 - 1.5, (g % 100000) / 100.0, 1.5, g % 7, g % 3, "
+                + "g % 5, 0, 0, 0, DATE '2025-01-01' + (g % 730)::int, DATE '2025-01-01' + ((g + 1) % 730)::int, ?, "
+                + "CASE g % 3 WHEN 0 THEN 'CONCILIADO' WHEN 1 THEN 'DIVERGENTE' ELSE 'PENDENTE' END "
+                + "FROM generate_series(1, ?) g", fileSource, rows);
+        jdbcTemplate.execute("ANALYZE transacoes");
+    }
+
+    @AfterEach
+    void deleteRows() {
+        jdbcTemplate.update("DELETE FROM transacoes WHERE file_source = ?", fileSource);
+    }
+
+    @Test
+    void singlePassMatchesMultiQueryPath() {
+        for (boolean credit : new boolean[] { false, true }) {
+            List<Object> multi = multiQuery(credit);
+            List<Object> single = singlePass(credit);
+            assertEquals(normalize(multi), normalize(single), credit ? "crédito" : "ocorrência");
+
+            long multiMs = median(() -> multiQuery(credit));
+            long singleMs = median(() -> singlePass(credit));
+            System.out.printf("Stats %s: %d queries %d ms, single pass %d ms%n",
+                    credit ? "crédito" : "ocorrência", 6, multiMs, singleMs);
+        }
+    }
+
+    private List<Object> multiQuery(boolean credit) {
+        TransacaoRepository.FinancialStats f = credit ? repository.getFinancialStatsByCredit(START, END)
+                : repository.getFinancialStats(START, END);
+        List<Object> values = new ArrayList<>();
+        values.add(credit ? repository.sumValorApiByCredit(START, END) : repository.sumValorApi(START, END));
+        values.add(credit ? repository.sumValorGeralByCredit(START, END) : repository.sumValorGeral(START, END));
+        values.add(credit ? repository.countDivergenciasByCredit(START, END) : repository.countDivergencias(START, END));
+        values.add(credit ? repository.countConciliadosByCredit(START, END) : repository.countConciliados(START, END));
+        addFinancial(values, f);
+        return values;
+    }
+
+    private List<Object> singlePass(boolean credit) {
+        TransacaoRepository.DashboardTotals t = credit ? repository.getDashboardTotalsByCredit(START, END)
+                : repository.getDashboardTotals(START, END);
+        List<Object> values = new ArrayList<>();
+        values.add(t.getTotalApi());
+        values.add(t.getTotalGeral());
+        values.add(t.getCountDivergencias());
+        values.add(t.getCountConciliados());
+        addFinancial(values, t);
+        return values;
+    }
+
+    private void addFinancial(List<Object> values, TransacaoRepository.FinancialStats f) {
+        values.add(f.getSumAbatimento());
+        values.add(f.getSumDesconto());
+        values.add(f.getSumIof());
+        values.add(f.getSumJurosMulta());
+        values.add(f.getSumOutrasDespesas());
+        values.add(f.getSumOutrosCreditos());
+        values.add(f.getSumValorLiquido());
+        values.add(f.getSumValorPago());
+        values.add(f.getSumValorTarifa());
+        values.add(f.getSumValorTitulo());
+    }
+
+    /** BigDecimal scale may differ between JPQL and native results. */
+    private List<String> normalize(List<Object> values) {
+        List<String> out = new ArrayList<>();
+        for (Object v : values) {
+            out.add(v instanceof BigDecimal ? ((BigDecimal) v).stripTrailingZeros().toPlainString()
+                    : String.valueOf(v));
+        }
+        return out;
+    }
+
+    private long median(Supplier<?> path) {
+        path.get(); // warm-up
+        List<Long> times = new ArrayList<>();
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            path.get();
+            times.add((System.nanoTime() - start) / 1_000_000);
+        }
+        Collections.sort(times);
+        return times.get(RUNS / 2);
+    }
+}
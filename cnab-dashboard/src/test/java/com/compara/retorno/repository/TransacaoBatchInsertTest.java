@@ -0,0 +1,85 @@
+package com.compara.retorno.repository;
+
+import com.compara.retorno.model.TipoOrigem;
+import com.compara.retorno.model.Transacao;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that saving through JPA is batched: with pooled sequence ids a 10k-row
+ * save must cost a few hundred JDBC statements, not one per row.
+ *
+ * Needs a PostgreSQL database: set CNAB_TEST_DB_URL (and optionally
+ * CNAB_TEST_DB_USER / CNAB_TEST_DB_PASSWORD) to run it.
+ */
+@EnabledIfEnvironmentVariable(named = "CNAB_TEST_DB_URL", matches = ".+")
+@SpringBootTest(properties = {
+        "spring.datasource.url=${CNAB_TEST_DB_URL}",
+        "spring.datasource.username=${CNAB_TEST_DB_USER:postgres}",
+        "spring.datasource.password=${CNAB_TEST_DB_PASSWORD:admin}",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+class TransacaoBatchInsertTest {
+
+    private static final int ROWS = 10_000;
+
+    @Autowired
+    private TransacaoRepository repository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${cnab.jdbc.batch-size}")
+    private int batchSize;
+
+    @Test
+    void saveAllOf10kRowsIsBatched() {
+        String fileSource = "batch-test-" + System.nanoTime();
+        List<Transacao> rows = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            Transacao t = new Transacao();
+            t.setTipoOrigem(TipoOrigem.API);
+            t.setNossoNumero("BATCH" + i);
+            t.setValorPago(new BigDecimal("10.00"));
+            t.setDataOcorrencia(LocalDate.of(2026, 1, 1));
+            t.setFileSource(fileSource);
+            t.setStatusConciliacao("PENDENTE");
+            rows.add(t);
+        }
+
+        Statistics stats = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        try {
+            stats.clear();
+            tx.executeWithoutResult(status -> repository.saveAll(rows));
+            long statements = stats.getPrepareStatementCount();
+
+            // one nextval per 50 ids + one prepared statement per JDBC batch
+            long expected = ROWS / Transacao.ID_ALLOCATION_SIZE + (ROWS + batchSize - 1) / batchSize;
+            assertEquals(ROWS, stats.getEntityInsertCount());
+            assertTrue(statements <= expected + 5,
+                    "esperado até " + (expected + 5) + " statements, executados " + statements);
+        } finally {
+            tx.executeWithoutResult(status -> repository.deleteByFileSourceIn(List.of(fileSource)));
+        }
+    }
+}
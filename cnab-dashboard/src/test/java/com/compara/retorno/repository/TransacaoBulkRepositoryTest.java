@@ -0,0 +1,128 @@
+package com.compara.retorno.repository;
+
+import com.compara.retorno.model.TipoOrigem;
+import com.compara.retorno.model.Transacao;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Row encoder of the COPY loader. Each line is read back the way PostgreSQL reads
+ * {@code FORMAT csv}: an unquoted empty value is NULL, a quoted one is an empty string.
+ */
+class TransacaoBulkRepositoryTest {
+
+    private static final int COLUMNS = 37;
+    private static final int NOSSO_NUMERO = 10;
+    private static final int NOME_PAGADOR = 20;
+    private static final int VALOR_PAGO = 28;
+    private static final int DATA_OCORRENCIA = 32;
+    private static final int FILE_SOURCE = 34;
+
+    @Test
+    void testWriteRow_PlainValues() throws IOException {
+        Transacao t = transacao();
+
+        String line = encode(t);
+
+        assertEquals("7,\"API\",\"237\",,,,,,,,\"000123\",,,,,,,,,,\"JOSE\",,,,,,,,10.50,,,,2024-01-15,,"
+                + "\"ret.txt\",\"lote-1\",\"PENDENTE\"\n", line);
+        List<String> fields = parse(line);
+        assertEquals(COLUMNS, fields.size());
+        assertEquals("10.50", fields.get(VALOR_PAGO));
+        assertEquals("2024-01-15", fields.get(DATA_OCORRENCIA));
+    }
+
+    @Test
+    void testWriteRow_QuotesDelimitersAndNewlines() throws IOException {
+        Transacao t = transacao();
+        t.setNomePagador("Padaria \"Pão Quente\", Ltda\nFilial 2");
+        t.setFileSource("retorno,\"março\"\r\n.txt");
+
+        List<String> fields = parse(encode(t));
+
+        assertEquals(COLUMNS, fields.size());
+        assertEquals("Padaria \"Pão Quente\", Ltda\nFilial 2", fields.get(NOME_PAGADOR));
+        assertEquals("retorno,\"março\"\r\n.txt", fields.get(FILE_SOURCE));
+        assertEquals("lote-1", fields.get(FILE_SOURCE + 1), "columns after the escaped ones stay aligned");
+    }
+
+    @Test
+    void testWriteRow_NullIsNotEmptyString() throws IOException {
+        Transacao t = transacao();
+        t.setNomePagador("");
+        t.setFileSource(null);
+
+        String line = encode(t);
+        List<String> fields = parse(line);
+
+        assertTrue(line.contains(",\"\","), line);
+        assertEquals("", fields.get(NOME_PAGADOR));
+        assertNull(fields.get(FILE_SOURCE));
+        assertNull(fields.get(3), "lote");
+        assertEquals("000123", fields.get(NOSSO_NUMERO));
+    }
+
+    private static Transacao transacao() {
+        Transacao t = new Transacao();
+        t.setId(7L);
+        t.setTipoOrigem(TipoOrigem.API);
+        t.setBanco("237");
+        t.setNossoNumero("000123");
+        t.setNomePagador("JOSE");
+        t.setValorPago(new BigDecimal("10.50"));
+        t.setDataOcorrencia(LocalDate.of(2024, 1, 15));
+        t.setFileSource("ret.txt");
+        t.setImportBatch("lote-1");
+        t.setStatusConciliacao("PENDENTE");
+        return t;
+    }
+
+    private static String encode(Transacao t) throws IOException {
+        StringWriter out = new StringWriter();
+        TransacaoBulkRepository.writeRow(out, t);
+        return out.toString();
+    }
+
+    /** Parses one CSV record (which may span lines) the way COPY does; unquoted empty becomes null. */
+    private static List<String> parse(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        boolean inQuotes = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (inQuotes) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    inQuotes = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                inQuotes = true;
+                quoted = true;
+            } else if (c == ',' || c == '\n') {
+                fields.add(quoted || value.length() > 0 ? value.toString() : null);
+                value.setLength(0);
+                quoted = false;
+                if (c == '\n') {
+                    assertEquals(line.length() - 1, i, "record ends at the first unquoted newline");
+                }
+            } else {
+                value.append(c);
+            }
+        }
+        assertFalse(inQuotes, "unterminated quote");
+        return fields;
+    }
+}
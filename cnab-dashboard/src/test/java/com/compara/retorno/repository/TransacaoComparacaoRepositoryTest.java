@@ -0,0 +1,96 @@
+package com.compara.retorno.repository;
+
+import com.compara.retorno.model.Comparacao;
+import com.compara.retorno.model.TipoOrigem;
+import com.compara.retorno.model.Transacao;
+import com.compara.retorno.service.TransactionMatcher;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** The rows the comparacao refresh stores for the matcher output of a key. */
+class TransacaoComparacaoRepositoryTest {
+
+    private static final LocalDate DAY = LocalDate.of(2026, 3, 10);
+
+    @Test
+    void testPairs_DuplicatePaymentKeepsItsOwnRow() {
+        TransactionMatcher matcher = new TransactionMatcher();
+        Transacao api1 = tx(1, TipoOrigem.API, "100.00", DAY);
+        Transacao geral = tx(2, TipoOrigem.GERAL, "100.00", DAY);
+        Transacao api2 = tx(3, TipoOrigem.API, "100.00", DAY);
+
+        List<Comparacao> pairs = TransacaoComparacaoRepository.pairs("001",
+                matcher.match(List.of(api1, api2), List.of(geral)), matcher);
+
+        assertEquals(2, pairs.size());
+        assertEquals(1, pairs.get(0).getPar());
+        assertEquals("EXATO", pairs.get(0).getRegra());
+        assertEquals("CONCILIADO", pairs.get(0).getStatus());
+        assertEquals(0, pairs.get(0).getDivergencias());
+        assertEquals(2, pairs.get(1).getPar());
+        assertEquals(3L, pairs.get(1).getApiId());
+        assertEquals("SOMENTE_API", pairs.get(1).getStatus());
+        assertEquals(Comparacao.AUSENTE_GERAL, pairs.get(1).getDivergencias());
+        assertNull(pairs.get(1).getRegra());
+    }
+
+    @Test
+    void testPairs_ToleranceTierIsStoredWithoutDivergence() {
+        TransactionMatcher matcher = new TransactionMatcher(5, 2);
+        Transacao api = tx(1, TipoOrigem.API, "100.00", DAY);
+        Transacao geral = tx(2, TipoOrigem.GERAL, "100.03", DAY.plusDays(2));
+        api.setDataCredito(DAY.plusDays(1));
+        geral.setDataCredito(DAY.plusDays(5));
+
+        Comparacao pair = TransacaoComparacaoRepository.pairs("001", matcher.match(List.of(api), List.of(geral)),
+                matcher).get(0);
+
+        assertEquals("TOLERANCIA", pair.getRegra());
+        assertEquals("DIVERGENTE", pair.getStatus());
+        assertEquals(Comparacao.DATA_CREDITO, pair.getDivergencias(), "only the credit date is out of tolerance");
+        assertEquals(new BigDecimal("-0.03"), pair.getDeltaValor());
+        assertEquals(2, pair.getDeltaDiasPagamento());
+        assertEquals(4, pair.getDeltaDiasCredito());
+        assertEquals(new BigDecimal("100.00"), pair.getValorPago(), "API values are shown");
+    }
+
+    @Test
+    void testPairs_RowsWithoutKeyArePairedByDocumentNotPosition() {
+        TransactionMatcher matcher = new TransactionMatcher();
+        Transacao api = keyless(1, TipoOrigem.API, "50.00", "12345678000190", "ACME");
+        Transacao other = keyless(2, TipoOrigem.GERAL, "80.00", "99999999000199", "OUTRO");
+        Transacao geral = keyless(3, TipoOrigem.GERAL, "50.00", "12.345.678/0001-90", "ACME LTDA");
+
+        List<Comparacao> pairs = TransacaoComparacaoRepository.pairs("",
+                matcher.matchWithoutKey(List.of(api), List.of(other, geral)), matcher);
+
+        assertEquals(2, pairs.size());
+        assertEquals("DOCUMENTO", pairs.get(0).getRegra());
+        assertEquals(3L, pairs.get(0).getGeralId());
+        assertEquals("SOMENTE_GERAL", pairs.get(1).getStatus());
+        assertEquals(2L, pairs.get(1).getGeralId());
+    }
+
+    private static Transacao keyless(long id, TipoOrigem origem, String valor, String inscricao, String nome) {
+        Transacao t = tx(id, origem, valor, DAY);
+        t.setNossoNumero("");
+        t.setNumInscricao(inscricao);
+        t.setNomePagador(nome);
+        return t;
+    }
+
+    private static Transacao tx(long id, TipoOrigem origem, String valor, LocalDate data) {
+        Transacao t = new Transacao();
+        t.setId(id);
+        t.setNossoNumero("001");
+        t.setTipoOrigem(origem);
+        t.setValorPago(new BigDecimal(valor));
+        t.setDataOcorrencia(data);
+        return t;
+    }
+}
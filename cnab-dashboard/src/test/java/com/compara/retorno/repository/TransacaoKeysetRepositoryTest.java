@@ -0,0 +1,117 @@
+package com.compara.retorno.repository;
+
+import com.compara.retorno.model.Transacao;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Walks the keyset pages forward and back over rows with repeated and missing
+ * payer names and checks they visit every row exactly once, in the same order as
+ * a plain ORDER BY.
+ *
+ * Needs PostgreSQL (CNAB_TEST_DB_URL, see {@link TransacaoBatchInsertTest}).
+ */
+@EnabledIfEnvironmentVariable(named = "CNAB_TEST_DB_URL", matches = ".+")
+@SpringBootTest(properties = {
+        "spring.datasource.url=${CNAB_TEST_DB_URL}",
+        "spring.datasource.username=${CNAB_TEST_DB_USER:postgres}",
+        "spring.datasource.password=${CNAB_TEST_DB_PASSWORD:admin}"
+})
+class TransacaoKeysetRepositoryTest {
+
+    private static final int ROWS = 95;
+    private static final int PAGE = 10;
+    // A period no real data uses, so only the generated rows are listed
+    private static final LocalDate START = LocalDate.of(1990, 1, 1);
+    private static final LocalDate END = LocalDate.of(1990, 1, 31);
+
+    @Autowired
+    private TransacaoKeysetRepository keysetRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final String fileSource = "keyset-" + System.nanoTime();
+
+    @BeforeEach
+    void generateRows() {
+        jdbcTemplate.update("INSERT INTO transacoes (id, tipo_origem, nosso_numero, nome_pagador, valor_pago, "
+                + "data_ocorrencia, data_credito, file_source, status_conciliacao) "
+                + "SELECT nextval('transacoes_seq'), CASE WHEN g % 2 = 0 THEN 'API' ELSE 'GERAL' END, "
+                + "'KS' || (g % 7), CASE WHEN g % 11 = 0 THEN NULL WHEN g % 2 = 0 THEN 'Pagador ' || (g % 4) "
+                + "ELSE 'PAGADOR ' || (g % 4) END, 10, DATE '1990-01-01' + (g % 20)::int, "
+                + "DATE '1990-01-02' + (g % 20)::int, ?, "
+                + "CASE g % 3 WHEN 0 THEN 'CONCILIADO' WHEN 1 THEN 'DIVERGENTE' ELSE NULL END "
+                + "FROM generate_series(1, ?) g", fileSource, ROWS);
+    }
+
+    @AfterEach
+    void deleteRows() {
+        jdbcTemplate.update("DELETE FROM transacoes WHERE file_source = ?", fileSource);
+    }
+
+    @Test
+    void pagesVisitEveryRowInOrder() {
+        List<Long> expected = jdbcTemplate.queryForList("SELECT t.id FROM transacoes t "
+                + "WHERE t.data_ocorrencia BETWEEN ? AND ? ORDER BY lower(coalesce(t.nome_pagador, '')), "
+                + "t.nosso_numero, t.tipo_origem, coalesce(t.status_conciliacao, '') DESC, "
+                + "t.data_ocorrencia DESC, t.id DESC", Long.class, START, END);
+        assertEquals(ROWS, expected.size());
+
+        List<List<Long>> forward = new ArrayList<>();
+        TransacaoKeysetRepository.CursorPage<Transacao> page = keysetRepository.findDashboardPage(START, END, false,
+                null, null, null, PAGE);
+        assertNull(page.getPreviousCursor());
+        forward.add(ids(page));
+        while (page.hasNext()) {
+            page = keysetRepository.findDashboardPage(START, END, false, null, null, page.getNextCursor(), PAGE);
+            forward.add(ids(page));
+        }
+        assertEquals(expected, forward.stream().flatMap(List::stream).toList());
+        assertEquals((ROWS + PAGE - 1) / PAGE, forward.size());
+
+        // Back from the last page: the same pages again, in reverse
+        for (int i = forward.size() - 2; i >= 0; i--) {
+            page = keysetRepository.findDashboardPage(START, END, false, null, null, page.getPreviousCursor(), PAGE);
+            assertEquals(forward.get(i), ids(page));
+        }
+        assertFalse(page.hasPrevious());
+    }
+
+    @Test
+    void searchIgnoresAccentsAndRanksBySimilarity() {
+        // A value no real data uses, so only these rows can match
+        BigDecimal valor = new BigDecimal("0.37");
+        for (String nome : List.of("Josefa Silveira", "JOSÉ DA SILVA", "Maria Souza")) {
+            jdbcTemplate.update("INSERT INTO transacoes (id, tipo_origem, nosso_numero, nome_pagador, valor_pago, "
+                    + "data_ocorrencia, file_source) VALUES (nextval('transacoes_seq'), 'API', 'TRGM', ?, ?, ?, ?)",
+                    nome, valor, START, fileSource);
+        }
+
+        TransacaoKeysetRepository.CursorPage<Transacao> page = keysetRepository.search("jose da silva", valor, null,
+                1);
+        assertEquals(List.of("JOSÉ DA SILVA"), page.getContent().stream().map(Transacao::getNomePagador).toList());
+
+        page = keysetRepository.search("jose da silva", valor, page.getNextCursor(), 1);
+        assertEquals(List.of("Josefa Silveira"), page.getContent().stream().map(Transacao::getNomePagador).toList());
+        assertFalse(page.hasNext());
+    }
+
+    private List<Long> ids(TransacaoKeysetRepository.CursorPage<Transacao> page) {
+        return page.getContent().stream().map(Transacao::getId).toList();
+    }
+}
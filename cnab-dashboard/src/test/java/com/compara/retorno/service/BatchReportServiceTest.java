@@ -0,0 +1,82 @@
+package com.compara.retorno.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchReportServiceTest {
+
+    private final BatchReportService batchReportService = new BatchReportService();
+
+    @BeforeEach
+    void setUp() {
+        batchReportService.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        batchReportService.stop();
+    }
+
+    @Test
+    void testWriteZip_RendersInParallelAndSkipsEmptyDocuments() throws Exception {
+        // Each document waits for three others: only passes when four render at once
+        CyclicBarrier together = new CyclicBarrier(4);
+        List<BatchReportService.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            int n = i;
+            entries.add(new BatchReportService.Entry("doc" + n + ".pdf", out -> {
+                together.await(5, TimeUnit.SECONDS);
+                out.write(("conteudo " + n).getBytes(StandardCharsets.UTF_8));
+                return n == 3 ? 0 : 1;
+            }));
+        }
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+
+        int written = batchReportService.writeZip(entries, zip);
+
+        assertEquals(7, written);
+        Map<String, String> files = unzip(zip.toByteArray());
+        assertEquals(7, files.size());
+        assertFalse(files.containsKey("doc3.pdf"), "no rows, no document");
+        assertEquals("conteudo 7", files.get("doc7.pdf"));
+    }
+
+    @Test
+    void testWriteZip_FailedDocumentStopsThePack() {
+        List<BatchReportService.Entry> entries = List.of(
+                new BatchReportService.Entry("ok.pdf", out -> 1),
+                new BatchReportService.Entry("falha.pdf", out -> {
+                    throw new IllegalStateException("sem conexão");
+                }));
+
+        IOException e = assertThrows(IOException.class,
+                () -> batchReportService.writeZip(entries, new ByteArrayOutputStream()));
+        assertTrue(e.getMessage().contains("sem conexão"), e.getMessage());
+    }
+
+    private static Map<String, String> unzip(byte[] zip) throws IOException {
+        Map<String, String> files = new TreeMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            for (ZipEntry entry; (entry = in.getNextEntry()) != null;) {
+                files.put(entry.getName(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return files;
+    }
+}
@@ -5,11 +5,21 @@ import org.junit.jupiter.api.Test;
 import org.springframework.mock.web.MockMultipartFile;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public class CnabParserServiceTest {
 
@@ -44,4 +54,70 @@ public class CnabParserServiceTest {
         // Valor Tarifa: 198-213 -> '000000000000000' -> 0.00
         assertEquals(0, t.getValorTarifa().doubleValue());
     }
+
+    @Test
+    public void testByteEngineMatchesLegacyOnSampleFiles() throws Exception {
+        Path samples = Paths.get("..", "Lotes API");
+        assumeTrue(Files.isDirectory(samples), "pasta de amostras 'Lotes API' não encontrada");
+
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(samples)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        assertTrue(!files.isEmpty());
+
+        CnabParserService legacy = new CnabParserService();
+        legacy.setEngine(CnabParserService.Engine.LEGACY);
+        CnabParserService bytes = new CnabParserService();
+        bytes.setEngine(CnabParserService.Engine.BYTES);
+
+        int total = 0;
+        for (Path path : files) {
+            MockMultipartFile file = new MockMultipartFile("file", path.getFileName().toString(), "text/plain",
+                    Files.readAllBytes(path));
+            List<Transacao> expected = legacy.parseFile(file, "API");
+            List<Transacao> actual = bytes.parseFile(file, "API");
+            List<Transacao> mapped = new ArrayList<>();
+            bytes.parse(path, path.getFileName().toString(), "API", mapped::add);
+
+            assertEquals(expected.size(), actual.size(), path.toString());
+            assertEquals(expected.size(), mapped.size(), path.toString());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(describe(expected.get(i)), describe(actual.get(i)), path + " #" + i);
+                assertEquals(describe(expected.get(i)), describe(mapped.get(i)), path + " #" + i);
+            }
+            total += expected.size();
+        }
+        assertTrue(total > 0);
+    }
+
+    @Test
+    public void testByteEngine_MonetaryValuesKeepLegacyScale() throws Exception {
+        String lineT = "1040001300001T 460000004910850000000   14999000002922185812922185        060320260000000000702680010000002922185                  092040125594000181MARTINS ENGENHARIA LTDA                           000000000000000040301                     ";
+        String lineU = "1040001300002U 46000000000000000000000000000000000000000000000000000000000000000000000070200000000000070260000000000000000000000000000000310220261102202600000000000000000000000000000000000000000000000000000000000000000000000000000000       ";
+        MockMultipartFile file = new MockMultipartFile("file", "test.ret", "text/plain",
+                (lineT + "\r\n" + lineU + "\r\n").getBytes(StandardCharsets.UTF_8));
+
+        CnabParserService legacy = new CnabParserService();
+        legacy.setEngine(CnabParserService.Engine.LEGACY);
+        Transacao expected = legacy.parseFile(file, "GERAL").get(0);
+        Transacao actual = parserService.parseFile(file, "GERAL").get(0);
+
+        assertEquals(new BigDecimal("702"), actual.getValorPago());
+        assertEquals(new BigDecimal("702.6"), actual.getValorLiquido());
+        assertEquals(new BigDecimal("702.68"), actual.getValorTitulo());
+        // 31/02 is resolved to the last day of the month, as DateTimeFormatter does
+        assertEquals(java.time.LocalDate.of(2026, 2, 28), actual.getDataOcorrencia());
+        assertEquals(describe(expected), describe(actual));
+    }
+
+    private static String describe(Transacao t) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (Method m : Transacao.class.getMethods()) {
+            if (m.getName().startsWith("get") && m.getParameterCount() == 0 && m.getDeclaringClass() == Transacao.class) {
+                sb.append(m.getName()).append('=').append(m.invoke(t)).append(';');
+            }
+        }
+        return sb.toString();
+    }
 }
@@ -0,0 +1,175 @@
+package com.compara.retorno.service;
+
+import com.compara.retorno.model.Contribuinte;
+import com.compara.retorno.repository.ContribuinteRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ContribuinteAutocompleteIndexTest {
+
+    private final ContribuinteAutocompleteIndex index = new ContribuinteAutocompleteIndex();
+
+    @Test
+    void testSuggest_MatchesAnyWordIgnoringCaseAndAccents() {
+        index.load(List.of(
+                sugestao(1L, "José da Silva", "12345678901", "2024-001"),
+                sugestao(2L, "Maria Silveira", "98765432000110", null),
+                sugestao(3L, "Joaquim Souza", null, "2024-002")));
+
+        assertEquals(List.of(1L), ids(index.suggest("JOSE", 10)));
+        assertEquals(List.of(1L, 2L), ids(index.suggest("silv", 10)));
+        assertEquals(List.of(1L), ids(index.suggest("josé  da s", 10)));
+        assertTrue(index.suggest("da", 10).isEmpty(), "short words do not start a key");
+        assertTrue(index.suggest("  ", 10).isEmpty());
+    }
+
+    @Test
+    void testSuggest_DocumentsWithOrWithoutPunctuation() {
+        index.load(List.of(
+                sugestao(1L, "José da Silva", "12345678901", "2024-001"),
+                sugestao(2L, "Acme Ltda", "98765432000110", "2024-002")));
+
+        assertEquals(List.of(1L), ids(index.suggest("123.456", 10)));
+        assertEquals(List.of(2L), ids(index.suggest("98.765.432/0001", 10)));
+        assertEquals(List.of(1L, 2L), ids(index.suggest("2024-00", 10)));
+    }
+
+    @Test
+    void testSuggest_LimitsAndDoesNotRepeat() {
+        index.load(List.of(
+                sugestao(1L, "Silva Silva Silva", null, null),
+                sugestao(2L, "Silva Santos", null, null),
+                sugestao(3L, "Silvana Lima", null, null)));
+
+        assertEquals(List.of(1L, 2L, 3L), ids(index.suggest("sil", 10)));
+        assertEquals(2, index.suggest("sil", 2).size());
+    }
+
+    @Test
+    void testPutAndRemove_UpdateIncrementally() {
+        index.load(List.of(sugestao(1L, "José da Silva", null, null)));
+
+        Contribuinte renamed = contribuinte(1L, "José Pereira");
+        index.put(renamed);
+        index.put(contribuinte(2L, "Ana Silva"));
+
+        assertEquals(List.of(2L), ids(index.suggest("silva", 10)));
+        assertEquals(List.of(1L), ids(index.suggest("pereira", 10)));
+        assertEquals("José Pereira", index.suggest("jose", 10).get(0).getNome());
+
+        index.remove(2L);
+        assertTrue(index.suggest("silva", 10).isEmpty());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void testApply_MergesSeveralChangesAtOnce() {
+        index.load(List.of(
+                sugestao(1L, "José da Silva", null, null),
+                sugestao(2L, "Ana Silva", null, null)));
+        Map<Long, ContribuinteAutocompleteIndex.Sugestao> changes = new LinkedHashMap<>();
+        changes.put(1L, sugestao(1L, "José Pereira", null, null));
+        changes.put(2L, null);
+        changes.put(3L, sugestao(3L, "Bruno Silva", null, null));
+        changes.put(4L, null);
+
+        index.apply(changes);
+
+        assertEquals(List.of(3L), ids(index.suggest("silva", 10)));
+        assertEquals(List.of(1L), ids(index.suggest("pereira", 10)));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void testRefreshIfChanged_RebuildsOnlyWhenTheTableChanged() {
+        ContribuinteRepository repository = mock(ContribuinteRepository.class);
+        ReflectionTestUtils.setField(index, "contribuinteRepository", repository);
+        when(repository.findChangeMarker()).thenReturn("1:1");
+        when(repository.findAutocompleteEntries()).thenReturn(List.<Object[]>of(
+                new Object[] { 1L, "José da Silva", null, null }));
+        index.rebuild();
+
+        index.refreshIfChanged();
+        verify(repository, times(1)).findAutocompleteEntries();
+
+        // register reloaded with SQL: no JPA event, only the marker moves
+        when(repository.findChangeMarker()).thenReturn("2:3");
+        when(repository.findAutocompleteEntries()).thenReturn(List.of(
+                new Object[] { 1L, "José da Silva", null, null },
+                new Object[] { 2L, "Ana Silva", null, null }));
+        index.refreshIfChanged();
+
+        verify(repository, times(2)).findAutocompleteEntries();
+        assertEquals(List.of(1L, 2L), ids(index.suggest("silva", 10)));
+    }
+
+    @Test
+    void testSuggest_LargeIndexStopsAtTheLimit() {
+        loadLarge(50_000);
+
+        List<ContribuinteAutocompleteIndex.Sugestao> found = index.suggest("sobrenome4", 10);
+
+        assertEquals(10, found.size());
+        assertTrue(found.stream().allMatch(s -> s.getNome().contains("Sobrenome4")));
+    }
+
+    /**
+     * Wall-clock check, only run as a benchmark: CNAB_BENCHMARK_ROWS (see
+     * {@code DashboardStatsBenchmarkTest}) is the number of contribuintes indexed.
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "CNAB_BENCHMARK_ROWS", matches = "\\d+")
+    void testSuggest_IsFastOnALargeIndex() {
+        loadLarge(Integer.parseInt(System.getenv("CNAB_BENCHMARK_ROWS")));
+
+        String[] terms = { "contrib", "sobrenome4", "0000", "im12", "a", "zz" };
+        for (int i = 0; i < 1_000; i++) {
+            index.suggest(terms[i % terms.length], 10);
+        }
+        int runs = 20_000;
+        long t0 = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            index.suggest(terms[i % terms.length], 10);
+        }
+        double avgMs = (System.nanoTime() - t0) / 1e6 / runs;
+        assertTrue(avgMs < 1.0, "média por busca: " + avgMs + " ms");
+        assertEquals(10, index.suggest("contrib", 10).size());
+    }
+
+    private void loadLarge(int n) {
+        List<ContribuinteAutocompleteIndex.Sugestao> all = new ArrayList<>(n);
+        for (long i = 0; i < n; i++) {
+            all.add(sugestao(i, "Contribuinte " + Long.toString(i * 7919, 36) + " Sobrenome" + (i % 100),
+                    String.format("%011d", i * 31), "IM" + i));
+        }
+        index.load(all);
+    }
+
+    private static List<Long> ids(List<ContribuinteAutocompleteIndex.Sugestao> sugestoes) {
+        return sugestoes.stream().map(ContribuinteAutocompleteIndex.Sugestao::getId).toList();
+    }
+
+    private static ContribuinteAutocompleteIndex.Sugestao sugestao(Long id, String nome, String cpfCnpj,
+            String inscricao) {
+        return new ContribuinteAutocompleteIndex.Sugestao(id, nome, cpfCnpj, inscricao);
+    }
+
+    private static Contribuinte contribuinte(Long id, String nome) {
+        Contribuinte c = new Contribuinte();
+        c.setId(id);
+        c.setNome(nome);
+        return c;
+    }
+}
@@ -6,10 +6,13 @@ import com.compara.retorno.repository.AuditoriaConsultaRepository;
 import com.compara.retorno.repository.ContribuinteRepository;
 import com.compara.retorno.repository.PagamentoRepository;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
 import org.mockito.Mockito;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
@@ -34,7 +37,8 @@ public class ContribuinteServiceLoadTest {
 
         List<Contribuinte> sample = Collections.singletonList(new Contribuinte());
         Page<Contribuinte> samplePage = new PageImpl<>(sample, PageRequest.of(0, 10), 1);
-        when(contribRepo.search(any(), any(), any(), any(), any())).thenReturn(samplePage);
+        when(contribRepo.findAll(ArgumentMatchers.<Specification<Contribuinte>>any(), any(Pageable.class)))
+                .thenReturn(samplePage);
         when(audRepo.save(Mockito.any(AuditoriaConsulta.class))).thenAnswer(i -> i.getArgument(0));
 
         ContribuinteService service = new ContribuinteService();
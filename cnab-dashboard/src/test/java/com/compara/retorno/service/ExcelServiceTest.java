@@ -0,0 +1,111 @@
+package com.compara.retorno.service;
+
+import com.compara.retorno.model.Contribuinte;
+import com.compara.retorno.model.TipoOrigem;
+import com.compara.retorno.repository.TransacaoExportRepository;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExcelServiceTest {
+
+    private static final LocalDate DAY = LocalDate.of(2026, 3, 10);
+
+    private final ExcelService excelService = new ExcelService();
+
+    @Test
+    void testTransactionsSheet_TypedCellsAndFixedWidths() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int rows = ExcelService.ROW_WINDOW * 5;
+        try (ExcelService.TransactionsSheet sheet = excelService.openTransactionsSheet(out)) {
+            for (int i = 0; i < rows; i++) {
+                sheet.add(row("NN" + i));
+            }
+            sheet.finish();
+            assertEquals(rows, sheet.getRows());
+        }
+
+        try (XSSFWorkbook wb = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+            Sheet s = wb.getSheetAt(0);
+            assertEquals("Transações", s.getSheetName());
+            assertEquals(rows, s.getLastRowNum());
+            assertEquals("Nosso Número", s.getRow(0).getCell(1).getStringCellValue());
+            assertEquals(45 * 256, s.getColumnWidth(2));
+
+            Row last = s.getRow(rows);
+            assertEquals("NN" + (rows - 1), last.getCell(1).getStringCellValue());
+            assertEquals(12.30, last.getCell(3).getNumericCellValue(), 0.001);
+            assertEquals(DAY, last.getCell(4).getLocalDateTimeCellValue().toLocalDate());
+            assertNull(last.getCell(5), "no credit date");
+        }
+    }
+
+    @Test
+    void testStreamingSheet_CloseRemovesTempFilesWhenFeedingFails() throws Exception {
+        int before = sxssfTempFiles();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> {
+            try (ExcelService.TransactionsSheet sheet = excelService.openTransactionsSheet(out)) {
+                for (int i = 0; i < ExcelService.ROW_WINDOW * 3; i++) {
+                    sheet.add(row("NN" + i));
+                }
+                assertTrue(sxssfTempFiles() > before, "rows past the window went to a temp file");
+                throw new IllegalStateException("cursor fechado");
+            }
+        });
+
+        assertEquals("cursor fechado", e.getMessage());
+        assertEquals(before, sxssfTempFiles());
+        assertEquals(0, out.size());
+    }
+
+    @Test
+    void testContribuintesExcel_MasksDocumentsAndFormatsAddress() throws Exception {
+        Contribuinte c = new Contribuinte();
+        c.setCpfCnpj("12345678901");
+        c.setNome("José da Silva");
+        c.setLogradouro("Rua A");
+        c.setNumero("10");
+        c.setCidade("Cidade");
+        c.setEstado("SC");
+
+        byte[] xlsx = new ContribuinteReportService().generateExcel(List.of(c));
+
+        try (XSSFWorkbook wb = new XSSFWorkbook(new ByteArrayInputStream(xlsx))) {
+            Row row = wb.getSheet("Contribuintes").getRow(1);
+            assertEquals("123.456.789-01", row.getCell(0).getStringCellValue());
+            assertEquals("José da Silva", row.getCell(1).getStringCellValue());
+            assertEquals("Rua A, 10 - Cidade/SC", row.getCell(3).getStringCellValue());
+        }
+    }
+
+    private static TransacaoExportRepository.ExportRow row(String nossoNumero) {
+        return new TransacaoExportRepository.ExportRow(TipoOrigem.API, nossoNumero, "José", DAY, null,
+                new BigDecimal("12.30"), "CONCILIADO");
+    }
+
+    /** SXSSF sheet files in POI's temporary directory. */
+    private static int sxssfTempFiles() throws IOException {
+        Path dir = Path.of(System.getProperty("java.io.tmpdir"), "poifiles");
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return (int) files.filter(p -> p.getFileName().toString().startsWith("poi-sxssf-sheet")).count();
+        }
+    }
+}
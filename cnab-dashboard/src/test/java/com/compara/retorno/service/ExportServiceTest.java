@@ -0,0 +1,116 @@
+package com.compara.retorno.service;
+
+import com.compara.retorno.model.TipoOrigem;
+import com.compara.retorno.repository.TransacaoExportRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+
+class ExportServiceTest {
+
+    private static final LocalDate DAY = LocalDate.of(2026, 3, 10);
+
+    @Mock
+    private TransacaoExportRepository exportRepository;
+
+    @InjectMocks
+    private ExportService exportService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    @Test
+    void testWriteAnaliseDatasCsv_WritesOneLinePerRow() throws IOException {
+        feed(new TransacaoExportRepository.ExportRow(TipoOrigem.API, "001", "José", DAY, DAY.plusDays(2),
+                new BigDecimal("10.50")),
+                new TransacaoExportRepository.ExportRow(TipoOrigem.GERAL, "002", "Ana", DAY, null,
+                        new BigDecimal("7.00")));
+        StringWriter out = new StringWriter();
+
+        long rows = exportService.writeAnaliseDatasCsv(DAY, DAY, out);
+
+        assertEquals(2, rows);
+        assertEquals("Origem;Nosso Numero;Pagador;Data Ocorrencia;Data Credito;Diferenca (Dias);Valor Pago\n"
+                + "API;001;José;10/03/2026;12/03/2026;2;10.50\n"
+                + "GERAL;002;Ana;10/03/2026;;0;7.00\n", out.toString());
+    }
+
+    @Test
+    void testWriteAnaliseDatasCsv_FlushesHeaderAndEveryFewRows() throws IOException {
+        int n = ExportService.FLUSH_EVERY * 2 + 5;
+        TransacaoExportRepository.ExportRow[] rows = new TransacaoExportRepository.ExportRow[n];
+        for (int i = 0; i < n; i++) {
+            rows[i] = new TransacaoExportRepository.ExportRow(TipoOrigem.API, "n" + i, "P", DAY, DAY,
+                    BigDecimal.ONE);
+        }
+        feed(rows);
+        CountingWriter out = new CountingWriter();
+
+        exportService.writeAnaliseDatasCsv(DAY, DAY, out);
+
+        // header, two full batches, the tail
+        assertEquals(4, out.flushes);
+    }
+
+    @Test
+    void testWriteAnaliseDatasCsv_StopsWhenTheClientGoesAway() {
+        feed(new TransacaoExportRepository.ExportRow(TipoOrigem.API, "001", "P", DAY, DAY, BigDecimal.ONE));
+        Writer failing = new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+            }
+
+            @Override
+            public Writer append(CharSequence csq) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        IOException e = assertThrows(IOException.class, () -> exportService.writeAnaliseDatasCsv(DAY, DAY, failing));
+        assertEquals("Broken pipe", e.getMessage());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void feed(TransacaoExportRepository.ExportRow... rows) {
+        doAnswer(inv -> {
+            Consumer<TransacaoExportRepository.ExportRow> action = inv.getArgument(2);
+            for (TransacaoExportRepository.ExportRow row : rows) {
+                action.accept(row);
+            }
+            return null;
+        }).when(exportRepository).forEachInPeriod(eq(DAY), eq(DAY), any(Consumer.class));
+    }
+
+    private static class CountingWriter extends StringWriter {
+        int flushes;
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.compara.retorno.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImportEventBroadcasterTest {
+
+    private final ImportEventBroadcaster broadcaster = new ImportEventBroadcaster() {
+        @Override
+        SseEmitter createEmitter() {
+            return new RecordingEmitter();
+        }
+    };
+
+    @AfterEach
+    void tearDown() {
+        broadcaster.stop();
+    }
+
+    @Test
+    void testPublish_ReachesEverySubscriber() throws Exception {
+        RecordingEmitter first = (RecordingEmitter) broadcaster.subscribe();
+        RecordingEmitter second = (RecordingEmitter) broadcaster.subscribe();
+        Map<String, Object> data = Map.of("jobId", 7L, "status", "PROCESSANDO");
+
+        broadcaster.publish("job", data);
+
+        await(first, 1);
+        await(second, 1);
+        assertTrue(first.sent.get(0).stream().anyMatch(d -> d.getData().equals(data)));
+        assertTrue(first.sent.get(0).stream().anyMatch(d -> String.valueOf(d.getData()).contains("event:job")));
+        assertEquals(2, broadcaster.getSubscriberCount());
+    }
+
+    @Test
+    void testSubscribe_CompletedOrTimedOutStreamsAreRemoved() {
+        RecordingEmitter completed = (RecordingEmitter) broadcaster.subscribe();
+        RecordingEmitter timedOut = (RecordingEmitter) broadcaster.subscribe();
+        RecordingEmitter failed = (RecordingEmitter) broadcaster.subscribe();
+        assertEquals(3, broadcaster.getSubscriberCount());
+
+        completed.completion.run();
+        timedOut.timeout.run();
+        failed.error.accept(new IOException("Broken pipe"));
+
+        assertEquals(0, broadcaster.getSubscriberCount());
+    }
+
+    @Test
+    void testPublish_FailedSendDropsOnlyThatSubscriber() throws Exception {
+        RecordingEmitter gone = (RecordingEmitter) broadcaster.subscribe();
+        RecordingEmitter alive = (RecordingEmitter) broadcaster.subscribe();
+        gone.failSend = true;
+
+        broadcaster.publish("file", Map.of("jobId", 1L));
+        await(alive, 1);
+        broadcaster.publish("file", Map.of("jobId", 2L));
+        await(alive, 2);
+
+        assertEquals(1, broadcaster.getSubscriberCount());
+        assertTrue(gone.completedWithError);
+        assertEquals(1, gone.attempts, "not retried after the first failure");
+    }
+
+    private static void await(RecordingEmitter emitter, int events) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (emitter.sent.size() < events && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(events, emitter.sent.size(), "events not delivered");
+    }
+
+    /** Keeps what the broadcaster sends and registers, without a servlet response behind it. */
+    private static class RecordingEmitter extends SseEmitter {
+        final List<Set<DataWithMediaType>> sent = new CopyOnWriteArrayList<>();
+        volatile boolean failSend;
+        volatile int attempts;
+        volatile boolean completedWithError;
+        Runnable completion;
+        Runnable timeout;
+        Consumer<Throwable> error;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            attempts++;
+            if (failSend) {
+                throw new IOException("Broken pipe");
+            }
+            sent.add(builder.build());
+        }
+
+        @Override
+        public synchronized void onCompletion(Runnable callback) {
+            completion = callback;
+        }
+
+        @Override
+        public synchronized void onTimeout(Runnable callback) {
+            timeout = callback;
+        }
+
+        @Override
+        public synchronized void onError(Consumer<Throwable> callback) {
+            error = callback;
+        }
+
+        @Override
+        public synchronized void completeWithError(Throwable ex) {
+            completedWithError = true;
+            error.accept(ex);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.compara.retorno.service;
+
+import com.compara.retorno.model.ImportJob;
+import com.compara.retorno.repository.ImportJobRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ImportJobServiceTest {
+
+    @Mock
+    private ImportService importService;
+
+    @Mock
+    private ImportJobRepository jobRepository;
+
+    @Mock
+    private ImportEventBroadcaster events;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @InjectMocks
+    private ImportJobService importJobService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        when(jobRepository.save(any())).thenAnswer(inv -> {
+            ImportJob job = inv.getArgument(0);
+            if (job.getId() == null) {
+                job.setId(1L);
+            }
+            return job;
+        });
+        importJobService.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        importJobService.stop();
+    }
+
+    @Test
+    void testSubmit_NoFilesReturnsNull() throws Exception {
+        MockMultipartFile empty = new MockMultipartFile("apiFiles", "", "text/plain", new byte[0]);
+
+        assertNull(importJobService.submit(new MockMultipartFile[] { empty }, null));
+        verify(jobRepository, never()).save(any());
+    }
+
+    @Test
+    void testSubmit_RunsJobInBackground() throws Exception {
+        byte[] content = "conteudo".getBytes(StandardCharsets.UTF_8);
+        MockMultipartFile api = new MockMultipartFile("apiFiles", "a.RET", "text/plain", content);
+        MockMultipartFile geral = new MockMultipartFile("geralFiles", "g.RET", "text/plain", content);
+        ImportService.ImportSummary summary = new ImportService.ImportSummary("lote");
+        when(importService.importStaged(anyList(), anyString(), any())).thenReturn(summary);
+
+        ImportJob job = importJobService.submit(new MockMultipartFile[] { api },
+                new MockMultipartFile[] { geral });
+
+        assertEquals(2, job.getTotalArquivos());
+        assertEquals(2L * content.length, job.getBytesTotal());
+        verify(importService, timeout(5000)).importStaged(anyList(), anyString(), any());
+        // queued, started and finished: the last save carries the final state
+        verify(jobRepository, timeout(5000).atLeast(3)).save(any());
+        // progress is written in its own transaction, never in a file's import transaction
+        verify(transactionManager, timeout(5000).atLeast(2)).getTransaction(argThat(d ->
+                d.getPropagationBehavior() == TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+        assertEquals(ImportJob.CONCLUIDO, job.getStatus());
+        assertEquals(summary.getMessage(), job.getMensagem());
+    }
+
+    @Test
+    void testFailInterruptedJobs_MarksUnfinishedJobsAsFailed() {
+        ImportJob running = new ImportJob();
+        running.setStatus(ImportJob.PROCESSANDO);
+        when(jobRepository.findByStatusIn(any())).thenReturn(List.of(running));
+
+        importJobService.failInterruptedJobs();
+
+        assertEquals(ImportJob.FALHOU, running.getStatus());
+        verify(jobRepository).saveAll(List.of(running));
+    }
+}
@@ -0,0 +1,181 @@
+package com.compara.retorno.service;
+
+import com.compara.retorno.model.Transacao;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ImportServiceTest {
+
+    private static final String LINE_T = "1040001300001T 460000004910850000000   14999000002922185812922185        060320260000000000702680010000002922185                  092040125594000181MARTINS ENGENHARIA LTDA                           000000000000000040301                     ";
+    private static final String LINE_U = "1040001300002U 46000000000000000000000000000000000000000000000000000000000000000000000070268000000000070268000000000000000000000000000000100220261102202600000000000000000000000000000000000000000000000000000000000000000000000000000000       ";
+
+    @Spy
+    private CnabParserService parserService = new CnabParserService();
+
+    @Mock
+    private TransactionService transactionService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @InjectMocks
+    private ImportService importService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        MockitoAnnotations.openMocks(this);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        Field chunkSize = ImportService.class.getDeclaredField("chunkSize");
+        chunkSize.setAccessible(true);
+        chunkSize.set(importService, 100);
+    }
+
+    @Test
+    void testImportFile_FlushesFixedSizeChunks() throws Exception {
+        Path file = Files.createTempFile("cnab-test-", ".ret");
+        try {
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < 250; i++) {
+                content.append(LINE_T).append('\n').append(LINE_U).append('\n');
+            }
+            Files.write(file, content.toString().getBytes(StandardCharsets.UTF_8));
+
+            // The chunk list is reused between flushes, so record sizes at call time
+            List<Integer> chunkSizes = new ArrayList<>();
+            doAnswer(inv -> {
+                chunkSizes.add(((List<?>) inv.getArgument(0)).size());
+                return null;
+            }).when(transactionService).saveChunk(any());
+
+            int count = importService.importFile(file, "lote.ret", "GERAL");
+
+            assertEquals(250, count);
+            assertEquals(List.of(100, 100, 50), chunkSizes);
+            verify(transactionManager, times(1)).commit(any());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testImportFile_RecordsFileSource() throws Exception {
+        Path file = Files.createTempFile("cnab-test-", ".ret");
+        try {
+            Files.write(file, (LINE_T + "\n" + LINE_U + "\n").getBytes(StandardCharsets.UTF_8));
+
+            @SuppressWarnings("unchecked")
+            ArgumentCaptor<List<Transacao>> captor = ArgumentCaptor.forClass(List.class);
+            Mockito.doNothing().when(transactionService).saveChunk(captor.capture());
+
+            importService.importFile(file, "original.RET", "API");
+
+            assertEquals("original.RET", captor.getValue().get(0).getFileSource());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testImportFile_TagsRowsWithImportBatch() throws Exception {
+        Path file = Files.createTempFile("cnab-test-", ".ret");
+        try {
+            Files.write(file, (LINE_T + "\n" + LINE_U + "\n").getBytes(StandardCharsets.UTF_8));
+
+            @SuppressWarnings("unchecked")
+            ArgumentCaptor<List<Transacao>> captor = ArgumentCaptor.forClass(List.class);
+            Mockito.doNothing().when(transactionService).saveChunk(captor.capture());
+
+            importService.importFile(file, "original.RET", "API", "lote-1");
+
+            assertEquals("lote-1", captor.getValue().get(0).getImportBatch());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testImportUploads_AggregatesPerFileResults() {
+        byte[] content = (LINE_T + "\n" + LINE_U + "\n").getBytes(StandardCharsets.UTF_8);
+        MockMultipartFile a = new MockMultipartFile("apiFiles", "a.RET", "text/plain", content);
+        MockMultipartFile again = new MockMultipartFile("apiFiles", "a.RET", "text/plain", content);
+        MockMultipartFile old = new MockMultipartFile("geralFiles", "old.RET", "text/plain", content);
+        MockMultipartFile broken = new MockMultipartFile("geralFiles", "broken.RET", "text/plain", content);
+        when(transactionService.isFileAlreadyImported(eq("old.RET"))).thenReturn(true);
+        when(transactionService.isFileAlreadyImported(eq("broken.RET"))).thenThrow(new IllegalStateException("boom"));
+
+        ImportService.ImportSummary summary = importService.importUploads(
+                new MockMultipartFile[] { a, again }, new MockMultipartFile[] { old, broken });
+
+        assertEquals(1, summary.getProcessedCount());
+        assertEquals(List.of("a.RET", "old.RET"), summary.getSkippedFiles().stream().sorted().toList());
+        assertEquals(List.of("broken.RET (boom)"), summary.getFailedFiles());
+        assertEquals("warning", summary.getMessageType());
+        assertTrue(summary.getMessage().contains("broken.RET"));
+        verify(transactionService, times(1)).performReconciliation(eq(summary.getImportBatch()));
+        verify(transactionService, never()).performReconciliation();
+        verify(transactionService, times(1)).markReconciliationPending(eq(summary.getImportBatch()));
+    }
+
+    @Test
+    void testReconcilePendingBatches_RetriesEachBatchLeftBehind() {
+        when(transactionService.findBatchesPendingReconciliation()).thenReturn(List.of("lote-1", "lote-2"));
+        when(transactionService.performReconciliation(eq("lote-1"))).thenThrow(new IllegalStateException("boom"));
+
+        importService.reconcilePendingBatches();
+
+        verify(transactionService).performReconciliation(eq("lote-1"));
+        verify(transactionService).performReconciliation(eq("lote-2"));
+    }
+
+    @Test
+    void testImportUploads_StreamsWhenTheMemoryBudgetIsTaken() {
+        ReflectionTestUtils.setField(importService, "inMemoryBudget", 0L);
+        byte[] content = (LINE_T + "\n" + LINE_U + "\n").getBytes(StandardCharsets.UTF_8);
+        MockMultipartFile a = new MockMultipartFile("apiFiles", "a.RET", "text/plain", content);
+
+        ImportService.ImportSummary summary = importService.importUploads(new MockMultipartFile[] { a }, null);
+
+        assertEquals(1, summary.getProcessedCount());
+        assertEquals(1, summary.getResults().get(0).getTransactionCount());
+    }
+
+    @Test
+    void testImportUploads_ReturnsTheMemoryBudget() {
+        byte[] content = (LINE_T + "\n" + LINE_U + "\n").getBytes(StandardCharsets.UTF_8);
+        MockMultipartFile a = new MockMultipartFile("apiFiles", "a.RET", "text/plain", content);
+        MockMultipartFile b = new MockMultipartFile("geralFiles", "b.RET", "text/plain", content);
+
+        importService.importUploads(new MockMultipartFile[] { a }, new MockMultipartFile[] { b });
+
+        Semaphore budget = (Semaphore) ReflectionTestUtils.getField(importService, "memoryPermits");
+        assertEquals(128 * 1024, budget.availablePermits());
+    }
+}
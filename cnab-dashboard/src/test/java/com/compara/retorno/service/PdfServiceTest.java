@@ -0,0 +1,133 @@
+package com.compara.retorno.service;
+
+import com.compara.retorno.model.TipoOrigem;
+import com.compara.retorno.model.Transacao;
+import com.compara.retorno.repository.TransacaoExportRepository;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.parser.PdfTextExtractor;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PdfServiceTest {
+
+    private static final LocalDate DAY = LocalDate.of(2026, 3, 10);
+
+    private final PdfService pdfService = new PdfService();
+
+    @Test
+    void testAnaliseReport_WritesWhileRowsArrive() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PdfService.AnaliseReport report = pdfService.openAnaliseReport(out, DAY, DAY);
+
+        int rows = PdfService.ROWS_PER_CHUNK * 10;
+        int sizeAfterFirstChunks = 0;
+        for (int i = 0; i < rows; i++) {
+            report.add(result("NN" + i, "10.00", "9.50"));
+            if (i == rows / 2) {
+                sizeAfterFirstChunks = out.size();
+            }
+        }
+        report.finish();
+
+        assertTrue(sizeAfterFirstChunks > out.size() / 4, "pages go out before the report ends");
+        assertEquals(rows, report.getRows());
+
+        PdfReader reader = new PdfReader(out.toByteArray());
+        assertTrue(reader.getNumberOfPages() > 10);
+        String lastPage = text(reader, reader.getNumberOfPages());
+        assertTrue(lastPage.contains("TOTAIS"), lastPage);
+        assertTrue(lastPage.contains("Totalderegistros:" + rows), lastPage);
+        // running total of the differences: 1000 x R$ 0,50
+        assertTrue(lastPage.contains("R$500,00"), lastPage);
+        assertTrue(text(reader, 2).contains("NossoNúmero"), "header repeats on every page");
+        reader.close();
+    }
+
+    @Test
+    void testTransactionsReport_TotalsTheRowsAdded() throws Exception {
+        Transacao t = new Transacao();
+        t.setTipoOrigem(TipoOrigem.API);
+        t.setNossoNumero("001");
+        t.setNomePagador("José");
+        t.setValorPago(new BigDecimal("12.30"));
+        t.setDataOcorrencia(DAY);
+        t.setStatusConciliacao("CONCILIADO");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PdfService.TransactionsReport report = pdfService.openTransactionsReport(out);
+        report.add(TransacaoExportRepository.ExportRow.of(t));
+        report.add(TransacaoExportRepository.ExportRow.of(t));
+        report.finish();
+
+        assertEquals(2, report.getRows());
+        PdfReader reader = new PdfReader(out.toByteArray());
+        String text = text(reader, 1);
+        assertTrue(text.contains("José"), text);
+        assertTrue(text.contains("R$24,60"), text);
+        assertTrue(text.contains("Totalderegistros:2"), text);
+        reader.close();
+    }
+
+    @Test
+    void testAnaliseReport_ConcurrentReportsDoNotShareFormatting() throws Exception {
+        int threads = 8;
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(threads);
+        try {
+            List<java.util.concurrent.Future<String>> totals = new java.util.ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int n = t + 1;
+                totals.add(pool.submit(() -> {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    PdfService.AnaliseReport report = pdfService.openAnaliseReport(out, DAY, DAY);
+                    for (int i = 0; i < 300; i++) {
+                        report.add(result("NN" + i, n + "000.00", "0.00"));
+                    }
+                    report.finish();
+                    PdfReader reader = new PdfReader(out.toByteArray());
+                    String lastPage = text(reader, reader.getNumberOfPages());
+                    reader.close();
+                    return lastPage;
+                }));
+            }
+            for (int t = 0; t < threads; t++) {
+                // 300 rows of R$ n.000,00 on each side of the total
+                String expected = "R$" + String.format("%,d", (t + 1) * 300_000).replace(',', '.') + ",00";
+                String lastPage = totals.get(t).get();
+                assertTrue(lastPage.contains(expected), expected + " em " + lastPage);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Page text without any spaces (the currency format uses a no-break space). */
+    private static String text(PdfReader reader, int page) throws java.io.IOException {
+        return new PdfTextExtractor(reader).getTextFromPage(page).replaceAll("[\\s\\u00a0]+", "");
+    }
+
+    private TransactionService.ComparisonResult result(String nossoNumero, String api, String geral) {
+        TransactionService.ComparisonResult r = new TransactionService.ComparisonResult();
+        r.setNossoNumero(nossoNumero);
+        r.setApiTransaction(tx(TipoOrigem.API, nossoNumero, api));
+        r.setGeralTransaction(tx(TipoOrigem.GERAL, nossoNumero, geral));
+        r.setDivergent(true);
+        return r;
+    }
+
+    private Transacao tx(TipoOrigem origem, String nossoNumero, String valor) {
+        Transacao t = new Transacao();
+        t.setTipoOrigem(origem);
+        t.setNossoNumero(nossoNumero);
+        t.setNomePagador("Pagador " + nossoNumero);
+        t.setValorPago(new BigDecimal(valor));
+        t.setDataOcorrencia(DAY);
+        t.setDataCredito(DAY.plusDays(1));
+        return t;
+    }
+}
@@ -0,0 +1,136 @@
+package com.compara.retorno.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReportJobServiceTest {
+
+    @Mock
+    private ExportService exportService;
+
+    @Spy
+    private DataVersion dataVersion = new DataVersion();
+
+    @InjectMocks
+    private ReportJobService reportJobService;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(reportJobService, "dir", dir.toString());
+        reportJobService.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        reportJobService.stop();
+    }
+
+    @Test
+    void testSubmit_SameReportSharesOneJob() throws Exception {
+        when(exportService.writeTransactionsPdf(eq("José"), isNull(), any())).thenAnswer(inv -> {
+            inv.<OutputStream>getArgument(2).write("%PDF".getBytes());
+            return 2L;
+        });
+
+        ReportJobService.ReportJob first = reportJobService.submit(transacoes("José"));
+        ReportJobService.ReportJob second = reportJobService.submit(transacoes("  José "));
+
+        assertSame(first, second);
+        await(first);
+        assertEquals(ReportJobService.ReportJob.CONCLUIDO, first.getStatus());
+        assertEquals(2, first.getRegistros());
+        assertEquals("%PDF", Files.readString(reportJobService.ready(first.getId()).getFile()));
+        assertSame(first, reportJobService.submit(transacoes("José")), "a finished report is reused");
+        verify(exportService, times(1)).writeTransactionsPdf(eq("José"), isNull(), any());
+    }
+
+    @Test
+    void testSubmit_NewJobOnceTheDataChanges() throws Exception {
+        when(exportService.writeTransactionsPdf(any(), any(), any())).thenReturn(0L);
+
+        ReportJobService.ReportJob before = reportJobService.submit(transacoes("Ana"));
+        await(before);
+        dataVersion.changed();
+        ReportJobService.ReportJob after = reportJobService.submit(transacoes("Ana"));
+        await(after);
+
+        assertNotEquals(before.getId(), after.getId());
+        verify(exportService, times(2)).writeTransactionsPdf(eq("Ana"), isNull(), any());
+    }
+
+    @Test
+    void testSubmit_FailedJobIsRetried() throws Exception {
+        when(exportService.writeTransactionsPdf(any(), any(), any()))
+                .thenThrow(new IllegalStateException("sem conexão"))
+                .thenReturn(0L);
+
+        ReportJobService.ReportJob failed = reportJobService.submit(transacoes("Ana"));
+        await(failed);
+        assertEquals(ReportJobService.ReportJob.FALHOU, failed.getStatus());
+        assertTrue(failed.getMensagem().contains("sem conexão"));
+        assertNull(reportJobService.ready(failed.getId()));
+        try (var files = Files.list(dir)) {
+            assertEquals(0, files.count(), "partial file removed");
+        }
+
+        ReportJobService.ReportJob retried = reportJobService.submit(transacoes("Ana"));
+        assertNotSame(failed, retried);
+        await(retried);
+        assertEquals(ReportJobService.ReportJob.CONCLUIDO, retried.getStatus());
+    }
+
+    @Test
+    void testEvict_LeastRecentlyRequestedGoesFirst() throws Exception {
+        ReflectionTestUtils.setField(reportJobService, "maxDiskMb", 1L);
+        when(exportService.writeTransactionsPdf(any(), any(), any())).thenAnswer(inv -> {
+            inv.<OutputStream>getArgument(2).write(new byte[600 * 1024]);
+            return 1L;
+        });
+
+        ReportJobService.ReportJob older = reportJobService.submit(transacoes("A"));
+        await(older);
+        Thread.sleep(5);
+        ReportJobService.ReportJob newer = reportJobService.submit(transacoes("B"));
+        await(newer);
+
+        assertNull(reportJobService.get(older.getId()));
+        assertFalse(Files.exists(older.getFile()));
+        assertNotNull(reportJobService.ready(newer.getId()));
+        assertEquals(600 * 1024, reportJobService.getDiskUsage());
+    }
+
+    private static ReportJobService.ReportRequest transacoes(String nome) {
+        return ReportJobService.ReportRequest.transacoes(ReportJobService.Formato.PDF, nome, null);
+    }
+
+    private static void await(ReportJobService.ReportJob job) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (job.isAtivo() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(job.isAtivo(), "job did not finish");
+    }
+}
@@ -0,0 +1,193 @@
+package com.compara.retorno.service;
+
+import com.compara.retorno.model.TipoOrigem;
+import com.compara.retorno.model.Transacao;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionMatcherTest {
+
+    private static final LocalDate DAY = LocalDate.of(2026, 3, 10);
+
+    private final TransactionMatcher matcher = new TransactionMatcher();
+
+    @Test
+    void testMatch_DuplicatesArePairedOneToOne() {
+        Transacao api1 = tx(TipoOrigem.API, "100.00", DAY);
+        Transacao api2 = tx(TipoOrigem.API, "100.00", DAY);
+        Transacao geral = tx(TipoOrigem.GERAL, "100.0", DAY);
+
+        TransactionMatcher.MatchResult result = matcher.match(List.of(api1, api2), List.of(geral));
+
+        assertEquals(1, result.getMatches().size());
+        assertSame(api1, result.getMatches().get(0).getApi());
+        assertEquals(TransactionMatcher.MatchRule.EXATO, result.getMatches().get(0).getRule());
+        assertEquals(List.of(api2), result.getUnmatchedApi());
+        assertTrue(result.getUnmatchedGeral().isEmpty());
+    }
+
+    @Test
+    void testMatch_FallsBackThroughTiers() {
+        Transacao apiExato = tx(TipoOrigem.API, "50.00", DAY);
+        Transacao apiValor = tx(TipoOrigem.API, "70.00", DAY);
+        Transacao apiData = tx(TipoOrigem.API, "80.00", DAY.plusDays(5));
+        Transacao apiOrdem = tx(TipoOrigem.API, "90.00", DAY.plusDays(9));
+        Transacao geralOrdem = tx(TipoOrigem.GERAL, "1.00", DAY.minusDays(3));
+        Transacao geralData = tx(TipoOrigem.GERAL, "81.00", DAY.plusDays(5));
+        Transacao geralValor = tx(TipoOrigem.GERAL, "70.00", DAY.plusDays(1));
+        Transacao geralExato = tx(TipoOrigem.GERAL, "50.00", DAY);
+
+        TransactionMatcher.MatchResult result = matcher.match(List.of(apiExato, apiValor, apiData, apiOrdem),
+                List.of(geralOrdem, geralData, geralValor, geralExato));
+
+        assertEquals(4, result.getMatches().size());
+        assertPair(result, apiExato, geralExato, TransactionMatcher.MatchRule.EXATO);
+        assertPair(result, apiValor, geralValor, TransactionMatcher.MatchRule.VALOR);
+        assertPair(result, apiData, geralData, TransactionMatcher.MatchRule.DATA);
+        assertPair(result, apiOrdem, geralOrdem, TransactionMatcher.MatchRule.ORDEM);
+    }
+
+    @Test
+    void testMatch_ReportsLeftoversOnBothSides() {
+        Transacao api = tx(TipoOrigem.API, "10.00", DAY);
+
+        TransactionMatcher.MatchResult onlyApi = matcher.match(List.of(api), List.of());
+        assertTrue(onlyApi.getMatches().isEmpty());
+        assertEquals(List.of(api), onlyApi.getUnmatchedApi());
+
+        Transacao geral1 = tx(TipoOrigem.GERAL, "10.00", DAY);
+        Transacao geral2 = tx(TipoOrigem.GERAL, "20.00", DAY.plusDays(1));
+        TransactionMatcher.MatchResult extraGeral = matcher.match(List.of(api), List.of(geral1, geral2));
+        assertEquals(1, extraGeral.getMatches().size());
+        assertEquals(List.of(geral2), extraGeral.getUnmatchedGeral());
+    }
+
+    @Test
+    void testMatch_LargeGroupOfDuplicates() {
+        int n = 18_000; // 600 rows per day on both sides
+        List<Transacao> api = new ArrayList<>(n);
+        List<Transacao> geral = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            api.add(tx(TipoOrigem.API, "10.00", DAY.plusDays(i % 30)));
+            geral.add(tx(TipoOrigem.GERAL, "10.00", DAY.plusDays((i + 1) % 30)));
+        }
+
+        TransactionMatcher.MatchResult result = matcher.match(api, geral);
+
+        assertEquals(n, result.getMatches().size());
+        assertTrue(result.getUnmatchedApi().isEmpty());
+        assertTrue(result.getUnmatchedGeral().isEmpty());
+        assertTrue(result.getMatches().stream().allMatch(m -> m.getRule() == TransactionMatcher.MatchRule.EXATO));
+    }
+
+    @Test
+    void testMatch_ToleranceWindowPrefersClosestCandidate() {
+        TransactionMatcher tolerant = new TransactionMatcher(5, 2);
+        Transacao api = tx(TipoOrigem.API, "100.00", DAY);
+        Transacao twoDaysLater = tx(TipoOrigem.GERAL, "100.03", DAY.plusDays(2));
+        Transacao nextDay = tx(TipoOrigem.GERAL, "100.01", DAY.plusDays(1));
+        Transacao tooFar = tx(TipoOrigem.GERAL, "100.00", DAY.plusDays(3));
+
+        TransactionMatcher.MatchResult result = tolerant.match(List.of(api), List.of(tooFar, twoDaysLater, nextDay));
+
+        TransactionMatcher.Match match = result.getMatches().get(0);
+        assertSame(nextDay, match.getGeral());
+        assertEquals(TransactionMatcher.MatchRule.TOLERANCIA, match.getRule());
+        // 90 - 2 (1 of 5 cents) - 5 (1 of 2 days)
+        assertEquals(83, match.getConfidence());
+        assertEquals(List.of(tooFar, twoDaysLater), result.getUnmatchedGeral());
+    }
+
+    @Test
+    void testMatch_ToleranceTierLargeGroupOfDuplicates() {
+        TransactionMatcher tolerant = new TransactionMatcher(0, 1);
+        int n = 18_000; // API on even days, GERAL one day later: nothing is exact
+        List<Transacao> api = new ArrayList<>(n);
+        List<Transacao> geral = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            api.add(tx(TipoOrigem.API, "10.00", DAY.plusDays(2 * (i % 300))));
+            geral.add(tx(TipoOrigem.GERAL, "10.00", DAY.plusDays(2 * (i % 300) + 1)));
+        }
+
+        TransactionMatcher.MatchResult result = tolerant.match(api, geral);
+
+        assertEquals(n, result.getMatches().size());
+        assertTrue(result.getMatches().stream()
+                .allMatch(m -> m.getRule() == TransactionMatcher.MatchRule.TOLERANCIA
+                        && m.getGeral().getDataOcorrencia().equals(m.getApi().getDataOcorrencia().plusDays(1))));
+    }
+
+    @Test
+    void testMatchWithoutKey_DifferentDocumentsNeverPairByName() {
+        TransactionMatcher tolerant = new TransactionMatcher(0, 0);
+        Transacao api = keyless(TipoOrigem.API, "70.00", DAY, "11111111000111", "ACME");
+        Transacao geralOtherDoc = keyless(TipoOrigem.GERAL, "70.00", DAY, "22222222000122", "ACME");
+        Transacao geralNoDoc = keyless(TipoOrigem.GERAL, "70.00", DAY, null, "Acme");
+
+        TransactionMatcher.MatchResult result = tolerant.matchWithoutKey(List.of(api), List.of(geralOtherDoc,
+                geralNoDoc));
+
+        assertPair(result, api, geralNoDoc, TransactionMatcher.MatchRule.DOCUMENTO);
+        assertEquals(List.of(geralOtherDoc), result.getUnmatchedGeral());
+    }
+
+    @Test
+    void testMatch_WithoutToleranceFallsBackToValueTier() {
+        Transacao api = tx(TipoOrigem.API, "100.00", DAY);
+        Transacao geral = tx(TipoOrigem.GERAL, "100.00", DAY.plusDays(1));
+
+        TransactionMatcher.Match match = matcher.match(List.of(api), List.of(geral)).getMatches().get(0);
+
+        assertEquals(TransactionMatcher.MatchRule.VALOR, match.getRule());
+        assertEquals(60, match.getConfidence());
+    }
+
+    @Test
+    void testMatchWithoutKey_UsesDocumentOrPayerName() {
+        TransactionMatcher tolerant = new TransactionMatcher(0, 1);
+        Transacao apiDoc = keyless(TipoOrigem.API, "50.00", DAY, "012.345.678/0001-90", "ACME LTDA");
+        Transacao geralDoc = keyless(TipoOrigem.GERAL, "50.00", DAY.plusDays(1), "12345678000190", "ACME");
+        Transacao apiName = keyless(TipoOrigem.API, "70.00", DAY, null, "José da Silva");
+        Transacao geralName = keyless(TipoOrigem.GERAL, "70.00", DAY, "", "JOSE  DA SILVA");
+        Transacao geralOther = keyless(TipoOrigem.GERAL, "70.00", DAY, "99999999000199", "OUTRO");
+
+        TransactionMatcher.MatchResult result = tolerant.matchWithoutKey(List.of(apiDoc, apiName),
+                List.of(geralOther, geralName, geralDoc));
+
+        assertPair(result, apiDoc, geralDoc, TransactionMatcher.MatchRule.DOCUMENTO);
+        assertPair(result, apiName, geralName, TransactionMatcher.MatchRule.DOCUMENTO);
+        assertEquals(List.of(geralOther), result.getUnmatchedGeral());
+        assertTrue(result.getUnmatchedApi().isEmpty());
+    }
+
+    private void assertPair(TransactionMatcher.MatchResult result, Transacao api, Transacao geral,
+            TransactionMatcher.MatchRule rule) {
+        TransactionMatcher.Match match = result.getMatches().stream().filter(m -> m.getApi() == api).findFirst()
+                .orElseThrow();
+        assertSame(geral, match.getGeral());
+        assertEquals(rule, match.getRule());
+    }
+
+    private Transacao keyless(TipoOrigem origem, String valor, LocalDate data, String inscricao, String nome) {
+        Transacao t = tx(origem, valor, data);
+        t.setNossoNumero("");
+        t.setNumInscricao(inscricao);
+        t.setNomePagador(nome);
+        return t;
+    }
+
+    private Transacao tx(TipoOrigem origem, String valor, LocalDate data) {
+        Transacao t = new Transacao();
+        t.setNossoNumero("001");
+        t.setTipoOrigem(origem);
+        t.setValorPago(new BigDecimal(valor));
+        t.setDataOcorrencia(data);
+        return t;
+    }
+}
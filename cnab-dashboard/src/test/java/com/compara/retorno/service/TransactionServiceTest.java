@@ -2,12 +2,20 @@ package com.compara.retorno.service;
 
 import com.compara.retorno.model.Transacao;
 import com.compara.retorno.model.TipoOrigem;
+import com.compara.retorno.repository.ConciliacaoPendenteRepository;
+import com.compara.retorno.repository.TransacaoComparacaoRepository;
 import com.compara.retorno.repository.TransacaoRepository;
+import com.compara.retorno.repository.TransacaoResumoRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
@@ -17,6 +25,8 @@ import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class TransactionServiceTest {
@@ -24,6 +34,18 @@ class TransactionServiceTest {
     @Mock
     private TransacaoRepository repository;
 
+    @Mock
+    private TransacaoResumoRepository resumoRepository;
+
+    @Mock
+    private TransacaoComparacaoRepository comparacaoRepository;
+
+    @Mock
+    private DataVersion dataVersion;
+
+    @Mock
+    private ConciliacaoPendenteRepository pendenteRepository;
+
     @InjectMocks
     private TransactionService transactionService;
 
@@ -33,49 +55,110 @@ class TransactionServiceTest {
     }
 
     @Test
-    void testCompareTransactions_All() {
-        // Arrange
-        LocalDate start = LocalDate.now();
-        LocalDate end = LocalDate.now();
-        
-        Transacao t1Api = createTransaction("001", TipoOrigem.API, new BigDecimal("100.00"), start);
-        Transacao t1Geral = createTransaction("001", TipoOrigem.GERAL, new BigDecimal("100.00"), start); // Match
-        
-        Transacao t2Api = createTransaction("002", TipoOrigem.API, new BigDecimal("200.00"), start); // Missing GERAL (Divergent)
-        
-        when(repository.findByDataOcorrenciaBetween(any(), any())).thenReturn(Arrays.asList(t1Api, t1Geral, t2Api));
-        
-        // Act
-        List<TransactionService.ComparisonResult> results = transactionService.compareTransactions(start, end, false, false);
-        
-        // Assert
-        assertEquals(2, results.size());
-        
-        // Check first result (Divergent one should be first due to sort)
-        assertTrue(results.stream().anyMatch(r -> r.getNossoNumero().equals("002") && r.isDivergent()));
-        assertTrue(results.stream().anyMatch(r -> r.getNossoNumero().equals("001") && !r.isDivergent()));
+    void testPerformReconciliation_ReportsUpdatedRows() {
+        when(repository.markApiConciliadas()).thenReturn(3);
+        when(repository.markApiDivergentes()).thenReturn(2);
+        when(repository.markGeralConciliadas()).thenReturn(3);
+        when(repository.resetGeralSemPar()).thenReturn(1);
+
+        TransactionService.ReconciliationReport report = transactionService.performReconciliation();
+
+        assertEquals(3, report.getApiConciliadas());
+        assertEquals(2, report.getApiDivergentes());
+        assertEquals(3, report.getGeralConciliadas());
+        assertEquals(1, report.getGeralPendentes());
+        assertEquals(9, report.getUpdatedRows());
+        assertTrue(report.getElapsedMs() >= 0);
+        verify(dataVersion).changed();
+    }
+
+    @Test
+    void testPerformReconciliationOfBatch_RefreshesOnlyBatchComparisons() {
+        when(comparacaoRepository.refreshBatch("lote-1")).thenReturn(4);
+
+        TransactionService.ReconciliationReport report = transactionService.performReconciliation("lote-1");
+
+        assertTrue(report.getPhaseMs().containsKey("Comparação"));
+        verify(comparacaoRepository).refreshBatch("lote-1");
+        verify(comparacaoRepository, never()).rebuild();
+        verify(pendenteRepository).clear("lote-1");
+    }
+
+    @Test
+    void testGetStats_ReadsDailyRollup() {
+        LocalDate start = LocalDate.of(2026, 1, 1);
+        LocalDate end = LocalDate.of(2026, 12, 31);
+        when(resumoRepository.sumRange(start, end, true)).thenReturn(new TransacaoResumoRepository.Totals(
+                new BigDecimal("300.00"), new BigDecimal("100.00"), 2, 5));
+
+        TransactionService.DashboardStats stats = transactionService.getStats(start, end, true);
+
+        assertEquals(new BigDecimal("300.00"), stats.getTotalApi());
+        assertEquals(new BigDecimal("200.00"), stats.getDifference());
+        assertEquals(2L, stats.getCountDivergencias());
+        assertEquals(5L, stats.getCountConciliados());
+        assertEquals(BigDecimal.ZERO, stats.getFinancialDistribution().get("Valor Pago"));
+        verify(repository, never()).sumValorApiByCredit(any(), any());
+    }
+
+    @Test
+    void testCacheEvictedByEveryDataChange() throws Exception {
+        List<java.lang.reflect.Method> mutators = List.of(
+                TransactionService.class.getMethod("saveAll", List.class),
+                TransactionService.class.getMethod("deleteByFileSources", List.class),
+                TransactionService.class.getMethod("clearAll"),
+                TransactionService.class.getMethod("performReconciliation"),
+                TransactionService.class.getMethod("performReconciliation", String.class));
+        for (java.lang.reflect.Method m : mutators) {
+            CacheEvict evict = m.getAnnotation(CacheEvict.class);
+            assertNotNull(evict, m.getName());
+            assertTrue(evict.allEntries());
+            assertEquals(List.of(TransactionService.STATS_CACHE, TransactionService.COMPARISON_CACHE),
+                    Arrays.asList(evict.cacheNames()));
+        }
     }
 
     @Test
-    void testCompareTransactions_OnlyDivergences() {
-        // Arrange
-        LocalDate start = LocalDate.now();
-        LocalDate end = LocalDate.now();
-        
-        Transacao t1Api = createTransaction("001", TipoOrigem.API, new BigDecimal("100.00"), start);
-        Transacao t1Geral = createTransaction("001", TipoOrigem.GERAL, new BigDecimal("100.00"), start); // Match
-        
-        Transacao t2Api = createTransaction("002", TipoOrigem.API, new BigDecimal("200.00"), start); // Missing GERAL (Divergent)
-        
-        when(repository.findByDataOcorrenciaBetween(any(), any())).thenReturn(Arrays.asList(t1Api, t1Geral, t2Api));
-        
-        // Act
-        List<TransactionService.ComparisonResult> results = transactionService.compareTransactions(start, end, false, true);
-        
-        // Assert
+    void testCompareTransactionsPage_AnalyzesDatabasePairs() {
+        LocalDate day = LocalDate.of(2026, 3, 10);
+        Transacao api = createTransaction("001", TipoOrigem.API, new BigDecimal("100.00"), day);
+        Transacao geral = createTransaction("001", TipoOrigem.GERAL, new BigDecimal("90.00"), day);
+        Transacao onlyApi = createTransaction("002", TipoOrigem.API, new BigDecimal("50.00"), day);
+        PageRequest pageable = PageRequest.of(0, 50);
+        when(comparacaoRepository.findPage(day, day, false, false, "nossoNumero", false, pageable))
+                .thenReturn(new PageImpl<>(List.of(
+                        new TransacaoComparacaoRepository.ComparisonPair("001", api, geral),
+                        new TransacaoComparacaoRepository.ComparisonPair("002", onlyApi, null)), pageable, 2));
+
+        Page<TransactionService.ComparisonResult> page = transactionService.compareTransactionsPage(day, day, false,
+                false, "nossoNumero", false, pageable);
+
+        assertEquals(2, page.getTotalElements());
+        assertEquals("DIVERGENTE", page.getContent().get(0).getStatus());
+        assertTrue(page.getContent().get(0).getLogs().get(0).startsWith("DIVERGÊNCIA DE VALOR"));
+        assertEquals("SOMENTE_API", page.getContent().get(1).getStatus());
+    }
+
+    @Test
+    void testCompareTransactionsPage_CreditOneDayLaterWithinTolerance() {
+        ReflectionTestUtils.setField(transactionService, "toleranceDays", 1);
+        LocalDate day = LocalDate.now();
+        Transacao api = createTransaction("001", TipoOrigem.API, new BigDecimal("100.00"), day);
+        Transacao geral = createTransaction("001", TipoOrigem.GERAL, new BigDecimal("100.00"), day);
+        api.setDataCredito(day);
+        geral.setDataCredito(day.plusDays(1));
+        PageRequest pageable = PageRequest.of(0, 50);
+        when(comparacaoRepository.findPage(day, day, false, false, "nossoNumero", false, pageable))
+                .thenReturn(new PageImpl<>(List.of(
+                        new TransacaoComparacaoRepository.ComparisonPair("001", api, geral, "EXATO")), pageable, 1));
+
+        List<TransactionService.ComparisonResult> results = transactionService.compareTransactionsPage(day, day,
+                false, false, "nossoNumero", false, pageable).getContent();
+
         assertEquals(1, results.size());
-        assertEquals("002", results.get(0).getNossoNumero());
-        assertTrue(results.get(0).isDivergent());
+        assertEquals("CONCILIADO", results.get(0).getStatus());
+        assertEquals(100, results.get(0).getConfianca());
+        assertTrue(results.get(0).getLogs().get(0).startsWith(TransactionService.TOLERATED + " DATA CRÉDITO"));
     }
 
     private Transacao createTransaction(String nossoNumero, TipoOrigem origem, BigDecimal valor, LocalDate data) {